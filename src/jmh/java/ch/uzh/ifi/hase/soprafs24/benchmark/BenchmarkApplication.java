@@ -0,0 +1,61 @@
+package ch.uzh.ifi.hase.soprafs24.benchmark;
+
+import ch.uzh.ifi.hase.soprafs24.Application;
+import ch.uzh.ifi.hase.soprafs24.entity.User;
+import ch.uzh.ifi.hase.soprafs24.service.UserService;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Boots the application without a web server on its own embedded H2
+ * database and seeds it with users, for use in benchmark state setup.
+ */
+final class BenchmarkApplication {
+
+  private BenchmarkApplication() {
+  }
+
+  static ConfigurableApplicationContext start(String... extraProperties) {
+    List<String> properties = new ArrayList<>(List.of(
+        "spring.datasource.url=jdbc:h2:mem:bench-" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1",
+        "spring.main.banner-mode=off",
+        "spring.jpa.show-sql=false",
+        "logging.level.root=WARN",
+        "sessions.max-entries=1000000",
+        // the lowest BCrypt cost, so seeding 100k users stays feasible; logIn
+        // therefore measures the service path, not the production hash cost
+        "passwords.bcrypt-strength=4"));
+    properties.addAll(List.of(extraProperties));
+    // passed as arguments, default properties would lose against application.properties
+    return new SpringApplicationBuilder(Application.class)
+        .web(WebApplicationType.NONE)
+        .run(properties.stream().map(property -> "--" + property).toArray(String[]::new));
+  }
+
+  /**
+   * Creates users named user0 .. user(count - 1), all with password "password".
+   */
+  static List<User> seed(UserService userService, int count) {
+    List<User> created = new ArrayList<>(count);
+    for (int from = 0; from < count; from += UserService.MAX_BATCH_SIZE) {
+      List<User> batch = new ArrayList<>();
+      for (int i = from; i < Math.min(from + UserService.MAX_BATCH_SIZE, count); i++) {
+        batch.add(newUser("user" + i));
+      }
+      created.addAll(userService.createUsers(batch));
+    }
+    return created;
+  }
+
+  static User newUser(String username) {
+    User user = new User();
+    user.setUsername(username);
+    user.setPassword("password");
+    return user;
+  }
+}
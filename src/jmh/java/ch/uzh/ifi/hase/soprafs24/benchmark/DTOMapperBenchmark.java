@@ -0,0 +1,60 @@
+package ch.uzh.ifi.hase.soprafs24.benchmark;
+
+import ch.uzh.ifi.hase.soprafs24.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs24.entity.User;
+import ch.uzh.ifi.hase.soprafs24.rest.dto.UserDTO;
+import ch.uzh.ifi.hase.soprafs24.rest.dto.UserGetDTO;
+import ch.uzh.ifi.hase.soprafs24.rest.dto.UserPostDTO;
+import ch.uzh.ifi.hase.soprafs24.rest.mapper.DTOMapper;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Date;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The MapStruct conversions used on every request.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DTOMapperBenchmark {
+
+  private User user;
+
+  private UserPostDTO userPostDTO;
+
+  @Setup
+  public void setUp() {
+    user = new User();
+    user.setId(42L);
+    user.setUsername("benchmark");
+    user.setPassword("password");
+    user.setToken(UUID.randomUUID().toString());
+    user.setStatus(UserStatus.ONLINE);
+    user.setCreationDate(new Date());
+    user.setBirthday(new Date());
+
+    userPostDTO = new UserPostDTO();
+    userPostDTO.setUsername("benchmark");
+    userPostDTO.setPassword("password");
+  }
+
+  @Benchmark
+  public UserGetDTO convertEntityToUserGetDTO() {
+    return DTOMapper.INSTANCE.convertEntityToUserGetDTO(user);
+  }
+
+  @Benchmark
+  public UserDTO convertEntityToUserDTO() {
+    return DTOMapper.INSTANCE.convertEntityToUserDTO(user);
+  }
+
+  @Benchmark
+  public User convertUserPostDTOtoEntity() {
+    return DTOMapper.INSTANCE.convertUserPostDTOtoEntity(userPostDTO);
+  }
+}
@@ -0,0 +1,80 @@
+package ch.uzh.ifi.hase.soprafs24.benchmark;
+
+import ch.uzh.ifi.hase.soprafs24.service.SessionExpiry;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The session expiry engine with a million sessions tracked: recording
+ * activity, which every authenticated request does, and starting a session,
+ * which logIn does. expireTick logs out a batch of sessions that all came due
+ * since the last tick, on an engine of its own.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class SessionExpiryBenchmark {
+
+  @Param({ "1000000" })
+  public int sessions;
+
+  private SessionExpiry sessionExpiry;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    // the repository is only needed to load sessions at startup
+    sessionExpiry = new SessionExpiry(TimeUnit.HOURS.toMillis(1), 1000);
+    for (long userId = 0; userId < sessions; userId++) {
+      sessionExpiry.track(userId, "user" + userId, "token" + userId);
+    }
+  }
+
+  @Benchmark
+  public void touch() {
+    sessionExpiry.touch((long) ThreadLocalRandom.current().nextInt(sessions));
+  }
+
+  @Benchmark
+  @Threads(4)
+  public void touchContended() {
+    touch();
+  }
+
+  @Benchmark
+  public void track() {
+    long userId = ThreadLocalRandom.current().nextInt(sessions);
+    sessionExpiry.track(userId, "user", "token");
+  }
+
+  @State(Scope.Thread)
+  public static class Batch {
+
+    @Param({ "10000" })
+    public int batchSize;
+
+    private final SessionExpiry sessionExpiry = new SessionExpiry(1000, 10);
+
+    private long now;
+
+    @Setup(Level.Invocation)
+    public void trackBatch() {
+      for (long userId = 0; userId < batchSize; userId++) {
+        sessionExpiry.track(userId, "user", "token");
+      }
+      // the wheel runs ahead of the clock, so each tick jumps past the new deadlines
+      now = Math.max(now, System.currentTimeMillis()) + 1010;
+    }
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  public int expireTick(Batch batch) {
+    return batch.sessionExpiry.expire(batch.now, session -> { });
+  }
+}
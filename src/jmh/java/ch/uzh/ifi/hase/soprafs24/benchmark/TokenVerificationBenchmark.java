@@ -0,0 +1,93 @@
+package ch.uzh.ifi.hase.soprafs24.benchmark;
+
+import ch.uzh.ifi.hase.soprafs24.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs24.service.SessionExpiry;
+import ch.uzh.ifi.hase.soprafs24.service.SessionRegistry;
+import ch.uzh.ifi.hase.soprafs24.service.TokenDenylist;
+import ch.uzh.ifi.hase.soprafs24.service.TokenSigner;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Base64;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checking a token the way editUser and logOutUser do it: a random token
+ * against the session registry (a hash lookup and string comparison, each
+ * call also counts as activity), or a signed token by its HMAC and the
+ * denylist. The registry and the denylist hold sessions (revoked tokens) of
+ * other users, the checked token is valid. uuidEquals is the bare string
+ * comparison the registry lookup ends in.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TokenVerificationBenchmark {
+
+  @Param({ "100000" })
+  public int sessions;
+
+  private SessionRegistry sessionRegistry;
+
+  private TokenSigner tokenSigner;
+
+  private TokenDenylist tokenDenylist;
+
+  private String uuidToken;
+
+  private String storedUuidToken;
+
+  private String signedToken;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    // the repository is only needed to rebuild the registry, which is not used here
+    sessionRegistry = new SessionRegistry(null, new SessionExpiry(TimeUnit.HOURS.toMillis(1), 1000), sessions + 1);
+    byte[] key = new byte[32];
+    new Random(42).nextBytes(key);
+    tokenSigner = new TokenSigner(true, Base64.getEncoder().encodeToString(key), TimeUnit.HOURS.toMillis(1));
+    tokenDenylist = new TokenDenylist();
+    for (long userId = 1; userId <= sessions; userId++) {
+      sessionRegistry.register(UUID.randomUUID().toString(), userId, UserStatus.ONLINE);
+      tokenDenylist.revoke(tokenSigner.verify(tokenSigner.issue(userId)));
+    }
+
+    uuidToken = UUID.randomUUID().toString();
+    storedUuidToken = new String(uuidToken.toCharArray());
+    sessionRegistry.register(uuidToken, 0L, UserStatus.ONLINE);
+    signedToken = tokenSigner.issue(0L);
+  }
+
+  @Benchmark
+  public boolean uuidEquals() {
+    return uuidToken.equals(storedUuidToken);
+  }
+
+  @Benchmark
+  public Long sessionRegistry() {
+    SessionRegistry.Session session = sessionRegistry.authenticate(uuidToken);
+    return session != null ? session.getUserId() : null;
+  }
+
+  @Benchmark
+  public Long signedToken() {
+    TokenSigner.Claims claims = tokenSigner.verify(signedToken);
+    return claims != null && !tokenDenylist.isRevoked(claims) ? claims.getUserId() : null;
+  }
+
+  @Benchmark
+  @Threads(4)
+  public Long sessionRegistryContended() {
+    return sessionRegistry();
+  }
+
+  @Benchmark
+  @Threads(4)
+  public Long signedTokenContended() {
+    return signedToken();
+  }
+}
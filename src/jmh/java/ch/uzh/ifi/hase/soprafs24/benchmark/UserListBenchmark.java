@@ -0,0 +1,117 @@
+package ch.uzh.ifi.hase.soprafs24.benchmark;
+
+import ch.uzh.ifi.hase.soprafs24.entity.User;
+import ch.uzh.ifi.hase.soprafs24.repository.UserRepository;
+import ch.uzh.ifi.hase.soprafs24.repository.UserSummary;
+import ch.uzh.ifi.hase.soprafs24.rest.dto.UserDTO;
+import ch.uzh.ifi.hase.soprafs24.rest.dto.UserGetDTO;
+import ch.uzh.ifi.hase.soprafs24.rest.mapper.DTOMapper;
+import ch.uzh.ifi.hase.soprafs24.service.UserService;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.orm.jpa.SharedEntityManagerCreator;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The read-only list and profile paths, each loading managed entities and
+ * mapping them as before, against the projections now used. Reads start at
+ * random IDs, so they spread over the whole table. Run with the gc
+ * profiler to compare the allocation per operation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class UserListBenchmark {
+
+  private static final int PAGE_SIZE = 200;
+
+  @Param({ "1000", "10000", "100000" })
+  public int tableSize;
+
+  private ConfigurableApplicationContext context;
+
+  private UserRepository userRepository;
+
+  private UserService userService;
+
+  private TransactionTemplate readOnly;
+
+  private EntityManager entityManager;
+
+  private List<User> users;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    context = BenchmarkApplication.start();
+    userRepository = context.getBean(UserRepository.class);
+    userService = context.getBean(UserService.class);
+    readOnly = new TransactionTemplate(context.getBean(PlatformTransactionManager.class));
+    readOnly.setReadOnly(true);
+    // a shared proxy that uses the entity manager of the current transaction
+    entityManager = SharedEntityManagerCreator.createSharedEntityManager(
+        context.getBean(EntityManagerFactory.class));
+    users = BenchmarkApplication.seed(userService, tableSize);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    context.close();
+  }
+
+  // leaves room for a full page after the ID
+  private Long randomId() {
+    return users.get(ThreadLocalRandom.current().nextInt(Math.max(1, users.size() - PAGE_SIZE))).getId();
+  }
+
+  // the same keyset page as findSummaryPage, loading managed entities as the list did before
+  @Benchmark
+  public List<UserGetDTO> listEntities() {
+    Long after = randomId();
+    return readOnly.execute(status -> {
+      List<UserGetDTO> page = new ArrayList<>(PAGE_SIZE);
+      List<User> users = entityManager
+          .createQuery("SELECT u FROM User u WHERE u.id > :after ORDER BY u.id", User.class)
+          .setParameter("after", after)
+          .setMaxResults(PAGE_SIZE + 1)
+          .getResultList();
+      for (User user : users.subList(0, Math.min(PAGE_SIZE, users.size()))) {
+        page.add(DTOMapper.INSTANCE.convertEntityToUserGetDTO(user));
+      }
+      return page;
+    });
+  }
+
+  @Benchmark
+  public List<UserGetDTO> listSummaries() {
+    Long after = randomId();
+    return readOnly.execute(status -> {
+      List<UserGetDTO> page = new ArrayList<>(PAGE_SIZE);
+      for (UserSummary user : userRepository.findSummaryPage(after, null, null, PageRequest.of(0, PAGE_SIZE))) {
+        page.add(DTOMapper.INSTANCE.convertSummaryToUserGetDTO(user));
+      }
+      return page;
+    });
+  }
+
+  @Benchmark
+  public UserDTO profileEntity() {
+    return DTOMapper.INSTANCE.convertEntityToUserDTO(userService.findByID(randomId()));
+  }
+
+  @Benchmark
+  public UserDTO profileProjection() {
+    return DTOMapper.INSTANCE.convertProfileToUserDTO(userService.getProfile(randomId()));
+  }
+}
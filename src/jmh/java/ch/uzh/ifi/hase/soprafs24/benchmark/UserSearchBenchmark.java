@@ -0,0 +1,79 @@
+package ch.uzh.ifi.hase.soprafs24.benchmark;
+
+import ch.uzh.ifi.hase.soprafs24.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs24.entity.User;
+import ch.uzh.ifi.hase.soprafs24.service.UserChangedEvent;
+import ch.uzh.ifi.hase.soprafs24.service.UserSearchIndex;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Username searches against an in-memory index holding indexSize users with
+ * made-up names, one page (50 results) per search.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UserSearchBenchmark {
+
+  private static final String[] SYLLABLES = ("ka ri to mo zen lu dra ve sh an el or qu is pe xo ba be bi bo bu"
+      + " da de di do du fa fe fi fo ga ge gi go ha he hi ho ja jo ki ko la le li lo ma me mi na ne ni no pa po"
+      + " ra re ro sa se si so ta te ti tu va vi wa we ya yo za zo").split(" ");
+
+  private static final int PAGE = 51;
+
+  @Param({ "1000", "10000", "100000" })
+  public int indexSize;
+
+  private UserSearchIndex index;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    // the repository is only needed for load(), which is not used here
+    index = new UserSearchIndex(null);
+    Random random = new Random(42);
+    for (long id = 1; id <= indexSize; id++) {
+      StringBuilder name = new StringBuilder();
+      int syllables = 2 + random.nextInt(3);
+      for (int i = 0; i < syllables; i++) {
+        name.append(SYLLABLES[random.nextInt(SYLLABLES.length)]);
+      }
+      if (random.nextBoolean()) {
+        name.append(random.nextInt(1000));
+      }
+      index.onUserChanged(new UserChangedEvent(id, UserChangedEvent.Type.CREATED, name.toString(),
+          name.toString(), UserStatus.OFFLINE));
+    }
+  }
+
+  @Benchmark
+  public List<User> shortPrefix() {
+    return index.search("ka", PAGE);
+  }
+
+  @Benchmark
+  public List<User> longPrefix() {
+    return index.search("karito", PAGE);
+  }
+
+  @Benchmark
+  public List<User> oneTypo() {
+    return index.search("kartio", PAGE);
+  }
+
+  @Benchmark
+  public List<User> twoTypos() {
+    return index.search("karitmozenx", PAGE);
+  }
+
+  @Benchmark
+  public List<User> noMatch() {
+    return index.search("wwwwwwww", PAGE);
+  }
+}
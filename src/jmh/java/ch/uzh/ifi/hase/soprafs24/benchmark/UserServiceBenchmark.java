@@ -0,0 +1,91 @@
+package ch.uzh.ifi.hase.soprafs24.benchmark;
+
+import ch.uzh.ifi.hase.soprafs24.entity.User;
+import ch.uzh.ifi.hase.soprafs24.service.UserService;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * UserService hot paths against an embedded H2 holding tableSize users.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class UserServiceBenchmark {
+
+  private static final int BATCH_SIZE = 50;
+
+  @Param({ "1000", "10000", "100000" })
+  public int tableSize;
+
+  private ConfigurableApplicationContext context;
+
+  private UserService userService;
+
+  private List<User> users;
+
+  private final AtomicLong newUsers = new AtomicLong();
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    context = BenchmarkApplication.start("presence.flush-interval-ms=1000");
+    userService = context.getBean(UserService.class);
+    users = BenchmarkApplication.seed(userService, tableSize);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    context.close();
+  }
+
+  private User randomUser() {
+    return users.get(ThreadLocalRandom.current().nextInt(users.size()));
+  }
+
+  @Benchmark
+  public User findByID() {
+    return userService.findByID(randomUser().getId());
+  }
+
+  @Benchmark
+  public User findByName() {
+    return userService.findByName(randomUser().getUsername());
+  }
+
+  @Benchmark
+  public User logIn() {
+    User user = randomUser();
+    User credentials = new User();
+    credentials.setUsername(user.getUsername());
+    credentials.setPassword("password");
+    return userService.logIn(credentials);
+  }
+
+  @Benchmark
+  public User createUser() {
+    return userService.createUser(BenchmarkApplication.newUser("single" + newUsers.incrementAndGet()));
+  }
+
+  /**
+   * The bulk registration path, reported per created user so that it can be
+   * compared with createUser directly.
+   */
+  @Benchmark
+  @OperationsPerInvocation(BATCH_SIZE)
+  public List<User> createUsers() {
+    List<User> batch = new ArrayList<>(BATCH_SIZE);
+    for (int i = 0; i < BATCH_SIZE; i++) {
+      batch.add(BenchmarkApplication.newUser("batch" + newUsers.incrementAndGet()));
+    }
+    return userService.createUsers(batch);
+  }
+}
@@ -0,0 +1,118 @@
+package ch.uzh.ifi.hase.soprafs24.benchmark;
+
+import ch.uzh.ifi.hase.soprafs24.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs24.rest.dto.UserDTO;
+import ch.uzh.ifi.hase.soprafs24.rest.dto.UserGetDTO;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding and decoding of a full user list page (200 users) and of a profile
+ * in each format the user endpoints negotiate. The payload sizes are printed
+ * once per trial.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WireFormatBenchmark {
+
+  private static final int PAGE_SIZE = 200;
+
+  @Param({ "json", "cbor", "smile" })
+  public String format;
+
+  private ObjectWriter pageWriter;
+
+  private ObjectReader pageReader;
+
+  private ObjectWriter profileWriter;
+
+  private ObjectReader profileReader;
+
+  private List<UserGetDTO> page;
+
+  private UserDTO profile;
+
+  private byte[] encodedPage;
+
+  private byte[] encodedProfile;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    ObjectMapper mapper = mapperFor(format);
+    TypeReference<List<UserGetDTO>> pageType = new TypeReference<>() {
+    };
+    pageWriter = mapper.writerFor(pageType);
+    pageReader = mapper.readerFor(pageType);
+    profileWriter = mapper.writerFor(UserDTO.class);
+    profileReader = mapper.readerFor(UserDTO.class);
+
+    page = new ArrayList<>(PAGE_SIZE);
+    for (int i = 0; i < PAGE_SIZE; i++) {
+      UserGetDTO user = new UserGetDTO();
+      user.setId(100000L + i);
+      user.setUsername("player" + i);
+      user.setStatus(i % 3 == 0 ? UserStatus.ONLINE : UserStatus.OFFLINE);
+      page.add(user);
+    }
+    profile = new UserDTO();
+    profile.setId(42L);
+    profile.setUsername("benchmark");
+    profile.setToken(UUID.randomUUID().toString());
+    profile.setStatus(UserStatus.ONLINE.toString());
+    profile.setCreationDate(new Date());
+    profile.setBirthday(new Date());
+
+    encodedPage = pageWriter.writeValueAsBytes(page);
+    encodedProfile = profileWriter.writeValueAsBytes(profile);
+  }
+
+  // built like the mappers of the converters, minus the spring.jackson properties
+  private static ObjectMapper mapperFor(String format) {
+    Jackson2ObjectMapperBuilder builder = Jackson2ObjectMapperBuilder.json();
+    switch (format) {
+      case "cbor":
+        return builder.factory(new CBORFactory()).build();
+      case "smile":
+        return builder.factory(new SmileFactory()).build();
+      default:
+        return builder.build();
+    }
+  }
+
+  @Benchmark
+  public byte[] encodePage() throws IOException {
+    return pageWriter.writeValueAsBytes(page);
+  }
+
+  @Benchmark
+  public List<UserGetDTO> decodePage() throws IOException {
+    return pageReader.readValue(encodedPage);
+  }
+
+  @Benchmark
+  public byte[] encodeProfile() throws IOException {
+    return profileWriter.writeValueAsBytes(profile);
+  }
+
+  @Benchmark
+  public UserDTO decodeProfile() throws IOException {
+    return profileReader.readValue(encodedProfile);
+  }
+}
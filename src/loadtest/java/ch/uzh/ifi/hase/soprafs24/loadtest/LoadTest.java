@@ -0,0 +1,217 @@
+package ch.uzh.ifi.hase.soprafs24.loadtest;
+
+import ch.uzh.ifi.hase.soprafs24.Application;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Load Test
+ * This class starts the application on a random port, registers a set of
+ * users and then sends a weighted mix of REST calls at a fixed rate.
+ * The generator is open-loop: requests are started on schedule no matter how
+ * many are still outstanding, and every latency is measured from the time the
+ * request was due rather than when it was actually sent. A slow server
+ * therefore shows up in the tail percentiles instead of silently lowering the
+ * request rate (coordinated omission). Requests dropped because too many are
+ * outstanding are recorded as well, with the time from when they were due to
+ * the end of the run, which is the least they would have taken.
+ * Run it with ./gradlew loadTest --args='--rate=500 --duration=120'.
+ */
+public final class LoadTest {
+
+  /** Requests that are still outstanding beyond this are dropped, not queued. */
+  private static final int MAX_IN_FLIGHT = 10_000;
+
+  private static final long HIGHEST_TRACKABLE_MICROS = TimeUnit.MINUTES.toMicros(5);
+
+  private final LoadTestOptions options;
+
+  private final UserApiClient client;
+
+  private final Map<Operation, Recorder> recorders = new EnumMap<>(Operation.class);
+
+  private final Map<Operation, AtomicLong> failures = new EnumMap<>(Operation.class);
+
+  private final AtomicInteger inFlight = new AtomicInteger();
+
+  private final Map<Operation, AtomicLong> drops = new EnumMap<>(Operation.class);
+
+  // only touched by the thread that schedules the requests
+  private final List<DroppedRequest> droppedRequests = new ArrayList<>();
+
+  private final Operation[] weightedOperations;
+
+  private LoadTest(LoadTestOptions options, UserApiClient client) {
+    this.options = options;
+    this.client = client;
+    List<Operation> weighted = new ArrayList<>();
+    for (Map.Entry<Operation, Integer> entry : options.mix.entrySet()) {
+      for (int i = 0; i < entry.getValue(); i++) {
+        weighted.add(entry.getKey());
+      }
+    }
+    this.weightedOperations = weighted.toArray(new Operation[0]);
+    for (Operation operation : Operation.values()) {
+      recorders.put(operation, new Recorder(HIGHEST_TRACKABLE_MICROS, 3));
+      failures.put(operation, new AtomicLong());
+      drops.put(operation, new AtomicLong());
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    LoadTestOptions options = LoadTestOptions.parse(args);
+    ConfigurableApplicationContext context = new SpringApplicationBuilder(Application.class)
+        // all load comes from one address, which the rate limiter would throttle
+        .properties("server.port=0", "spring.main.banner-mode=off", "logging.level.root=WARN",
+            "ratelimit.enabled=false")
+        .run();
+    try {
+      int port = ((WebServerApplicationContext) context).getWebServer().getPort();
+      UserApiClient client = new UserApiClient(URI.create("http://localhost:" + port));
+      System.out.printf("Seeding %d users%n", options.users);
+      client.seed(options.users);
+
+      LoadTest loadTest = new LoadTest(options, client);
+      System.out.printf("Running %s%n", options);
+      loadTest.run(options.warmupSeconds);
+      loadTest.reset();
+      long started = System.nanoTime();
+      loadTest.run(options.durationSeconds);
+      loadTest.report(System.nanoTime() - started);
+    } finally {
+      context.close();
+    }
+  }
+
+  private void run(int seconds) throws InterruptedException {
+    long intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / options.rate);
+    long total = (long) (options.rate * seconds);
+    long start = System.nanoTime();
+    for (long i = 0; i < total; i++) {
+      long intendedStart = start + i * intervalNanos;
+      long wait;
+      while ((wait = intendedStart - System.nanoTime()) > 0) {
+        LockSupport.parkNanos(wait);
+      }
+      Operation planned = weightedOperations[ThreadLocalRandom.current().nextInt(weightedOperations.length)];
+      if (inFlight.get() >= MAX_IN_FLIGHT) {
+        drops.get(planned).incrementAndGet();
+        droppedRequests.add(new DroppedRequest(planned, intendedStart));
+        continue;
+      }
+      inFlight.incrementAndGet();
+      client.execute(planned).whenComplete((result, error) -> {
+        Operation operation = result != null ? result.operation : planned;
+        record(operation, System.nanoTime() - intendedStart);
+        if (error != null || result.failed()) {
+          failures.get(operation).incrementAndGet();
+        }
+        inFlight.decrementAndGet();
+      });
+    }
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+    while (inFlight.get() > 0 && System.nanoTime() < deadline) {
+      Thread.sleep(10);
+    }
+    // a dropped request was never answered, so it took at least until now
+    long end = System.nanoTime();
+    for (DroppedRequest request : droppedRequests) {
+      record(request.operation, end - request.intendedStart);
+    }
+    droppedRequests.clear();
+  }
+
+  private void record(Operation operation, long latencyNanos) {
+    long latencyMicros = TimeUnit.NANOSECONDS.toMicros(latencyNanos);
+    recorders.get(operation).recordValue(Math.min(latencyMicros, HIGHEST_TRACKABLE_MICROS));
+  }
+
+  private void reset() {
+    for (Operation operation : Operation.values()) {
+      recorders.get(operation).reset();
+      failures.get(operation).set(0);
+      drops.get(operation).set(0);
+    }
+  }
+
+  private void report(long elapsedNanos) throws IOException {
+    File directory = new File(options.output);
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Cannot create " + directory);
+    }
+    Histogram all = new Histogram(HIGHEST_TRACKABLE_MICROS, 3);
+    System.out.printf("%n%-11s %9s %8s %9s %9s %9s %9s %9s %9s%n", "operation", "count", "failed", "dropped",
+        "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms");
+    for (Operation operation : Operation.values()) {
+      Histogram histogram = recorders.get(operation).getIntervalHistogram();
+      if (histogram.getTotalCount() == 0) {
+        continue;
+      }
+      all.add(histogram);
+      printRow(operation.optionName(), histogram, failures.get(operation).get(), drops.get(operation).get());
+      writeDistribution(new File(directory, operation.optionName() + ".hgrm"), histogram);
+    }
+    long failed = failures.values().stream().mapToLong(AtomicLong::get).sum();
+    long dropped = drops.values().stream().mapToLong(AtomicLong::get).sum();
+    printRow("all", all, failed, dropped);
+    writeDistribution(new File(directory, "all.hgrm"), all);
+    System.out.printf("%nAchieved %.1f requests/s, %d dropped (%.2f%%, more than %d in flight)%n",
+        (all.getTotalCount() - dropped) / (elapsedNanos / 1e9), dropped, dropRate(dropped, all), MAX_IN_FLIGHT);
+    if (dropped > 0) {
+      System.out.println("Dropped requests are included in the percentiles with the time they waited until the end"
+          + " of the run, a lower bound: lower the rate for exact tail latencies");
+    }
+    System.out.printf("Percentile distributions written to %s%n", directory.getAbsolutePath());
+  }
+
+  private static void printRow(String name, Histogram histogram, long failed, long dropped) {
+    System.out.printf("%-11s %9d %8d %8.2f%% %9.2f %9.2f %9.2f %9.2f %9.2f%n", name, histogram.getTotalCount(),
+        failed, dropRate(dropped, histogram), millis(histogram.getValueAtPercentile(50)), millis(histogram.getValueAtPercentile(90)),
+        millis(histogram.getValueAtPercentile(99)), millis(histogram.getValueAtPercentile(99.9)),
+        millis(histogram.getMaxValue()));
+  }
+
+  private static void writeDistribution(File file, Histogram histogram) throws IOException {
+    try (PrintStream out = new PrintStream(new FileOutputStream(file))) {
+      // values are recorded in microseconds, the file is in milliseconds
+      histogram.outputPercentileDistribution(out, 1000.0);
+    }
+  }
+
+  private static double millis(long micros) {
+    return micros / 1000.0;
+  }
+
+  // percentage of the recorded requests that were dropped
+  private static double dropRate(long dropped, Histogram histogram) {
+    return histogram.getTotalCount() == 0 ? 0 : 100.0 * dropped / histogram.getTotalCount();
+  }
+
+  private static final class DroppedRequest {
+    private final Operation operation;
+    private final long intendedStart;
+
+    DroppedRequest(Operation operation, long intendedStart) {
+      this.operation = operation;
+      this.intendedStart = intendedStart;
+    }
+  }
+}
@@ -0,0 +1,65 @@
+package ch.uzh.ifi.hase.soprafs24.loadtest;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Command line options of the load test, given as --name=value.
+ * --rate      requests per second, spread evenly (default 200)
+ * --duration  measured seconds (default 60)
+ * --warmup    seconds at the same rate before measuring (default 10)
+ * --users     users registered before the run (default 1000)
+ * --mix       weights per operation, e.g. login:4,getUser:4,listUsers:2,logout:1,createUser:1
+ * --output    directory for the percentile distributions (default build/reports/loadtest)
+ */
+final class LoadTestOptions {
+
+  final double rate;
+  final int durationSeconds;
+  final int warmupSeconds;
+  final int users;
+  final Map<Operation, Integer> mix;
+  final String output;
+
+  private LoadTestOptions(Map<String, String> values) {
+    this.rate = Double.parseDouble(values.getOrDefault("rate", "200"));
+    this.durationSeconds = Integer.parseInt(values.getOrDefault("duration", "60"));
+    this.warmupSeconds = Integer.parseInt(values.getOrDefault("warmup", "10"));
+    this.users = Integer.parseInt(values.getOrDefault("users", "1000"));
+    this.mix = parseMix(values.getOrDefault("mix", "login:4,getUser:4,listUsers:2,logout:1,createUser:1"));
+    this.output = values.getOrDefault("output", "build/reports/loadtest");
+  }
+
+  static LoadTestOptions parse(String[] args) {
+    Map<String, String> values = new LinkedHashMap<>();
+    for (String arg : args) {
+      if (!arg.startsWith("--") || !arg.contains("=")) {
+        throw new IllegalArgumentException("Expected --name=value but got " + arg);
+      }
+      int separator = arg.indexOf('=');
+      values.put(arg.substring(2, separator), arg.substring(separator + 1));
+    }
+    return new LoadTestOptions(values);
+  }
+
+  private static Map<Operation, Integer> parseMix(String mix) {
+    Map<Operation, Integer> weights = new LinkedHashMap<>();
+    for (String entry : mix.split(",")) {
+      String[] parts = entry.trim().split(":");
+      int weight = parts.length > 1 ? Integer.parseInt(parts[1]) : 1;
+      if (weight > 0) {
+        weights.put(Operation.fromName(parts[0]), weight);
+      }
+    }
+    if (weights.isEmpty()) {
+      throw new IllegalArgumentException("The mix needs at least one operation");
+    }
+    return weights;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("rate=%.0f/s duration=%ds warmup=%ds users=%d mix=%s", rate, durationSeconds,
+        warmupSeconds, users, mix);
+  }
+}
@@ -0,0 +1,31 @@
+package ch.uzh.ifi.hase.soprafs24.loadtest;
+
+/**
+ * The REST calls the load test can mix.
+ */
+enum Operation {
+  CREATE_USER("createUser"),
+  LOGIN("login"),
+  LOGOUT("logout"),
+  LIST_USERS("listUsers"),
+  GET_USER("getUser");
+
+  private final String optionName;
+
+  Operation(String optionName) {
+    this.optionName = optionName;
+  }
+
+  String optionName() {
+    return optionName;
+  }
+
+  static Operation fromName(String name) {
+    for (Operation operation : values()) {
+      if (operation.optionName.equalsIgnoreCase(name)) {
+        return operation;
+      }
+    }
+    throw new IllegalArgumentException("Unknown operation " + name);
+  }
+}
@@ -0,0 +1,162 @@
+package ch.uzh.ifi.hase.soprafs24.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Issues the REST calls of the load test without blocking the caller. Keeps
+ * the registered users and the sessions opened by logins, so that logouts
+ * and profile reads hit real data.
+ */
+final class UserApiClient {
+
+  static final String PASSWORD = "password";
+
+  private static final int SEED_CHUNK = 5000;
+
+  private final HttpClient http;
+
+  private final URI base;
+
+  private final ObjectMapper mapper = new ObjectMapper();
+
+  private final List<Long> userIds = new ArrayList<>();
+
+  private final List<String> usernames = new ArrayList<>();
+
+  private final ConcurrentLinkedQueue<ObjectNode> sessions = new ConcurrentLinkedQueue<>();
+
+  UserApiClient(URI base) {
+    this.base = base;
+    this.http = HttpClient.newBuilder()
+        .version(HttpClient.Version.HTTP_1_1)
+        .connectTimeout(Duration.ofSeconds(5))
+        .build();
+  }
+
+  /**
+   * Registers count users through the batch endpoint before the run starts.
+   */
+  void seed(int count) throws IOException, InterruptedException {
+    String runId = UUID.randomUUID().toString().substring(0, 8);
+    for (int from = 0; from < count; from += SEED_CHUNK) {
+      ArrayNode batch = mapper.createArrayNode();
+      for (int i = from; i < Math.min(from + SEED_CHUNK, count); i++) {
+        batch.addObject().put("username", "load-" + runId + "-" + i).put("password", PASSWORD);
+      }
+      HttpResponse<String> response = http.send(json("POST", "/users/batch", batch),
+          HttpResponse.BodyHandlers.ofString());
+      if (response.statusCode() != 200) {
+        throw new IllegalStateException("Seeding failed with status " + response.statusCode());
+      }
+      for (JsonNode result : mapper.readTree(response.body())) {
+        if ("CREATED".equals(result.path("result").asText())) {
+          userIds.add(result.path("id").asLong());
+          usernames.add(result.path("username").asText());
+        }
+      }
+    }
+  }
+
+  /**
+   * Starts the operation and completes with the operation that was actually
+   * run (a logout without an open session logs in instead) and its status.
+   */
+  CompletableFuture<Result> execute(Operation operation) {
+    switch (operation) {
+      case CREATE_USER:
+        ObjectNode newUser = mapper.createObjectNode()
+            .put("username", "load-" + UUID.randomUUID())
+            .put("password", PASSWORD);
+        return send(operation, json("POST", "/users", newUser));
+      case LOGIN:
+        return login();
+      case LOGOUT:
+        ObjectNode session = sessions.poll();
+        if (session == null) {
+          return login();
+        }
+        return send(operation, json("PUT", "/logout", session));
+      case LIST_USERS:
+        return send(operation, get("/users?limit=50"));
+      case GET_USER:
+        return send(operation, get("/users/" + userIds.get(randomIndex())));
+      default:
+        throw new IllegalArgumentException(operation.name());
+    }
+  }
+
+  private CompletableFuture<Result> login() {
+    ObjectNode credentials = mapper.createObjectNode()
+        .put("username", usernames.get(randomIndex()))
+        .put("password", PASSWORD);
+    return http.sendAsync(json("POST", "/login", credentials), HttpResponse.BodyHandlers.ofString())
+        .thenApply(response -> {
+          if (response.statusCode() == 200) {
+            try {
+              JsonNode user = mapper.readTree(response.body());
+              sessions.add(mapper.createObjectNode()
+                  .put("id", user.path("id").asLong())
+                  .put("token", user.path("token").asText()));
+            } catch (IOException e) {
+              return new Result(Operation.LOGIN, -1);
+            }
+          }
+          return new Result(Operation.LOGIN, response.statusCode());
+        });
+  }
+
+  private CompletableFuture<Result> send(Operation operation, HttpRequest request) {
+    return http.sendAsync(request, HttpResponse.BodyHandlers.discarding())
+        .thenApply(response -> new Result(operation, response.statusCode()));
+  }
+
+  private int randomIndex() {
+    return ThreadLocalRandom.current().nextInt(userIds.size());
+  }
+
+  private HttpRequest get(String path) {
+    return HttpRequest.newBuilder(base.resolve(path)).timeout(Duration.ofSeconds(30)).GET().build();
+  }
+
+  private HttpRequest json(String method, String path, JsonNode body) {
+    try {
+      return HttpRequest.newBuilder(base.resolve(path))
+          .timeout(Duration.ofSeconds(30))
+          .header("Content-Type", "application/json")
+          .method(method, HttpRequest.BodyPublishers.ofByteArray(mapper.writeValueAsBytes(body)))
+          .build();
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  static final class Result {
+    final Operation operation;
+    final int status;
+
+    Result(Operation operation, int status) {
+      this.operation = operation;
+      this.status = status;
+    }
+
+    boolean failed() {
+      return status < 200 || status >= 400;
+    }
+  }
+}
@@ -0,0 +1,33 @@
+package ch.uzh.ifi.hase.soprafs24.config;
+
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.converter.cbor.MappingJackson2CborHttpMessageConverter;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.http.converter.smile.MappingJackson2SmileHttpMessageConverter;
+
+/**
+ * Binary Format Configuration
+ * This class lets clients ask for CBOR (application/cbor) or Smile
+ * (application/x-jackson-smile) instead of JSON through the Accept header,
+ * and send request bodies in either. The converters replace the defaults
+ * Spring MVC registers for these formats, so they share the Jackson settings
+ * of the JSON converter, and stay behind it: requests without a preference
+ * still get JSON.
+ */
+@Configuration
+public class BinaryFormatConfiguration {
+
+  // the builder is a prototype bean carrying the spring.jackson settings, only its factory is swapped
+  @Bean
+  public MappingJackson2CborHttpMessageConverter cborHttpMessageConverter(Jackson2ObjectMapperBuilder builder) {
+    return new MappingJackson2CborHttpMessageConverter(builder.factory(new CBORFactory()).build());
+  }
+
+  @Bean
+  public MappingJackson2SmileHttpMessageConverter smileHttpMessageConverter(Jackson2ObjectMapperBuilder builder) {
+    return new MappingJackson2SmileHttpMessageConverter(builder.factory(new SmileFactory()).build());
+  }
+}
@@ -0,0 +1,64 @@
+package ch.uzh.ifi.hase.soprafs24.config;
+
+import ch.uzh.ifi.hase.soprafs24.ratelimit.RateLimitFilter;
+import ch.uzh.ifi.hase.soprafs24.ratelimit.TokenBucketLimiter;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.Ordered;
+import org.springframework.scheduling.annotation.Scheduled;
+
+/**
+ * Rate Limit Configuration
+ * This class puts the token bucket filter in front of login and registration
+ * (ratelimit.enabled) and sweeps idle buckets periodically.
+ */
+@Configuration
+@ConditionalOnProperty(name = "ratelimit.enabled", havingValue = "true", matchIfMissing = true)
+public class RateLimitConfiguration {
+
+  private final TokenBucketLimiter ipLimiter;
+
+  private final TokenBucketLimiter usernameLimiter;
+
+  public RateLimitConfiguration(MeterRegistry meterRegistry,
+      @Value("${ratelimit.max-entries:100000}") int maxEntries,
+      @Value("${ratelimit.ip.capacity:20}") int ipCapacity,
+      @Value("${ratelimit.ip.refill-per-second:5}") double ipRefill,
+      @Value("${ratelimit.username.capacity:5}") int usernameCapacity,
+      @Value("${ratelimit.username.refill-per-second:0.2}") double usernameRefill) {
+    this.ipLimiter = new TokenBucketLimiter("ip", ipCapacity, ipRefill, maxEntries);
+    this.usernameLimiter = new TokenBucketLimiter("username", usernameCapacity, usernameRefill, maxEntries);
+    for (TokenBucketLimiter limiter : new TokenBucketLimiter[] { ipLimiter, usernameLimiter }) {
+      FunctionCounter.builder("users.ratelimit.rejected", limiter, TokenBucketLimiter::getRejectedCount)
+          .tag("key", limiter.getName())
+          .register(meterRegistry);
+      Gauge.builder("users.ratelimit.buckets", limiter, TokenBucketLimiter::size)
+          .tag("key", limiter.getName())
+          .register(meterRegistry);
+    }
+  }
+
+  @Bean
+  public FilterRegistrationBean<RateLimitFilter> rateLimitFilter(ObjectMapper objectMapper) {
+    FilterRegistrationBean<RateLimitFilter> registration =
+        new FilterRegistrationBean<>(new RateLimitFilter(ipLimiter, usernameLimiter, objectMapper));
+    // patterns match exactly, while the handlers also take a trailing slash
+    registration.addUrlPatterns("/login", "/login/", "/users", "/users/", "/users/batch", "/users/batch/");
+    // before request tracing, rejected requests are not worth measuring
+    registration.setOrder(Ordered.HIGHEST_PRECEDENCE + 10);
+    return registration;
+  }
+
+  @Scheduled(fixedDelayString = "${ratelimit.sweep-interval-ms:60000}")
+  public void evictIdleBuckets() {
+    ipLimiter.evictIdle();
+    usernameLimiter.evictIdle();
+  }
+}
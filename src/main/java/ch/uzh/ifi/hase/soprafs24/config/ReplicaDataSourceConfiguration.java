@@ -0,0 +1,86 @@
+package ch.uzh.ifi.hase.soprafs24.config;
+
+import ch.uzh.ifi.hase.soprafs24.datasource.ReadWriteRoutingDataSource;
+import ch.uzh.ifi.hase.soprafs24.datasource.ReadYourWritesFilter;
+import com.zaxxer.hikari.HikariDataSource;
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.resource.jdbc.spi.PhysicalConnectionHandlingMode;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+
+/**
+ * Replica Data Source Configuration
+ * This class splits the database access when datasource.replica.url is set:
+ * read-only transactions go to a pool on the replica, everything else to the
+ * primary configured under spring.datasource. A client that wrote keeps
+ * reading from the primary for datasource.replica.read-your-writes-ms.
+ * Without a replica, Spring Boot's single data source is used as before.
+ */
+@Configuration
+@ConditionalOnProperty(name = "datasource.replica.url")
+public class ReplicaDataSourceConfiguration {
+
+  @Bean
+  public HikariDataSource primaryDataSource(DataSourceProperties properties) {
+    HikariDataSource dataSource = properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+    dataSource.setPoolName("primary");
+    return dataSource;
+  }
+
+  @Bean
+  public HikariDataSource replicaDataSource(DataSourceProperties properties,
+      @Value("${datasource.replica.url}") String url,
+      @Value("${datasource.replica.username:${spring.datasource.username:}}") String username,
+      @Value("${datasource.replica.password:${spring.datasource.password:}}") String password,
+      @Value("${datasource.replica.max-pool-size:10}") int maxPoolSize) {
+    HikariDataSource dataSource = new HikariDataSource();
+    dataSource.setPoolName("replica");
+    dataSource.setDriverClassName(properties.determineDriverClassName());
+    dataSource.setJdbcUrl(url);
+    dataSource.setUsername(username);
+    dataSource.setPassword(password);
+    dataSource.setMaximumPoolSize(maxPoolSize);
+    dataSource.setReadOnly(true);
+    return dataSource;
+  }
+
+  // the one everything else (JPA, Spring Boot's JDBC support) gets injected. Spring Boot's schema
+  // initializer asks for it while the pools are created, so it must not touch them before first use:
+  // they are injected lazily, and the connection defaults are given instead of read from a connection.
+  @Bean
+  @Primary
+  public DataSource dataSource(@Lazy @Qualifier("primaryDataSource") DataSource primary,
+      @Lazy @Qualifier("replicaDataSource") DataSource replica) {
+    LazyConnectionDataSourceProxy dataSource = new LazyConnectionDataSourceProxy();
+    dataSource.setTargetDataSource(new ReadWriteRoutingDataSource(primary, replica));
+    dataSource.setDefaultAutoCommit(true);
+    dataSource.setDefaultTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
+    return dataSource;
+  }
+
+  // by default a session keeps its connection until it is closed, which with open-in-view
+  // is the end of the request: a write after a read-only transaction would reuse the replica
+  @Bean
+  public HibernatePropertiesCustomizer releaseConnectionsAfterTransaction() {
+    return properties -> properties.put(AvailableSettings.CONNECTION_HANDLING,
+        PhysicalConnectionHandlingMode.DELAYED_ACQUISITION_AND_RELEASE_AFTER_TRANSACTION);
+  }
+
+  @Bean
+  public FilterRegistrationBean<ReadYourWritesFilter> readYourWritesFilter(
+      @Value("${datasource.replica.read-your-writes-ms:5000}") long windowMillis) {
+    return new FilterRegistrationBean<>(new ReadYourWritesFilter(windowMillis));
+  }
+}
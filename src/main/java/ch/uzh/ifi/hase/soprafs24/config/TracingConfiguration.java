@@ -0,0 +1,37 @@
+package ch.uzh.ifi.hase.soprafs24.config;
+
+import ch.uzh.ifi.hase.soprafs24.tracing.ServerTimingFilter;
+import ch.uzh.ifi.hase.soprafs24.tracing.TracingJackson2HttpMessageConverter;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Tracing Configuration
+ * This class switches on the per-request Server-Timing breakdown for the user
+ * endpoints when tracing.server-timing.enabled is set. The JDBC listener is
+ * always registered with Hibernate but does nothing for untraced requests.
+ */
+@Configuration
+@ConditionalOnProperty(name = "tracing.server-timing.enabled", havingValue = "true")
+public class TracingConfiguration {
+
+  @Bean
+  public FilterRegistrationBean<ServerTimingFilter> serverTimingFilter(
+      @Value("${tracing.server-timing.sample-rate:1.0}") double sampleRate,
+      @Value("${tracing.server-timing.slow-request-ms:1000}") long slowRequestMillis) {
+    FilterRegistrationBean<ServerTimingFilter> registration =
+        new FilterRegistrationBean<>(new ServerTimingFilter(sampleRate, slowRequestMillis));
+    registration.addUrlPatterns("/users", "/users/*", "/login", "/logout");
+    return registration;
+  }
+
+  // replaces the default Jackson converter, Spring Boot backs off when one is defined
+  @Bean
+  public TracingJackson2HttpMessageConverter tracingJackson2HttpMessageConverter(ObjectMapper objectMapper) {
+    return new TracingJackson2HttpMessageConverter(objectMapper);
+  }
+}
@@ -0,0 +1,5 @@
+package ch.uzh.ifi.hase.soprafs24.constant;
+
+public enum RegistrationResult {
+  CREATED, CONFLICT, INVALID;
+}
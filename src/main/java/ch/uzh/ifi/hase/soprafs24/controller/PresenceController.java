@@ -0,0 +1,76 @@
+package ch.uzh.ifi.hase.soprafs24.controller;
+
+import ch.uzh.ifi.hase.soprafs24.rest.dto.PresenceDTO;
+import ch.uzh.ifi.hase.soprafs24.service.PresenceBroadcaster;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.util.List;
+
+/**
+ * Presence Controller
+ * This class serves the presence stream: a Server-Sent Events connection on
+ * which clients receive ONLINE/OFFLINE changes of all users as they happen,
+ * instead of polling GET /users.
+ * Events: "presence" carries a JSON array of PresenceDTO, "resync" tells the
+ * client that updates were dropped and it should reload the user list.
+ */
+@RestController
+public class PresenceController {
+
+  private final PresenceBroadcaster presenceBroadcaster;
+
+  private final long streamTimeoutMillis;
+
+  PresenceController(PresenceBroadcaster presenceBroadcaster,
+      @Value("${presence.stream.timeout-ms:1800000}") long streamTimeoutMillis) {
+    this.presenceBroadcaster = presenceBroadcaster;
+    this.streamTimeoutMillis = streamTimeoutMillis;
+  }
+
+  @GetMapping(value = "/users/presence/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+  public SseEmitter streamPresence() {
+    SseEmitter emitter = new SseEmitter(streamTimeoutMillis);
+    PresenceBroadcaster.Subscriber subscriber = presenceBroadcaster.subscribe(new SseSink(emitter));
+    if (subscriber == null) {
+      throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Too many presence subscribers");
+    }
+    emitter.onCompletion(() -> presenceBroadcaster.unsubscribe(subscriber));
+    emitter.onTimeout(() -> presenceBroadcaster.unsubscribe(subscriber));
+    emitter.onError(error -> presenceBroadcaster.unsubscribe(subscriber));
+    return emitter;
+  }
+
+  private static final class SseSink implements PresenceBroadcaster.PresenceSink {
+    private final SseEmitter emitter;
+
+    SseSink(SseEmitter emitter) {
+      this.emitter = emitter;
+    }
+
+    @Override
+    public void send(List<PresenceDTO> updates) throws Exception {
+      emitter.send(SseEmitter.event().name("presence").data(updates, MediaType.APPLICATION_JSON));
+    }
+
+    @Override
+    public void sendResync() throws Exception {
+      emitter.send(SseEmitter.event().name("resync").data(""));
+    }
+
+    @Override
+    public void sendHeartbeat() throws Exception {
+      emitter.send(SseEmitter.event().comment("heartbeat"));
+    }
+
+    @Override
+    public void close() {
+      emitter.complete();
+    }
+  }
+}
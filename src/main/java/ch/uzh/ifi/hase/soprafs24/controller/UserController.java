@@ -1,15 +1,30 @@
 package ch.uzh.ifi.hase.soprafs24.controller;
 
+import ch.uzh.ifi.hase.soprafs24.constant.RegistrationResult;
+import ch.uzh.ifi.hase.soprafs24.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs24.datasource.ReadYourWrites;
 import ch.uzh.ifi.hase.soprafs24.entity.User;
+import ch.uzh.ifi.hase.soprafs24.repository.UserProfile;
+import ch.uzh.ifi.hase.soprafs24.repository.UserSummary;
+import ch.uzh.ifi.hase.soprafs24.rest.dto.UserBatchResultDTO;
 import ch.uzh.ifi.hase.soprafs24.rest.dto.UserDTO;
 import ch.uzh.ifi.hase.soprafs24.rest.dto.UserGetDTO;
 import ch.uzh.ifi.hase.soprafs24.rest.dto.UserPostDTO;
 import ch.uzh.ifi.hase.soprafs24.rest.dto.UserPutDTO;
 import ch.uzh.ifi.hase.soprafs24.rest.mapper.DTOMapper;
+import ch.uzh.ifi.hase.soprafs24.service.UserDirectoryVersion;
+import ch.uzh.ifi.hase.soprafs24.service.UserListCache;
+import ch.uzh.ifi.hase.soprafs24.service.UserProfileCache;
 import ch.uzh.ifi.hase.soprafs24.service.UserService;
+import org.springframework.data.domain.Slice;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.InvalidMediaTypeException;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -24,28 +39,121 @@ import java.util.List;
 @RestController
 public class UserController {
 
+  static final int DEFAULT_PAGE_SIZE = 50;
+
+  static final int MAX_PAGE_SIZE = 200;
+
+  static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+
   private final UserService userService;
 
-  UserController(UserService userService) {
+  private final UserProfileCache userProfileCache;
+
+  private final UserDirectoryVersion userDirectoryVersion;
+
+  private final UserListCache userListCache;
+
+  UserController(UserService userService, UserProfileCache userProfileCache,
+      UserDirectoryVersion userDirectoryVersion, UserListCache userListCache) {
     this.userService = userService;
+    this.userProfileCache = userProfileCache;
+    this.userDirectoryVersion = userDirectoryVersion;
+    this.userListCache = userListCache;
   }
 
   @GetMapping("/users")
-  @ResponseStatus(HttpStatus.OK)
-  @ResponseBody
-  public List<UserGetDTO> getAllUsers() {
-     // fetch all users in the internal representation
-    List<User> users = userService.getUsers();
+  public ResponseEntity<?> getAllUsers(@RequestParam(required = false) Long after,
+      @RequestParam(defaultValue = "" + DEFAULT_PAGE_SIZE) int limit,
+      @RequestParam(required = false) UserStatus status,
+      @RequestParam(required = false) String prefix,
+      @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch,
+      @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept,
+      @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding) {
+    if (limit < 1) {
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "limit must be positive");
+    }
+    // nothing changed since the client's copy -> answer without loading any user
+    long version = userDirectoryVersion.current();
+    String eTag = userDirectoryVersion.eTagOf(version, pageOf(after, limit, status, prefix));
+    if (eTag != null && matchesETag(ifNoneMatch, eTag)) {
+      return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(eTag).varyBy(HttpHeaders.ACCEPT).build();
+    }
+
+    // JSON pages of an unchanged table are sent as stored, the binary formats are encoded each time
+    if (version >= 0 && prefersJson(accept)) {
+      String key = ServletUriComponentsBuilder.fromCurrentRequest().toUriString();
+      // cached pages are served to every client, so they are loaded from the primary
+      return userListCache.get(key, version,
+          () -> ReadYourWrites.onPrimary(() -> loadPage(after, limit, status, prefix, version)))
+          .toResponse(acceptsGzip(acceptEncoding));
+    }
+    return loadPage(after, limit, status, prefix, version);
+  }
+
+  private ResponseEntity<List<UserGetDTO>> loadPage(Long after, int limit, UserStatus status, String prefix,
+      long version) {
+    // fetch one page of users in the internal representation
+    Slice<UserSummary> users = userService.getUsers(after, Math.min(limit, MAX_PAGE_SIZE), status, prefix);
     List<UserGetDTO> userGetDTOs = new ArrayList<>();
 
     // convert each user to the API representation
-    for (User user : users) {
-      userGetDTOs.add(DTOMapper.INSTANCE.convertEntityToUserGetDTO(user));
+    for (UserSummary user : users) {
+      userGetDTOs.add(DTOMapper.INSTANCE.convertSummaryToUserGetDTO(user));
+    }
+
+    // the body is JSON, CBOR or Smile depending on the Accept header
+    ResponseEntity.BodyBuilder response = ResponseEntity.ok().varyBy(HttpHeaders.ACCEPT);
+    // only tag the page if no change happened while it was loaded
+    String eTag = userDirectoryVersion.eTagOf(version, pageOf(after, limit, status, prefix));
+    if (eTag != null) {
+      response.eTag(eTag);
+    }
+    // the cursor for the next page is the last ID of this page
+    if (users.hasNext() && !userGetDTOs.isEmpty()) {
+      Long nextCursor = userGetDTOs.get(userGetDTOs.size() - 1).getId();
+      String nextPage = ServletUriComponentsBuilder.fromCurrentRequest()
+          .replaceQueryParam("after", nextCursor)
+          .toUriString();
+      response.header(NEXT_CURSOR_HEADER, String.valueOf(nextCursor));
+      response.header(HttpHeaders.LINK, "<" + nextPage + ">; rel=\"next\"");
     }
-    return userGetDTOs;
+    return response.body(userGetDTOs);
+  }
+
+  // the parameters that select a page, limits above the maximum select the same one
+  private static String pageOf(Long after, int limit, UserStatus status, String prefix) {
+    return after + "&" + Math.min(limit, MAX_PAGE_SIZE) + "&" + status + "&" + prefix;
   }
 
+  /**
+   * Whether content negotiation would pick JSON for this Accept header.
+   */
+  static boolean prefersJson(String accept) {
+    if (accept == null || accept.isBlank()) {
+      return true;
+    }
+    List<MediaType> mediaTypes;
+    try {
+      mediaTypes = MediaType.parseMediaTypes(accept);
+    } catch (InvalidMediaTypeException e) {
+      return false;
+    }
+    MediaType.sortBySpecificityAndQuality(mediaTypes);
+    return !mediaTypes.isEmpty() && mediaTypes.get(0).includes(MediaType.APPLICATION_JSON);
+  }
 
+  static boolean acceptsGzip(String acceptEncoding) {
+    if (acceptEncoding == null) {
+      return false;
+    }
+    for (String coding : acceptEncoding.split(",")) {
+      String[] parts = coding.trim().split(";");
+      if (parts[0].trim().equalsIgnoreCase("gzip")) {
+        return parts.length < 2 || !parts[1].replace(" ", "").matches("q=0(\\.0*)?");
+      }
+    }
+    return false;
+  }
 
   @PostMapping("/users")
   @ResponseStatus(HttpStatus.CREATED)
@@ -60,15 +168,64 @@ public class UserController {
     return DTOMapper.INSTANCE.convertEntityToUserGetDTO(createdUser);
   }
 
+  @PostMapping("/users/batch")
+  @ResponseStatus(HttpStatus.OK)
+  @ResponseBody
+  public List<UserBatchResultDTO> createUsers(@RequestBody List<UserPostDTO> userPostDTOs) {
+    if (userPostDTOs.size() > UserService.MAX_BATCH_SIZE) {
+      throw new ResponseStatusException(HttpStatus.PAYLOAD_TOO_LARGE,
+          String.format("At most %d users can be registered at once", UserService.MAX_BATCH_SIZE));
+    }
+    // convert API users to internal representation
+    List<User> userInputs = new ArrayList<>(userPostDTOs.size());
+    for (UserPostDTO userPostDTO : userPostDTOs) {
+      userInputs.add(DTOMapper.INSTANCE.convertUserPostDTOtoEntity(userPostDTO));
+    }
+
+    // create users, the result holds null wherever an entry was rejected
+    List<User> createdUsers = userService.createUsers(userInputs);
+
+    List<UserBatchResultDTO> results = new ArrayList<>(createdUsers.size());
+    for (int i = 0; i < createdUsers.size(); i++) {
+      User input = userInputs.get(i);
+      User created = createdUsers.get(i);
+      UserBatchResultDTO result = new UserBatchResultDTO();
+      result.setUsername(input.getUsername());
+      if (created != null) {
+        result.setId(created.getId());
+        result.setResult(RegistrationResult.CREATED);
+      } else if (input.getUsername() == null || input.getPassword() == null) {
+        result.setResult(RegistrationResult.INVALID);
+      } else {
+        result.setResult(RegistrationResult.CONFLICT);
+      }
+      results.add(result);
+    }
+    return results;
+  }
+
     @GetMapping("/users/{userId}")
-    @ResponseStatus(HttpStatus.OK)
-    @ResponseBody
-    public UserDTO getUserProfile(@PathVariable Long id){
-      User object = userService.findByID(id);
-      if(object == null){
+    public ResponseEntity<UserDTO> getUserProfile(@PathVariable("userId") Long id,
+        @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch){
+      // like the list pages, cached profiles are shared by all clients and loaded from the primary
+      UserProfileCache.Profile profile = userProfileCache.get(id,
+          userId -> ReadYourWrites.onPrimary(() -> loadProfile(userId)));
+      if(profile == null){
           throw new ResponseStatusException(HttpStatus.NOT_FOUND, "User could not be found");
       }
-      return DTOMapper.INSTANCE.convertEntityToUserDTO(object);
+      String eTag = profile.getETag();
+      if(matchesETag(ifNoneMatch, eTag)){
+          return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(eTag).varyBy(HttpHeaders.ACCEPT).build();
+      }
+      return ResponseEntity.ok().eTag(eTag).varyBy(HttpHeaders.ACCEPT).body(profile.getUser());
+    }
+
+    private UserProfileCache.Profile loadProfile(Long id) {
+      UserProfile object = userService.getProfile(id);
+      if(object == null){
+          return null;
+      }
+      return new UserProfileCache.Profile(DTOMapper.INSTANCE.convertProfileToUserDTO(object), object.getVersion());
     }
 
     @PostMapping("/login")
@@ -88,10 +245,50 @@ public class UserController {
       return DTOMapper.INSTANCE.convertEntityToUserDTO(user);
     }
 
+    /**
+     * Weak comparison of an If-None-Match header against our tag, as used for
+     * conditional GET requests.
+     */
+    static boolean matchesETag(String ifNoneMatch, String eTag) {
+      if (ifNoneMatch == null || eTag == null) {
+          return false;
+      }
+      String opaqueTag = eTag.startsWith("W/") ? eTag.substring(2) : eTag;
+      for (String candidate : ifNoneMatch.split(",")) {
+          candidate = candidate.trim();
+          if (candidate.equals("*")) {
+              return true;
+          }
+          if (candidate.startsWith("W/")) {
+              candidate = candidate.substring(2);
+          }
+          if (candidate.equals(opaqueTag)) {
+              return true;
+          }
+      }
+      return false;
+    }
+
+    /**
+     * With If-Match set to the ETag of the profile, the edit only goes through
+     * if nobody changed the user since, and fails with 412 otherwise. Without
+     * it, edits that lose a race are retried by the service.
+     */
     @PutMapping("/users/{userId}")
     @ResponseStatus(HttpStatus.NO_CONTENT)
-    public void handleProfileEdit(@RequestBody UserPutDTO userPutDTO) {
+    public void handleProfileEdit(@PathVariable("userId") Long userId, @RequestBody UserPutDTO userPutDTO,
+        @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
         User editUser = DTOMapper.INSTANCE.convertUserPutDTOtoEntity(userPutDTO);
+        editUser.setId(userId);
+        // "*" only asks for the user to exist, which the edit checks anyway
+        if (ifMatch != null && !ifMatch.trim().equals("*")) {
+            Long version = UserProfileCache.Profile.versionOf(ifMatch.trim(), userId);
+            if (version == null) {
+                throw new ResponseStatusException(HttpStatus.PRECONDITION_FAILED, "If-Match does not match this user");
+            }
+            editUser.setVersion(version);
+        }
+        userService.editUser(editUser);
     }
 
 }
@@ -0,0 +1,60 @@
+package ch.uzh.ifi.hase.soprafs24.controller;
+
+import ch.uzh.ifi.hase.soprafs24.rest.mapper.DTOMapper;
+import ch.uzh.ifi.hase.soprafs24.service.UserExportService;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.ResponseStatus;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * User Export Controller
+ * This class streams the complete user directory as newline-delimited JSON
+ * (one UserGetDTO per line). Users are written to the response while they
+ * are read from the database, so memory use does not depend on the number
+ * of users and the first line is sent right away.
+ */
+@RestController
+public class UserExportController {
+
+  static final String NDJSON_VALUE = "application/x-ndjson";
+
+  // flush regularly so the client sees progress without a flush per line
+  private static final int FLUSH_EVERY = 256;
+
+  private final UserExportService userExportService;
+
+  private final ObjectWriter writer;
+
+  UserExportController(UserExportService userExportService, ObjectMapper objectMapper) {
+    this.userExportService = userExportService;
+    this.writer = objectMapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+  }
+
+  @GetMapping(value = "/users/export", produces = NDJSON_VALUE)
+  @ResponseStatus(HttpStatus.OK)
+  public void exportUsers(HttpServletResponse response) throws IOException {
+    response.setContentType(NDJSON_VALUE);
+    response.setCharacterEncoding("UTF-8");
+
+    try (JsonGenerator generator = writer.getFactory().createGenerator(response.getOutputStream())) {
+      // lines are terminated explicitly, no separator between root values
+      generator.setRootValueSeparator(null);
+      long[] written = { 0 };
+      userExportService.exportUsers(user -> {
+        writer.writeValue(generator, DTOMapper.INSTANCE.convertEntityToUserGetDTO(user));
+        generator.writeRaw('\n');
+        if (written[0]++ % FLUSH_EVERY == 0) {
+          generator.flush();
+        }
+      });
+    }
+  }
+}
@@ -0,0 +1,72 @@
+package ch.uzh.ifi.hase.soprafs24.controller;
+
+import ch.uzh.ifi.hase.soprafs24.entity.User;
+import ch.uzh.ifi.hase.soprafs24.rest.dto.UserGetDTO;
+import ch.uzh.ifi.hase.soprafs24.rest.mapper.DTOMapper;
+import ch.uzh.ifi.hase.soprafs24.service.UserSearchIndex;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * User Search Controller
+ * This class answers the "find player" box: ranked prefix and typo-tolerant
+ * matches on the username, served from the in-memory search index without
+ * touching the database. Results are paged by offset, up to MAX_RESULTS.
+ */
+@RestController
+public class UserSearchController {
+
+  static final int MAX_RESULTS = 1000;
+
+  static final int MAX_QUERY_LENGTH = 64;
+
+  private final UserSearchIndex userSearchIndex;
+
+  UserSearchController(UserSearchIndex userSearchIndex) {
+    this.userSearchIndex = userSearchIndex;
+  }
+
+  @GetMapping("/users/search")
+  public ResponseEntity<List<UserGetDTO>> searchUsers(@RequestParam("q") String query,
+      @RequestParam(defaultValue = "0") int offset,
+      @RequestParam(defaultValue = "" + UserController.DEFAULT_PAGE_SIZE) int limit) {
+    if (query.trim().isEmpty() || query.length() > MAX_QUERY_LENGTH) {
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+          String.format("q must hold between 1 and %d characters", MAX_QUERY_LENGTH));
+    }
+    if (limit < 1 || offset < 0) {
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "limit must be positive and offset not negative");
+    }
+    limit = Math.min(limit, UserController.MAX_PAGE_SIZE);
+    if (offset >= MAX_RESULTS) {
+      return ResponseEntity.ok(new ArrayList<>());
+    }
+
+    // one more than the page, to know whether there is a next one
+    int end = Math.min(offset + limit, MAX_RESULTS);
+    List<User> matches = userSearchIndex.search(query, end + 1);
+    List<UserGetDTO> userGetDTOs = new ArrayList<>();
+    for (User user : matches.subList(Math.min(offset, matches.size()), Math.min(end, matches.size()))) {
+      userGetDTOs.add(DTOMapper.INSTANCE.convertEntityToUserGetDTO(user));
+    }
+
+    ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+    if (matches.size() > end && end < MAX_RESULTS) {
+      String nextPage = ServletUriComponentsBuilder.fromCurrentRequest()
+          .replaceQueryParam("offset", end)
+          .toUriString();
+      response.header(UserController.NEXT_CURSOR_HEADER, String.valueOf(end));
+      response.header(HttpHeaders.LINK, "<" + nextPage + ">; rel=\"next\"");
+    }
+    return response.body(userGetDTOs);
+  }
+}
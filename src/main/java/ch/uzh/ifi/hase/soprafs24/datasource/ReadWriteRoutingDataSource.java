@@ -0,0 +1,41 @@
+package ch.uzh.ifi.hase.soprafs24.datasource;
+
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.util.Map;
+
+/**
+ * Read Write Routing Data Source
+ * This class hands out replica connections to read-only transactions and
+ * primary connections to everything else, unless ReadYourWrites pins the
+ * thread to the primary. Getting a primary connection inside a read-write
+ * transaction counts as a write.
+ * The read-only flag of a transaction is only known once it has begun, so
+ * this data source has to sit behind a LazyConnectionDataSourceProxy, which
+ * defers fetching the connection to the first statement.
+ */
+public class ReadWriteRoutingDataSource extends AbstractRoutingDataSource {
+
+  static final String PRIMARY = "primary";
+
+  static final String REPLICA = "replica";
+
+  public ReadWriteRoutingDataSource(DataSource primary, DataSource replica) {
+    setTargetDataSources(Map.of(PRIMARY, primary, REPLICA, replica));
+    setDefaultTargetDataSource(primary);
+    afterPropertiesSet();
+  }
+
+  @Override
+  protected Object determineCurrentLookupKey() {
+    if (TransactionSynchronizationManager.isCurrentTransactionReadOnly()) {
+      return ReadYourWrites.isPinned() ? PRIMARY : REPLICA;
+    }
+    if (TransactionSynchronizationManager.isActualTransactionActive()) {
+      ReadYourWrites.recordWrite();
+    }
+    return PRIMARY;
+  }
+}
@@ -0,0 +1,99 @@
+package ch.uzh.ifi.hase.soprafs24.datasource;
+
+import java.util.function.Supplier;
+
+/**
+ * Read Your Writes
+ * This class tells the routing data source whether the work on the current
+ * thread has to read from the primary. That is the case for a client that
+ * wrote recently (the replica may not have its change yet), for the rest of
+ * a request once it wrote, and for loads that fill shared state such as the
+ * caches, whose content other clients rely on. Threads without a context
+ * (scheduled jobs, startup) read from the replica.
+ */
+public final class ReadYourWrites {
+
+  private static final ThreadLocal<ReadYourWrites> CURRENT = new ThreadLocal<>();
+
+  private final Runnable onFirstWrite;
+
+  private boolean pinned;
+
+  private boolean written;
+
+  private ReadYourWrites(boolean pinned, Runnable onFirstWrite) {
+    this.pinned = pinned;
+    this.onFirstWrite = onFirstWrite;
+  }
+
+  /**
+   * Binds a context to this thread. onFirstWrite runs once, when the first
+   * read-write transaction of the context gets its connection.
+   */
+  static ReadYourWrites start(boolean pinned, Runnable onFirstWrite) {
+    ReadYourWrites context = new ReadYourWrites(pinned, onFirstWrite);
+    CURRENT.set(context);
+    return context;
+  }
+
+  static void finish() {
+    CURRENT.remove();
+  }
+
+  /**
+   * Returns the context of this thread, or null.
+   */
+  public static ReadYourWrites current() {
+    return CURRENT.get();
+  }
+
+  /**
+   * Whether reads on this thread have to go to the primary.
+   */
+  public static boolean isPinned() {
+    ReadYourWrites context = CURRENT.get();
+    return context != null && context.pinned;
+  }
+
+  /**
+   * Runs the loader with all its reads on the primary, then restores the
+   * context of the thread.
+   */
+  public static <T> T onPrimary(Supplier<T> loader) {
+    ReadYourWrites previous = CURRENT.get();
+    if (previous != null && previous.pinned) {
+      return loader.get();
+    }
+    CURRENT.set(new ReadYourWrites(true, previous != null ? previous::written : null));
+    try {
+      return loader.get();
+    } finally {
+      if (previous != null) {
+        CURRENT.set(previous);
+      } else {
+        CURRENT.remove();
+      }
+    }
+  }
+
+  static void recordWrite() {
+    ReadYourWrites context = CURRENT.get();
+    if (context != null) {
+      context.written();
+    }
+  }
+
+  private void written() {
+    pinned = true;
+    if (!written) {
+      written = true;
+      if (onFirstWrite != null) {
+        onFirstWrite.run();
+      }
+    }
+  }
+
+  public boolean hasWritten() {
+    return written;
+  }
+}
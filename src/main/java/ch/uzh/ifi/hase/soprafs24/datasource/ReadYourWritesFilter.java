@@ -0,0 +1,70 @@
+package ch.uzh.ifi.hase.soprafs24.datasource;
+
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Read Your Writes Filter
+ * This filter keeps a client on the primary for a while after it wrote, so
+ * that it sees its own changes even if the replica lags behind. The first
+ * write of a request sets a cookie holding the time until which the client's
+ * reads go to the primary; requests that carry an unexpired cookie are
+ * pinned from the start, requests that write are pinned from the write on.
+ */
+public class ReadYourWritesFilter extends OncePerRequestFilter {
+
+  public static final String COOKIE_NAME = "read-your-writes";
+
+  private final long windowMillis;
+
+  public ReadYourWritesFilter(long windowMillis) {
+    this.windowMillis = windowMillis;
+  }
+
+  @Override
+  protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+      throws ServletException, IOException {
+    long now = System.currentTimeMillis();
+    ReadYourWrites.start(pinnedUntil(request) > now, () -> {
+      if (!response.isCommitted()) {
+        response.addCookie(cookie(now + windowMillis));
+      }
+    });
+    try {
+      filterChain.doFilter(request, response);
+    } finally {
+      ReadYourWrites.finish();
+    }
+  }
+
+  private static long pinnedUntil(HttpServletRequest request) {
+    Cookie[] cookies = request.getCookies();
+    if (cookies == null) {
+      return 0;
+    }
+    for (Cookie cookie : cookies) {
+      if (COOKIE_NAME.equals(cookie.getName())) {
+        try {
+          return Long.parseLong(cookie.getValue());
+        } catch (NumberFormatException e) {
+          return 0;
+        }
+      }
+    }
+    return 0;
+  }
+
+  private Cookie cookie(long until) {
+    Cookie cookie = new Cookie(COOKIE_NAME, String.valueOf(until));
+    cookie.setPath("/");
+    cookie.setHttpOnly(true);
+    cookie.setMaxAge((int) Math.max(1, (windowMillis + 999) / 1000));
+    return cookie;
+  }
+}
@@ -14,27 +14,39 @@ import java.io.Serializable;
  * - nullable = false -> this cannot be left empty
  * - unique = true -> this value must be unqiue across the database -> composes
  * the primary key
+ * The token is looked up on every authenticated request, hence the explicit
+ * index. It is nullable because logging out clears it.
+ * Token and status are only written on insert and by
+ * PresenceTracker.flush, the password only on insert and by
+ * UserRepository.updatePassword, never by updates of the entity.
  */
 @Entity
-@Table(name = "USER")
+@Table(name = "USER", indexes = {
+    @Index(name = "IDX_USER_TOKEN", columnList = "token", unique = true)
+})
 public class User implements Serializable {
 
   private static final long serialVersionUID = 1L;
 
+  public static final int ALLOCATION_SIZE = 50;
+
+  // pooled sequence: one round trip hands out ALLOCATION_SIZE IDs, which keeps
+  // JDBC insert batching possible
   @Id
-  @GeneratedValue
+  @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "user_seq")
+  @SequenceGenerator(name = "user_seq", sequenceName = "USER_SEQ", allocationSize = ALLOCATION_SIZE)
   private Long id;
 
   @Column(nullable = false, unique = true)
   private String username;
 
-  @Column(nullable = false, unique = false)
+  @Column(nullable = false, unique = false, updatable = false)
   private String password;
 
-  @Column(nullable = false, unique = true)
+  @Column(nullable = true, updatable = false)
   private String token;
 
-  @Column(nullable = false)
+  @Column(nullable = false, updatable = false)
   private UserStatus status;
 
   @Column(nullable = true)
@@ -43,6 +55,9 @@ public class User implements Serializable {
   @Column(nullable = false)
   private Date creationDate;
 
+  // incremented by Hibernate on every update of the profile, used in its ETag
+  @Version
+  private Long version;
 
 
   public Date getCreationDate() {
@@ -53,6 +68,14 @@ public class User implements Serializable {
         this.creationDate = creationDate;
     }
 
+  public Long getVersion() {
+    return version;
+  }
+
+  public void setVersion(Long version) {
+    this.version = version;
+  }
+
   public Date getBirthday() {
       return this.birthday;
   }
@@ -0,0 +1,22 @@
+package ch.uzh.ifi.hase.soprafs24.exceptions;
+
+/**
+ * Thrown when a request is shed because a bounded resource is saturated.
+ * GlobalExceptionAdvice turns it into 503 Service Unavailable with a
+ * Retry-After header.
+ */
+public class ServiceBusyException extends RuntimeException {
+
+  private static final long serialVersionUID = 1L;
+
+  private final long retryAfterSeconds;
+
+  public ServiceBusyException(String message, long retryAfterSeconds) {
+    super(message);
+    this.retryAfterSeconds = retryAfterSeconds;
+  }
+
+  public long getRetryAfterSeconds() {
+    return retryAfterSeconds;
+  }
+}
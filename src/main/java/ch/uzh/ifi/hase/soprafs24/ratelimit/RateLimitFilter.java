@@ -0,0 +1,185 @@
+package ch.uzh.ifi.hase.soprafs24.ratelimit;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletException;
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rate Limit Filter
+ * This filter runs ahead of the controllers on login and registration and
+ * answers 429 Too Many Requests with Retry-After once a client IP, or for
+ * logins the pair of client IP and username, has used up its bucket. Keying
+ * logins on the username alone would let anyone lock a user out by failing
+ * to log in as them. Rejected requests never reach the services or the
+ * database.
+ * To find the username, the login body is read here and handed on to the
+ * controller from memory.
+ */
+public class RateLimitFilter extends OncePerRequestFilter {
+
+  private final Logger log = LoggerFactory.getLogger(RateLimitFilter.class);
+
+  private static final String LOGIN_PATH = "/login";
+
+  // Spring MVC matches /login/ to the same handler
+  private static final String LOGIN_PATH_SLASH = LOGIN_PATH + "/";
+
+  private static final int MAX_LOGIN_BODY_BYTES = 16 * 1024;
+
+  private final TokenBucketLimiter ipLimiter;
+
+  private final TokenBucketLimiter usernameLimiter;
+
+  private final ObjectMapper objectMapper;
+
+  public RateLimitFilter(TokenBucketLimiter ipLimiter, TokenBucketLimiter usernameLimiter,
+      ObjectMapper objectMapper) {
+    this.ipLimiter = ipLimiter;
+    this.usernameLimiter = usernameLimiter;
+    this.objectMapper = objectMapper;
+  }
+
+  @Override
+  protected boolean shouldNotFilter(HttpServletRequest request) {
+    return !"POST".equals(request.getMethod());
+  }
+
+  @Override
+  protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+      throws ServletException, IOException {
+    String address = request.getRemoteAddr();
+    if (reject(response, ipLimiter, address)) {
+      return;
+    }
+    String path = request.getServletPath();
+    if (LOGIN_PATH.equals(path) || LOGIN_PATH_SLASH.equals(path)) {
+      byte[] body = readBody(request);
+      if (body == null) {
+        response.sendError(HttpStatus.PAYLOAD_TOO_LARGE.value());
+        return;
+      }
+      String username = usernameOf(body);
+      if (username != null && reject(response, usernameLimiter, address + ' ' + username)) {
+        return;
+      }
+      request = new CachedBodyRequest(request, body);
+    }
+    filterChain.doFilter(request, response);
+  }
+
+  private boolean reject(HttpServletResponse response, TokenBucketLimiter limiter, String key) throws IOException {
+    long waitNanos = limiter.tryAcquire(key);
+    if (waitNanos == 0) {
+      return false;
+    }
+    long retryAfterSeconds = Math.max(1, (long) Math.ceil(waitNanos / (double) TimeUnit.SECONDS.toNanos(1)));
+    log.debug("Rate limited {} {}, retry after {} s", limiter.getName(), key, retryAfterSeconds);
+    response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds));
+    response.sendError(HttpStatus.TOO_MANY_REQUESTS.value(), "Too many requests");
+    return true;
+  }
+
+  // null if the body is larger than a login could possibly be
+  private static byte[] readBody(HttpServletRequest request) throws IOException {
+    if (request.getContentLengthLong() > MAX_LOGIN_BODY_BYTES) {
+      return null;
+    }
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    byte[] buffer = new byte[1024];
+    InputStream in = request.getInputStream();
+    int read;
+    while ((read = in.read(buffer)) != -1) {
+      body.write(buffer, 0, read);
+      if (body.size() > MAX_LOGIN_BODY_BYTES) {
+        return null;
+      }
+    }
+    return body.toByteArray();
+  }
+
+  // a malformed body is left for the controller to reject
+  private String usernameOf(byte[] body) {
+    try {
+      JsonNode username = objectMapper.readTree(body).path("username");
+      return username.isTextual() ? username.asText() : null;
+    } catch (IOException e) {
+      return null;
+    }
+  }
+
+  private static final class CachedBodyRequest extends HttpServletRequestWrapper {
+    private final byte[] body;
+
+    CachedBodyRequest(HttpServletRequest request, byte[] body) {
+      super(request);
+      this.body = body;
+    }
+
+    @Override
+    public ServletInputStream getInputStream() {
+      ByteArrayInputStream in = new ByteArrayInputStream(body);
+      return new ServletInputStream() {
+        @Override
+        public boolean isFinished() {
+          return in.available() == 0;
+        }
+
+        @Override
+        public boolean isReady() {
+          return true;
+        }
+
+        // the whole body is in memory, so it can be handed over at once
+        @Override
+        public void setReadListener(ReadListener readListener) {
+          try {
+            if (!isFinished()) {
+              readListener.onDataAvailable();
+            }
+            readListener.onAllDataRead();
+          } catch (IOException e) {
+            readListener.onError(e);
+          }
+        }
+
+        @Override
+        public int read() {
+          return in.read();
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) {
+          return in.read(buffer, offset, length);
+        }
+      };
+    }
+
+    @Override
+    public BufferedReader getReader() {
+      String encoding = getCharacterEncoding();
+      return new BufferedReader(new InputStreamReader(getInputStream(),
+          encoding != null ? Charset.forName(encoding) : StandardCharsets.UTF_8));
+    }
+  }
+}
@@ -0,0 +1,165 @@
+package ch.uzh.ifi.hase.soprafs24.ratelimit;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/**
+ * Token Bucket Limiter
+ * This class keeps one token bucket per key (a client IP or a username). A
+ * bucket holds up to capacity tokens and gains refillPerSecond tokens per
+ * second; every request takes one.
+ * Like the session registry, the buckets are split into stripes that each
+ * have their own lock and an access-ordered map of bounded size. A bucket
+ * that has been idle long enough to be full again carries no information, so
+ * the sweep drops it; a full stripe drops its least recently used bucket.
+ */
+public class TokenBucketLimiter {
+
+  private static final int STRIPES = 16;
+
+  private final String name;
+
+  private final double capacity;
+
+  private final double tokensPerNano;
+
+  private final long refillNanos;
+
+  private final LongSupplier clock;
+
+  private final Stripe[] stripes = new Stripe[STRIPES];
+
+  private final AtomicLong rejected = new AtomicLong();
+
+  public TokenBucketLimiter(String name, int capacity, double refillPerSecond, int maxEntries) {
+    this(name, capacity, refillPerSecond, maxEntries, System::nanoTime);
+  }
+
+  TokenBucketLimiter(String name, int capacity, double refillPerSecond, int maxEntries, LongSupplier clock) {
+    this.name = name;
+    this.capacity = capacity;
+    this.tokensPerNano = refillPerSecond / TimeUnit.SECONDS.toNanos(1);
+    this.refillNanos = (long) Math.ceil(capacity / tokensPerNano);
+    this.clock = clock;
+    int entriesPerStripe = Math.max(1, (maxEntries + STRIPES - 1) / STRIPES);
+    for (int i = 0; i < STRIPES; i++) {
+      stripes[i] = new Stripe(entriesPerStripe);
+    }
+  }
+
+  /**
+   * Takes a token from the bucket of the key.
+   *
+   * @return 0 if the request may pass, otherwise the nanoseconds until the
+   *         next token is available
+   */
+  public long tryAcquire(String key) {
+    long now = clock.getAsLong();
+    Stripe stripe = stripeFor(key);
+    stripe.lock.lock();
+    try {
+      Bucket bucket = stripe.buckets.get(key);
+      if (bucket == null) {
+        bucket = new Bucket(capacity, now);
+        stripe.buckets.put(key, bucket);
+      }
+      bucket.tokens = Math.min(capacity, bucket.tokens + (now - bucket.updated) * tokensPerNano);
+      bucket.updated = now;
+      if (bucket.tokens >= 1) {
+        bucket.tokens -= 1;
+        return 0;
+      }
+      rejected.incrementAndGet();
+      return (long) Math.ceil((1 - bucket.tokens) / tokensPerNano);
+    } finally {
+      stripe.lock.unlock();
+    }
+  }
+
+  /**
+   * Drops buckets that would be full by now.
+   */
+  public int evictIdle() {
+    long cutoff = clock.getAsLong() - refillNanos;
+    int evicted = 0;
+    for (Stripe stripe : stripes) {
+      evicted += stripe.evictUpdatedBefore(cutoff);
+    }
+    return evicted;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public int size() {
+    int size = 0;
+    for (Stripe stripe : stripes) {
+      stripe.lock.lock();
+      try {
+        size += stripe.buckets.size();
+      } finally {
+        stripe.lock.unlock();
+      }
+    }
+    return size;
+  }
+
+  public long getRejectedCount() {
+    return rejected.get();
+  }
+
+  private Stripe stripeFor(String key) {
+    int hash = key.hashCode();
+    hash ^= (hash >>> 16);
+    return stripes[hash & (STRIPES - 1)];
+  }
+
+  private static final class Bucket {
+    private double tokens;
+    private long updated;
+
+    Bucket(double tokens, long updated) {
+      this.tokens = tokens;
+      this.updated = updated;
+    }
+  }
+
+  private static final class Stripe {
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LinkedHashMap<String, Bucket> buckets;
+
+    Stripe(int maxEntries) {
+      this.buckets = new LinkedHashMap<String, Bucket>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Bucket> eldest) {
+          return size() > maxEntries;
+        }
+      };
+    }
+
+    int evictUpdatedBefore(long cutoff) {
+      lock.lock();
+      try {
+        int evicted = 0;
+        // least recently used first, so we can stop at the first recent bucket
+        Iterator<Bucket> iterator = buckets.values().iterator();
+        while (iterator.hasNext()) {
+          if (iterator.next().updated >= cutoff) {
+            break;
+          }
+          iterator.remove();
+          evicted++;
+        }
+        return evicted;
+      } finally {
+        lock.unlock();
+      }
+    }
+  }
+}
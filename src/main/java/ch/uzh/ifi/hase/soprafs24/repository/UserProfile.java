@@ -0,0 +1,68 @@
+package ch.uzh.ifi.hase.soprafs24.repository;
+
+import ch.uzh.ifi.hase.soprafs24.constant.UserStatus;
+
+import java.util.Date;
+
+/**
+ * Constructor projection of the columns shown on a profile, plus the version
+ * the profile is tagged with. Everything but the password, without loading
+ * the entity.
+ */
+public class UserProfile {
+
+  private final Long id;
+  private final String username;
+  private String token;
+  private UserStatus status;
+  private final Date birthday;
+  private final Date creationDate;
+  private final Long version;
+
+  public UserProfile(Long id, String username, String token, UserStatus status, Date birthday, Date creationDate,
+      Long version) {
+    this.id = id;
+    this.username = username;
+    this.token = token;
+    this.status = status;
+    this.birthday = birthday;
+    this.creationDate = creationDate;
+    this.version = version;
+  }
+
+  public Long getId() {
+    return id;
+  }
+
+  public String getUsername() {
+    return username;
+  }
+
+  public String getToken() {
+    return token;
+  }
+
+  public void setToken(String token) {
+    this.token = token;
+  }
+
+  public UserStatus getStatus() {
+    return status;
+  }
+
+  public void setStatus(UserStatus status) {
+    this.status = status;
+  }
+
+  public Date getBirthday() {
+    return birthday;
+  }
+
+  public Date getCreationDate() {
+    return creationDate;
+  }
+
+  public Long getVersion() {
+    return version;
+  }
+}
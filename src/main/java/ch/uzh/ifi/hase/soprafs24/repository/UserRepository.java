@@ -1,12 +1,103 @@
 package ch.uzh.ifi.hase.soprafs24.repository;
 
+import ch.uzh.ifi.hase.soprafs24.constant.UserStatus;
 import ch.uzh.ifi.hase.soprafs24.entity.User;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.persistence.QueryHint;
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Stream;
 
 @Repository("userRepository")
 public interface UserRepository extends JpaRepository<User, Long> {
+  // point reads: id is the primary key, username is backed by a unique index
   User findByUsername(String username);
 
-  User findByID(Long id);
+  @Query("SELECT u.username FROM User u WHERE u.username IN :usernames")
+  List<String> findExistingUsernames(@Param("usernames") Collection<String> usernames);
+
+  /**
+   * Replaces the stored password hash without touching the version, so a
+   * rehash on login does not fail a concurrent edit. Entity updates never
+   * write the password, so such an edit cannot put the old hash back.
+   */
+  @Transactional
+  @Modifying
+  @Query("UPDATE User u SET u.password = :password WHERE u.id = :id")
+  int updatePassword(@Param("id") Long id, @Param("password") String password);
+
+  /**
+   * Keyset page: users with an ID greater than the cursor, in ID order, read
+   * into summaries instead of loading entities. The pageable only carries the
+   * page size, so the query never uses an offset. The prefix is matched with
+   * LIKE and must already be escaped.
+   */
+  @Query("SELECT new ch.uzh.ifi.hase.soprafs24.repository.UserSummary(u.id, u.username, u.status)"
+      + " FROM User u WHERE u.id > :after"
+      + " AND (:status IS NULL OR u.status = :status)"
+      + " AND (:prefix IS NULL OR u.username LIKE :prefix ESCAPE '\\')"
+      + " ORDER BY u.id")
+  Slice<UserSummary> findSummaryPage(@Param("after") Long after, @Param("status") UserStatus status,
+      @Param("prefix") String prefix, Pageable pageable);
+
+  /**
+   * The same summary page filtered by status, which also includes the given
+   * users whatever their stored status. The IDs must not be empty.
+   */
+  @Query("SELECT new ch.uzh.ifi.hase.soprafs24.repository.UserSummary(u.id, u.username, u.status)"
+      + " FROM User u WHERE u.id > :after"
+      + " AND (u.status = :status OR u.id IN :ids)"
+      + " AND (:prefix IS NULL OR u.username LIKE :prefix ESCAPE '\\')"
+      + " ORDER BY u.id")
+  Slice<UserSummary> findSummaryPageIncluding(@Param("after") Long after, @Param("status") UserStatus status,
+      @Param("ids") Collection<Long> ids, @Param("prefix") String prefix, Pageable pageable);
+
+  @Query("SELECT new ch.uzh.ifi.hase.soprafs24.repository.UserProfile(u.id, u.username, u.token, u.status,"
+      + " u.birthday, u.creationDate, u.version) FROM User u WHERE u.id = :id")
+  UserProfile findProfileById(@Param("id") Long id);
+
+  /**
+   * Forward-only cursor over all users in ID order. Must be consumed inside a
+   * transaction and closed afterwards.
+   */
+  @QueryHints({
+      @QueryHint(name = org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE, value = "500"),
+      @QueryHint(name = org.hibernate.jpa.QueryHints.HINT_READONLY, value = "true")
+  })
+  @Query("SELECT u FROM User u ORDER BY u.id")
+  Stream<User> streamAllOrderedById();
+
+  /**
+   * Forward-only cursor over all usernames, without loading the entities.
+   * Must be consumed inside a transaction and closed afterwards.
+   */
+  @QueryHints(@QueryHint(name = org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE, value = "1000"))
+  @Query("SELECT u.username FROM User u")
+  Stream<String> streamAllUsernames();
+
+  /**
+   * Forward-only cursor over the ID, username and status of all users. Must
+   * be consumed inside a transaction and closed afterwards.
+   */
+  @QueryHints(@QueryHint(name = org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE, value = "1000"))
+  @Query("SELECT new ch.uzh.ifi.hase.soprafs24.repository.UserSummary(u.id, u.username, u.status) FROM User u")
+  Stream<UserSummary> streamAllSummaries();
+
+  /**
+   * Forward-only cursor over the session columns of all users holding a
+   * token. Must be consumed inside a transaction and closed afterwards.
+   */
+  @QueryHints(@QueryHint(name = org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE, value = "1000"))
+  @Query("SELECT new ch.uzh.ifi.hase.soprafs24.repository.UserToken(u.id, u.username, u.token, u.status)"
+      + " FROM User u WHERE u.token IS NOT NULL")
+  Stream<UserToken> streamAllTokens();
 }
@@ -0,0 +1,37 @@
+package ch.uzh.ifi.hase.soprafs24.repository;
+
+import ch.uzh.ifi.hase.soprafs24.constant.UserStatus;
+
+/**
+ * Constructor projection of the columns needed to list a user. Queries
+ * selecting it read three columns and leave the persistence context empty,
+ * so there is no entity to hydrate and no snapshot to dirty-check.
+ */
+public class UserSummary {
+
+  private final Long id;
+  private final String username;
+  private UserStatus status;
+
+  public UserSummary(Long id, String username, UserStatus status) {
+    this.id = id;
+    this.username = username;
+    this.status = status;
+  }
+
+  public Long getId() {
+    return id;
+  }
+
+  public String getUsername() {
+    return username;
+  }
+
+  public UserStatus getStatus() {
+    return status;
+  }
+
+  public void setStatus(UserStatus status) {
+    this.status = status;
+  }
+}
@@ -0,0 +1,38 @@
+package ch.uzh.ifi.hase.soprafs24.repository;
+
+import ch.uzh.ifi.hase.soprafs24.constant.UserStatus;
+
+/**
+ * Constructor projection of the columns that make up a session, read once at
+ * startup to restore the sessions of all users holding a token.
+ */
+public class UserToken {
+
+  private final Long id;
+  private final String username;
+  private final String token;
+  private final UserStatus status;
+
+  public UserToken(Long id, String username, String token, UserStatus status) {
+    this.id = id;
+    this.username = username;
+    this.token = token;
+    this.status = status;
+  }
+
+  public Long getId() {
+    return id;
+  }
+
+  public String getUsername() {
+    return username;
+  }
+
+  public String getToken() {
+    return token;
+  }
+
+  public UserStatus getStatus() {
+    return status;
+  }
+}
@@ -0,0 +1,43 @@
+package ch.uzh.ifi.hase.soprafs24.rest.dto;
+
+import ch.uzh.ifi.hase.soprafs24.constant.UserStatus;
+
+public class PresenceDTO {
+
+  private Long id;
+  private String username;
+  private UserStatus status;
+
+  public PresenceDTO() {
+  }
+
+  public PresenceDTO(Long id, String username, UserStatus status) {
+    this.id = id;
+    this.username = username;
+    this.status = status;
+  }
+
+  public Long getId() {
+    return id;
+  }
+
+  public void setId(Long id) {
+    this.id = id;
+  }
+
+  public String getUsername() {
+    return username;
+  }
+
+  public void setUsername(String username) {
+    this.username = username;
+  }
+
+  public UserStatus getStatus() {
+    return status;
+  }
+
+  public void setStatus(UserStatus status) {
+    this.status = status;
+  }
+}
@@ -0,0 +1,34 @@
+package ch.uzh.ifi.hase.soprafs24.rest.dto;
+
+import ch.uzh.ifi.hase.soprafs24.constant.RegistrationResult;
+
+public class UserBatchResultDTO {
+
+  private Long id;
+  private String username;
+  private RegistrationResult result;
+
+  public Long getId() {
+    return id;
+  }
+
+  public void setId(Long id) {
+    this.id = id;
+  }
+
+  public String getUsername() {
+    return username;
+  }
+
+  public void setUsername(String username) {
+    this.username = username;
+  }
+
+  public RegistrationResult getResult() {
+    return result;
+  }
+
+  public void setResult(RegistrationResult result) {
+    this.result = result;
+  }
+}
@@ -1,10 +1,13 @@
 package ch.uzh.ifi.hase.soprafs24.rest.mapper;
 
 import ch.uzh.ifi.hase.soprafs24.entity.User;
+import ch.uzh.ifi.hase.soprafs24.repository.UserProfile;
+import ch.uzh.ifi.hase.soprafs24.repository.UserSummary;
 import ch.uzh.ifi.hase.soprafs24.rest.dto.UserGetDTO;
 import ch.uzh.ifi.hase.soprafs24.rest.dto.UserDTO;
 import ch.uzh.ifi.hase.soprafs24.rest.dto.UserPostDTO;
 import ch.uzh.ifi.hase.soprafs24.rest.dto.UserPutDTO;
+import ch.uzh.ifi.hase.soprafs24.tracing.RequestTrace;
 import org.mapstruct.*;
 import org.mapstruct.factory.Mappers;
 
@@ -23,8 +26,9 @@ import org.mapstruct.factory.Mappers;
 public interface DTOMapper {
     DTOMapper INSTANCE = Mappers.getMapper(DTOMapper.class);
 
+    // the stored password is a hash and never leaves the server
     @Mapping(source = "id", target = "id")
-    @Mapping(source = "password", target = "password")
+    @Mapping(target = "password", ignore = true)
     @Mapping(source = "username", target = "username")
     @Mapping(source = "status", target = "status")
     UserGetDTO convertEntityToUserGetDTO(User user);
@@ -40,6 +44,21 @@ public interface DTOMapper {
     @Mapping(source = "birthday", target = "birthday", dateFormat = "dd.MM.yyyy")
     @Mapping(source = "status", target = "status")
     UserDTO convertEntityToUserDTO(User user);
+    // the projections used by the read-only list and profile paths
+    @Mapping(source = "id", target = "id")
+    @Mapping(source = "username", target = "username")
+    @Mapping(source = "status", target = "status")
+    @Mapping(target = "password", ignore = true)
+    UserGetDTO convertSummaryToUserGetDTO(UserSummary userSummary);
+
+    @Mapping(source = "id",target = "id")
+    @Mapping(source = "username", target = "username")
+    @Mapping(source = "token", target = "token")
+    @Mapping(source = "creationDate", target = "creationDate",dateFormat = "dd.MM.yyyy")
+    @Mapping(source = "birthday", target = "birthday", dateFormat = "dd.MM.yyyy")
+    @Mapping(source = "status", target = "status")
+    UserDTO convertProfileToUserDTO(UserProfile userProfile);
+
     //I need User->UserDTO, User->UserGetDTO, UserPostDTO -> User, UserPutDTO->User
 
     @Mapping(source = "id", target = "id")
@@ -48,5 +67,24 @@ public interface DTOMapper {
     @Mapping(source = "token", target = "token")
     @Mapping(source = "birthday", target = "birthday", dateFormat = "dd.MM.yyyy")
     @Mapping(source = "status", target = "status")
+    // comes from the If-Match header, not from the body
+    @Mapping(target = "version", ignore = true)
     User convertUserPutDTOtoEntity(UserPutDTO userPutDTO);
+
+    // mapping time of traced requests, reported in the Server-Timing header
+    @BeforeMapping
+    default void startTrace() {
+        RequestTrace trace = RequestTrace.current();
+        if (trace != null) {
+            trace.mappingStarted();
+        }
+    }
+
+    @AfterMapping
+    default void finishTrace() {
+        RequestTrace trace = RequestTrace.current();
+        if (trace != null) {
+            trace.mappingFinished();
+        }
+    }
 }
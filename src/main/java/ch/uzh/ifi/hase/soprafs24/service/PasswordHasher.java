@@ -0,0 +1,155 @@
+package ch.uzh.ifi.hase.soprafs24.service;
+
+import ch.uzh.ifi.hase.soprafs24.exceptions.ServiceBusyException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * Password Hasher
+ * This class hashes and verifies passwords with BCrypt. Each operation costs
+ * milliseconds of CPU, so they run on a dedicated pool with one thread per
+ * core and a bounded queue instead of on the request threads. When the queue
+ * is full, the caller gets a ServiceBusyException right away.
+ * Passwords stored before hashing was introduced are plain text; they are
+ * still accepted and reported by needsRehash(), as are hashes of a lower
+ * strength than configured.
+ */
+@Component
+public class PasswordHasher {
+
+  private static final Pattern BCRYPT_HASH = Pattern.compile("\\A\\$2[aby]?\\$\\d\\d\\$[./0-9A-Za-z]{53}");
+
+  private final BCryptPasswordEncoder encoder;
+
+  private final ThreadPoolExecutor executor;
+
+  private final int queueCapacity;
+
+  private final long retryAfterSeconds;
+
+  private final AtomicLong rejected = new AtomicLong();
+
+  public PasswordHasher(@Value("${passwords.bcrypt-strength:10}") int strength,
+      @Value("${passwords.hash-threads:0}") int threads,
+      @Value("${passwords.queue-capacity:64}") int queueCapacity,
+      @Value("${passwords.retry-after-seconds:1}") long retryAfterSeconds) {
+    this.encoder = new BCryptPasswordEncoder(strength);
+    this.queueCapacity = queueCapacity;
+    this.retryAfterSeconds = retryAfterSeconds;
+    int poolSize = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+    AtomicInteger threadCount = new AtomicInteger();
+    this.executor = new ThreadPoolExecutor(poolSize, poolSize, 0L, TimeUnit.MILLISECONDS,
+        new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+          Thread thread = new Thread(runnable, "password-hash-" + threadCount.incrementAndGet());
+          thread.setDaemon(true);
+          return thread;
+        }, new ThreadPoolExecutor.AbortPolicy());
+  }
+
+  public String hash(String rawPassword) {
+    return await(submit(() -> encoder.encode(rawPassword)));
+  }
+
+  /**
+   * Hashes many passwords in order. At most half of the queue is used at a
+   * time, so that logins can still get through while a batch is hashed.
+   */
+  public List<String> hashAll(List<String> rawPasswords) {
+    int window = Math.max(1, queueCapacity / 2);
+    List<String> hashes = new ArrayList<>(rawPasswords.size());
+    Deque<Future<String>> pending = new ArrayDeque<>();
+    try {
+      for (String rawPassword : rawPasswords) {
+        if (pending.size() >= window) {
+          hashes.add(await(pending.poll()));
+        }
+        pending.add(submit(() -> encoder.encode(rawPassword)));
+      }
+      while (!pending.isEmpty()) {
+        hashes.add(await(pending.poll()));
+      }
+    } finally {
+      pending.forEach(future -> future.cancel(false));
+    }
+    return hashes;
+  }
+
+  public boolean matches(String rawPassword, String storedPassword) {
+    if (rawPassword == null || storedPassword == null) {
+      return false;
+    }
+    if (!isHash(storedPassword)) {
+      return MessageDigest.isEqual(rawPassword.getBytes(StandardCharsets.UTF_8),
+          storedPassword.getBytes(StandardCharsets.UTF_8));
+    }
+    return await(submit(() -> encoder.matches(rawPassword, storedPassword)));
+  }
+
+  /**
+   * Tells whether a verified password should be stored again: it is still
+   * plain text or was hashed with a lower strength than configured.
+   */
+  public boolean needsRehash(String storedPassword) {
+    return !isHash(storedPassword) || encoder.upgradeEncoding(storedPassword);
+  }
+
+  public int getQueueSize() {
+    return executor.getQueue().size();
+  }
+
+  public long getRejectedCount() {
+    return rejected.get();
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    executor.shutdownNow();
+  }
+
+  private static boolean isHash(String storedPassword) {
+    return storedPassword != null && BCRYPT_HASH.matcher(storedPassword).matches();
+  }
+
+  private <T> Future<T> submit(Callable<T> task) {
+    try {
+      return executor.submit(task);
+    } catch (RejectedExecutionException e) {
+      rejected.incrementAndGet();
+      throw new ServiceBusyException("Too many password checks in progress, try again later", retryAfterSeconds);
+    }
+  }
+
+  private <T> T await(Future<T> future) {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      future.cancel(true);
+      throw new ServiceBusyException("Interrupted while waiting for the password check", retryAfterSeconds);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new RuntimeException(e.getCause());
+    }
+  }
+}
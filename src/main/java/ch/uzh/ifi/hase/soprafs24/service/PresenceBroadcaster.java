@@ -0,0 +1,330 @@
+package ch.uzh.ifi.hase.soprafs24.service;
+
+import ch.uzh.ifi.hase.soprafs24.rest.dto.PresenceDTO;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Presence Broadcaster
+ * This class fans out ONLINE/OFFLINE changes to the subscribers of the
+ * presence stream.
+ * Publishing never blocks: an update is only put into each subscriber's
+ * buffer, and a small dispatcher pool writes the buffers out. A buffer holds
+ * at most one update per user (a newer update replaces an older one) and at
+ * most bufferSize users. When a slow subscriber overflows it, the oldest
+ * updates are dropped and the subscriber is told to resync instead.
+ * Sends block, so a client that stops reading would hold a dispatcher thread
+ * and stall everyone else. A subscriber whose send takes longer than
+ * sendTimeoutMillis is dropped and its dispatcher thread interrupted. A
+ * blocked Tomcat write ignores the interrupt and only ends when the
+ * connector's write timeout (server.tomcat.connection-timeout) expires, so
+ * the pool gets an extra thread until then. The sink is closed by the thread
+ * that was sending once its send returns, because closing an SseEmitter waits
+ * for the send in progress; the scheduler thread never waits for a client.
+ */
+@Component
+public class PresenceBroadcaster {
+
+  private final Logger log = LoggerFactory.getLogger(PresenceBroadcaster.class);
+
+  private final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+
+  private final AtomicInteger subscriberCount = new AtomicInteger();
+
+  private final int maxSubscribers;
+
+  private final int bufferSize;
+
+  private final long sendTimeoutNanos;
+
+  private final ThreadPoolExecutor dispatcher;
+
+  public PresenceBroadcaster(@Value("${presence.stream.max-subscribers:10000}") int maxSubscribers,
+      @Value("${presence.stream.buffer-size:256}") int bufferSize,
+      @Value("${presence.stream.dispatch-threads:4}") int dispatchThreads,
+      @Value("${presence.stream.send-timeout-ms:5000}") long sendTimeoutMillis) {
+    this.maxSubscribers = maxSubscribers;
+    this.bufferSize = bufferSize;
+    this.sendTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(sendTimeoutMillis);
+    AtomicInteger threadNumber = new AtomicInteger();
+    this.dispatcher = new ThreadPoolExecutor(dispatchThreads, dispatchThreads, 0L, TimeUnit.MILLISECONDS,
+        new LinkedBlockingQueue<>(), runnable -> {
+          Thread thread = new Thread(runnable, "presence-dispatch-" + threadNumber.incrementAndGet());
+          thread.setDaemon(true);
+          return thread;
+        });
+  }
+
+  /**
+   * Registers a sink, or returns null if the maximum number of subscribers
+   * has been reached.
+   */
+  public Subscriber subscribe(PresenceSink sink) {
+    if (subscriberCount.incrementAndGet() > maxSubscribers) {
+      subscriberCount.decrementAndGet();
+      return null;
+    }
+    Subscriber subscriber = new Subscriber(sink);
+    subscribers.add(subscriber);
+    return subscriber;
+  }
+
+  public void unsubscribe(Subscriber subscriber) {
+    remove(subscriber);
+  }
+
+  private boolean remove(Subscriber subscriber) {
+    if (subscribers.remove(subscriber)) {
+      subscriberCount.decrementAndGet();
+      return true;
+    }
+    return false;
+  }
+
+  public int getSubscriberCount() {
+    return subscribers.size();
+  }
+
+  int getDispatchThreads() {
+    return dispatcher.getCorePoolSize();
+  }
+
+  // a thread stuck in a send of a dropped subscriber is replaced until the send returns
+  private void resizeDispatcher(int delta) {
+    synchronized (dispatcher) {
+      if (delta > 0) {
+        dispatcher.setMaximumPoolSize(dispatcher.getMaximumPoolSize() + delta);
+        dispatcher.setCorePoolSize(dispatcher.getCorePoolSize() + delta);
+      } else {
+        dispatcher.setCorePoolSize(dispatcher.getCorePoolSize() + delta);
+        dispatcher.setMaximumPoolSize(dispatcher.getMaximumPoolSize() + delta);
+      }
+    }
+  }
+
+  @TransactionalEventListener(fallbackExecution = true)
+  public void onUserChanged(UserChangedEvent event) {
+    if (event.getType() == UserChangedEvent.Type.UPDATED) {
+      return;
+    }
+    publish(new PresenceDTO(event.getUserId(), event.getUsername(), event.getStatus()));
+  }
+
+  public void publish(PresenceDTO update) {
+    for (Subscriber subscriber : subscribers) {
+      subscriber.offer(update);
+    }
+  }
+
+  /**
+   * Keeps idle connections alive and detects clients that went away.
+   */
+  @Scheduled(fixedDelayString = "${presence.stream.heartbeat-ms:15000}")
+  public void heartbeat() {
+    for (Subscriber subscriber : subscribers) {
+      subscriber.requestHeartbeat();
+    }
+  }
+
+  /**
+   * Drops the subscribers that have been stuck in a send for longer than the
+   * send timeout, so that the others are served again. Checked once per
+   * timeout, so a stall lasts at most twice as long. Never blocks: the sinks
+   * are closed by their senders.
+   */
+  @Scheduled(fixedDelayString = "${presence.stream.send-timeout-ms:5000}")
+  public void dropStalledSubscribers() {
+    long now = System.nanoTime();
+    for (Subscriber subscriber : subscribers) {
+      if (subscriber.stalled(now)) {
+        log.debug("Dropping presence subscriber stuck in a send for more than {} ms",
+            TimeUnit.NANOSECONDS.toMillis(sendTimeoutNanos));
+        subscriber.dropStalled();
+      }
+    }
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    dispatcher.shutdownNow();
+    for (Subscriber subscriber : subscribers) {
+      subscriber.sink.close();
+    }
+    subscribers.clear();
+  }
+
+  /**
+   * Where the updates of one subscriber end up, e.g. an SSE connection.
+   */
+  public interface PresenceSink {
+    void send(List<PresenceDTO> updates) throws Exception;
+
+    void sendResync() throws Exception;
+
+    void sendHeartbeat() throws Exception;
+
+    void close();
+  }
+
+  public final class Subscriber {
+    private final PresenceSink sink;
+    // guarded by itself, keyed by user ID so that updates compact
+    private final LinkedHashMap<Long, PresenceDTO> buffer = new LinkedHashMap<>();
+    private boolean overflowed;
+    private boolean heartbeatDue;
+    private boolean scheduled;
+    // guarded by this, the dispatcher thread while it is sending
+    private Thread sender;
+    // guarded by this, set when a stalled send got a replacement thread
+    private boolean replaced;
+    private volatile long sendStarted;
+    private volatile boolean dropped;
+
+    private Subscriber(PresenceSink sink) {
+      this.sink = sink;
+    }
+
+    void offer(PresenceDTO update) {
+      synchronized (buffer) {
+        // remove first so that the user moves to the end of the buffer
+        buffer.remove(update.getId());
+        buffer.put(update.getId(), update);
+        if (buffer.size() > bufferSize) {
+          Iterator<Long> oldest = buffer.keySet().iterator();
+          oldest.next();
+          oldest.remove();
+          overflowed = true;
+        }
+      }
+      schedule();
+    }
+
+    void requestHeartbeat() {
+      synchronized (buffer) {
+        heartbeatDue = true;
+      }
+      schedule();
+    }
+
+    int buffered() {
+      synchronized (buffer) {
+        return buffer.size();
+      }
+    }
+
+    boolean stalled(long now) {
+      synchronized (this) {
+        return sender != null && now - sendStarted > sendTimeoutNanos;
+      }
+    }
+
+    // called by the sender itself, so closing does not wait for another send
+    private void drop() {
+      dropped = true;
+      if (remove(this)) {
+        sink.close();
+      }
+    }
+
+    private void dropStalled() {
+      dropped = true;
+      if (!remove(this)) {
+        return;
+      }
+      synchronized (this) {
+        if (sender != null) {
+          // the sender closes the sink once its send returns
+          sender.interrupt();
+          replaced = true;
+          resizeDispatcher(1);
+          return;
+        }
+      }
+      // the send returned in the meantime, close on a dispatcher thread
+      dispatcher.execute(sink::close);
+    }
+
+    private void schedule() {
+      synchronized (buffer) {
+        if (scheduled) {
+          return;
+        }
+        scheduled = true;
+      }
+      dispatcher.execute(this::drain);
+    }
+
+    private void drain() {
+      while (true) {
+        List<PresenceDTO> updates;
+        boolean resync;
+        boolean heartbeat;
+        synchronized (buffer) {
+          if (buffer.isEmpty() && !overflowed && !heartbeatDue) {
+            scheduled = false;
+            return;
+          }
+          updates = new ArrayList<>(buffer.values());
+          buffer.clear();
+          resync = overflowed;
+          heartbeat = heartbeatDue && updates.isEmpty() && !resync;
+          overflowed = false;
+          heartbeatDue = false;
+        }
+        if (dropped) {
+          return;
+        }
+        synchronized (this) {
+          sender = Thread.currentThread();
+          sendStarted = System.nanoTime();
+        }
+        try {
+          if (resync) {
+            sink.sendResync();
+          }
+          if (!updates.isEmpty()) {
+            sink.send(updates);
+          }
+          if (heartbeat) {
+            sink.sendHeartbeat();
+          }
+        } catch (Exception e) {
+          if (!dropped) {
+            log.debug("Dropping presence subscriber: {}", e.getMessage());
+            drop();
+            return;
+          }
+        } finally {
+          boolean wasReplaced;
+          synchronized (this) {
+            sender = null;
+            wasReplaced = replaced;
+            replaced = false;
+            // an interrupt meant for this send must not hit the next subscriber
+            Thread.interrupted();
+          }
+          if (wasReplaced) {
+            sink.close();
+            resizeDispatcher(-1);
+          }
+        }
+      }
+    }
+  }
+}
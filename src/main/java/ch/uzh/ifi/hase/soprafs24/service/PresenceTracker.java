@@ -0,0 +1,170 @@
+package ch.uzh.ifi.hase.soprafs24.service;
+
+import ch.uzh.ifi.hase.soprafs24.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs24.entity.User;
+import ch.uzh.ifi.hase.soprafs24.repository.UserProfile;
+import ch.uzh.ifi.hase.soprafs24.repository.UserSummary;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Presence Tracker
+ * This class holds the latest ONLINE/OFFLINE state (and the token that goes
+ * with it) of users whose presence changed recently, and writes these changes
+ * to the USER table behind the requests that caused them, without changing
+ * the version of the user.
+ * Repeated changes of one user are coalesced, so only the latest state is
+ * written. Pending changes are flushed periodically, one JDBC batch per chunk
+ * of users, and once more when the application shuts down. The batch is plain
+ * JDBC because Hibernate does not batch bulk JPQL updates. Until then, reads see the pending state
+ * through overlay() and current().
+ */
+@Component
+public class PresenceTracker {
+
+  private final Logger log = LoggerFactory.getLogger(PresenceTracker.class);
+
+  private static final int FLUSH_CHUNK_SIZE = 500;
+
+  // status is mapped as its ordinal; the version is left alone
+  static final String UPDATE_PRESENCE = "UPDATE USER SET STATUS = ?, TOKEN = ? WHERE ID = ?";
+
+  private final JdbcTemplate jdbcTemplate;
+
+  private final TransactionTemplate transactionTemplate;
+
+  private final ConcurrentHashMap<Long, Presence> pending = new ConcurrentHashMap<>();
+
+  public PresenceTracker(JdbcTemplate jdbcTemplate, PlatformTransactionManager transactionManager) {
+    this.jdbcTemplate = jdbcTemplate;
+    this.transactionTemplate = new TransactionTemplate(transactionManager);
+  }
+
+  public void record(Long userId, UserStatus status, String token) {
+    pending.put(userId, new Presence(status, token));
+  }
+
+  /**
+   * Returns the presence of the user, preferring a change that has not been
+   * written yet over the state loaded from the database.
+   */
+  public Presence current(User user) {
+    Presence presence = pending.get(user.getId());
+    return presence != null ? presence : new Presence(user.getStatus(), user.getToken());
+  }
+
+  /**
+   * Copies a pending change onto the given user. Only use this on users that
+   * are detached or loaded read-only, otherwise the change is written right away.
+   */
+  public User overlay(User user) {
+    if (user != null) {
+      Presence presence = pending.get(user.getId());
+      if (presence != null) {
+        user.setStatus(presence.getStatus());
+        user.setToken(presence.getToken());
+      }
+    }
+    return user;
+  }
+
+  public UserSummary overlay(UserSummary user) {
+    if (user != null) {
+      Presence presence = pending.get(user.getId());
+      if (presence != null) {
+        user.setStatus(presence.getStatus());
+      }
+    }
+    return user;
+  }
+
+  public UserProfile overlay(UserProfile user) {
+    if (user != null) {
+      Presence presence = pending.get(user.getId());
+      if (presence != null) {
+        user.setStatus(presence.getStatus());
+        user.setToken(presence.getToken());
+      }
+    }
+    return user;
+  }
+
+  /**
+   * Returns the IDs of users with a pending change to the given status, which
+   * the stored status does not show yet.
+   */
+  public List<Long> pendingWith(UserStatus status) {
+    List<Long> userIds = new ArrayList<>();
+    pending.forEach((userId, presence) -> {
+      if (presence.getStatus() == status) {
+        userIds.add(userId);
+      }
+    });
+    return userIds;
+  }
+
+  public int pendingCount() {
+    return pending.size();
+  }
+
+  @Scheduled(fixedDelayString = "${presence.flush-interval-ms:1000}")
+  public synchronized void flush() {
+    if (pending.isEmpty()) {
+      return;
+    }
+    Map<Long, Presence> snapshot = new HashMap<>(pending);
+    List<Long> userIds = new ArrayList<>(snapshot.keySet());
+    int written = 0;
+    for (int from = 0; from < userIds.size(); from += FLUSH_CHUNK_SIZE) {
+      List<Long> chunk = userIds.subList(from, Math.min(from + FLUSH_CHUNK_SIZE, userIds.size()));
+      // leaves the version alone, so neither a concurrent edit nor the flush has to give way
+      List<Object[]> rows = new ArrayList<>(chunk.size());
+      for (Long userId : chunk) {
+        Presence presence = snapshot.get(userId);
+        rows.add(new Object[] {presence.getStatus().ordinal(), presence.getToken(), userId});
+      }
+      transactionTemplate.executeWithoutResult(status -> jdbcTemplate.batchUpdate(UPDATE_PRESENCE, rows));
+      // keep entries that changed again while they were being written
+      for (Long userId : chunk) {
+        pending.remove(userId, snapshot.get(userId));
+      }
+      written += chunk.size();
+    }
+    log.debug("Flushed presence of {} users", written);
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    flush();
+  }
+
+  public static final class Presence {
+    private final UserStatus status;
+    private final String token;
+
+    Presence(UserStatus status, String token) {
+      this.status = status;
+      this.token = token;
+    }
+
+    public UserStatus getStatus() {
+      return status;
+    }
+
+    public String getToken() {
+      return token;
+    }
+  }
+}
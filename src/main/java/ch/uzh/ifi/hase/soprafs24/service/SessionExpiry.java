@@ -0,0 +1,213 @@
+package ch.uzh.ifi.hase.soprafs24.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Session Expiry
+ * This class tracks when each logged-in user was last active and finds the
+ * sessions that have been idle for longer than sessions.idle-timeout-ms, so
+ * that users who simply close the browser are logged out eventually.
+ * Deadlines are kept in a timing wheel, which the scheduled expiry in
+ * UserService advances once per tick. There is no timer per session. Activity
+ * only stores the time in the session. The wheel is not rescheduled then: a
+ * session that comes due but was active in the meantime is put back for its
+ * new deadline, so each session costs at most one reschedule per timeout.
+ * The sessions held before a restart are handed over by SessionRegistry.
+ */
+@Component
+public class SessionExpiry {
+
+  private final long idleTimeoutMillis;
+
+  private final long tickMillis;
+
+  private final Map<Long, Session> sessions = new ConcurrentHashMap<>();
+
+  // guarded by itself
+  private final TimingWheel<Session> wheel;
+
+  private final AtomicLong expiredCount = new AtomicLong();
+
+  public SessionExpiry(@Value("${sessions.idle-timeout-ms:3600000}") long idleTimeoutMillis,
+      @Value("${sessions.expiry-tick-ms:1000}") long tickMillis) {
+    this.idleTimeoutMillis = idleTimeoutMillis;
+    this.tickMillis = tickMillis;
+    this.wheel = new TimingWheel<>(tickMillis, System.currentTimeMillis());
+  }
+
+  /**
+   * Starts tracking a new session of the user, replacing any earlier one.
+   * Must be called before the session is recorded as online, so that an
+   * earlier session that expires at the same time cannot overwrite it.
+   */
+  public void track(Long userId, String username, String token) {
+    track(userId, username, token, System.currentTimeMillis());
+  }
+
+  void track(Long userId, String username, String token, long now) {
+    if (userId == null || token == null) {
+      return;
+    }
+    Session session = new Session(userId, username, token, now);
+    Session previous = sessions.put(userId, session);
+    if (previous != null) {
+      end(previous);
+    }
+    synchronized (wheel) {
+      wheel.schedule(session, now + idleTimeoutMillis);
+    }
+  }
+
+  /**
+   * Records activity of the user.
+   */
+  public void touch(Long userId) {
+    touch(userId, System.currentTimeMillis());
+  }
+
+  void touch(Long userId, long now) {
+    Session session = userId != null ? sessions.get(userId) : null;
+    // within a tick, the deadline would not move
+    if (session != null && now - session.lastAccess >= tickMillis) {
+      session.lastAccess = now;
+    }
+  }
+
+  /**
+   * Stops tracking the session of a user who logged out.
+   */
+  public void untrack(Long userId) {
+    Session session = userId != null ? sessions.remove(userId) : null;
+    if (session != null) {
+      end(session);
+    }
+  }
+
+  /**
+   * Lets the session holding the token expire on the next tick, as if it had
+   * been idle for the whole timeout. Does nothing if the user has started
+   * another session since.
+   */
+  public void expireNow(Long userId, String token) {
+    Session session = userId != null ? sessions.get(userId) : null;
+    if (session == null || !session.token.equals(token)) {
+      return;
+    }
+    long now = System.currentTimeMillis();
+    synchronized (session) {
+      if (session.ended) {
+        return;
+      }
+      session.lastAccess = now - idleTimeoutMillis;
+    }
+    synchronized (wheel) {
+      wheel.cancel(session);
+      wheel.schedule(session, now);
+    }
+  }
+
+  /**
+   * Advances to the given time and hands every session that was idle for too
+   * long to the callback. The callback runs while the session is locked, so a
+   * concurrent track or untrack of that session waits until it is done.
+   * Returns the number of expired sessions.
+   */
+  public int expire(long now, Consumer<Session> onExpiry) {
+    List<Session> due;
+    synchronized (wheel) {
+      due = wheel.advance(now);
+    }
+    int expired = 0;
+    for (Session session : due) {
+      synchronized (session) {
+        if (session.ended) {
+          continue;
+        }
+        long deadline = session.lastAccess + idleTimeoutMillis;
+        if (deadline > now) {
+          synchronized (wheel) {
+            wheel.schedule(session, deadline);
+          }
+          continue;
+        }
+        session.ended = true;
+        sessions.remove(session.userId, session);
+        onExpiry.accept(session);
+        expired++;
+      }
+    }
+    expiredCount.addAndGet(expired);
+    return expired;
+  }
+
+  /**
+   * Keeps the username of a tracked session current, for the logout event
+   * published when it expires.
+   */
+  @TransactionalEventListener(fallbackExecution = true)
+  public void onUserChanged(UserChangedEvent event) {
+    if (event.getType() == UserChangedEvent.Type.UPDATED) {
+      Session session = sessions.get(event.getUserId());
+      if (session != null) {
+        session.username = event.getUsername();
+      }
+    }
+  }
+
+  private void end(Session session) {
+    synchronized (session) {
+      session.ended = true;
+    }
+    synchronized (wheel) {
+      wheel.cancel(session);
+    }
+  }
+
+  public int size() {
+    return sessions.size();
+  }
+
+  public long getExpiredCount() {
+    return expiredCount.get();
+  }
+
+  public static final class Session extends TimingWheel.Node {
+    private final long userId;
+    private volatile String username;
+    private final String token;
+    private volatile long lastAccess;
+    // guarded by the session
+    private boolean ended;
+
+    Session(long userId, String username, String token, long lastAccess) {
+      this.userId = userId;
+      this.username = username;
+      this.token = token;
+      this.lastAccess = lastAccess;
+    }
+
+    public Long getUserId() {
+      return userId;
+    }
+
+    public String getUsername() {
+      return username;
+    }
+
+    public String getToken() {
+      return token;
+    }
+
+    public long getLastAccess() {
+      return lastAccess;
+    }
+  }
+}
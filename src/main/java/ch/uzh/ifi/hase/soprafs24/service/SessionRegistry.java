@@ -0,0 +1,228 @@
+package ch.uzh.ifi.hase.soprafs24.service;
+
+import ch.uzh.ifi.hase.soprafs24.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs24.datasource.ReadYourWrites;
+import ch.uzh.ifi.hase.soprafs24.repository.UserRepository;
+import ch.uzh.ifi.hase.soprafs24.repository.UserToken;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.AbstractMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+/**
+ * Session Registry
+ * This class keeps the active sessions (token -> user ID and status) in memory
+ * so that authenticated requests can be checked without a database query.
+ * The map is split into stripes, each guarded by its own lock and kept in
+ * access order, so that contention stays low. The cap of sessions.max-entries
+ * applies to all stripes together: a register that takes the total over it
+ * evicts the least recently used session of its own stripe, which is cheap
+ * and close to the globally least recently used one.
+ * Idle sessions are logged out by SessionExpiry, which removes them here. An
+ * evicted session is handed to SessionExpiry as well, so that its user is
+ * logged out instead of keeping a token that no longer works.
+ */
+@Component
+public class SessionRegistry {
+
+  private final Logger log = LoggerFactory.getLogger(SessionRegistry.class);
+
+  private static final int STRIPES = 16;
+
+  private final UserRepository userRepository;
+
+  private final SessionExpiry sessionExpiry;
+
+  private final Stripe[] stripes;
+
+  private final int maxEntries;
+
+  private final AtomicInteger size = new AtomicInteger();
+
+  public SessionRegistry(@Qualifier("userRepository") UserRepository userRepository, SessionExpiry sessionExpiry,
+      @Value("${sessions.max-entries:100000}") int maxEntries) {
+    this.userRepository = userRepository;
+    this.sessionExpiry = sessionExpiry;
+    this.maxEntries = Math.max(1, maxEntries);
+    this.stripes = new Stripe[STRIPES];
+    for (int i = 0; i < STRIPES; i++) {
+      stripes[i] = new Stripe();
+    }
+  }
+
+  /**
+   * Loads all users that currently hold a token, so sessions survive a restart.
+   * Their sessions are tracked for expiry in the same pass, so the tokens are
+   * only read once.
+   */
+  @EventListener(ApplicationReadyEvent.class)
+  @Transactional(readOnly = true)
+  public void rebuild() {
+    clear();
+    long count = ReadYourWrites.onPrimary(() -> {
+      long loaded = 0;
+      try (Stream<UserToken> users = userRepository.streamAllTokens()) {
+        for (UserToken user : (Iterable<UserToken>) users::iterator) {
+          // tracked first, so that an eviction from a full registry can log the user out
+          sessionExpiry.track(user.getId(), user.getUsername(), user.getToken());
+          register(user.getToken(), user.getId(), user.getStatus());
+          loaded++;
+        }
+      }
+      return loaded;
+    });
+    log.info("Rebuilt session registry with {} sessions", count);
+  }
+
+  public void register(String token, Long userId, UserStatus status) {
+    if (token == null || userId == null) {
+      return;
+    }
+    int index = stripeIndex(token);
+    if (stripes[index].put(token, new Session(userId, status)) == null && size.incrementAndGet() > maxEntries) {
+      evict(index, token);
+    }
+  }
+
+  // removes the least recently used session, starting at the given stripe and never the token just registered
+  private void evict(int index, String registered) {
+    for (int i = 0; i < STRIPES; i++) {
+      Map.Entry<String, Session> evicted = stripes[(index + i) & (STRIPES - 1)].removeEldest(registered);
+      if (evicted != null) {
+        size.decrementAndGet();
+        log.debug("Session registry full, logging out user {}", evicted.getValue().getUserId());
+        sessionExpiry.expireNow(evicted.getValue().getUserId(), evicted.getKey());
+        return;
+      }
+    }
+  }
+
+  /**
+   * Returns the session belonging to the token or null if the token is unknown.
+   */
+  public Session authenticate(String token) {
+    if (token == null) {
+      return null;
+    }
+    return stripes[stripeIndex(token)].get(token);
+  }
+
+  public void remove(String token) {
+    if (token == null) {
+      return;
+    }
+    if (stripes[stripeIndex(token)].remove(token)) {
+      size.decrementAndGet();
+    }
+  }
+
+  public int size() {
+    return size.get();
+  }
+
+  public void clear() {
+    for (Stripe stripe : stripes) {
+      size.addAndGet(-stripe.clear());
+    }
+  }
+
+  private static int stripeIndex(String token) {
+    int hash = token.hashCode();
+    hash ^= (hash >>> 16);
+    return hash & (STRIPES - 1);
+  }
+
+  public static final class Session {
+    private final Long userId;
+    private final UserStatus status;
+
+    Session(Long userId, UserStatus status) {
+      this.userId = userId;
+      this.status = status;
+    }
+
+    public Long getUserId() {
+      return userId;
+    }
+
+    public UserStatus getStatus() {
+      return status;
+    }
+  }
+
+  private static final class Stripe {
+    private final ReentrantLock lock = new ReentrantLock();
+    // access order, so the eldest entry is the least recently used session
+    private final LinkedHashMap<String, Session> sessions = new LinkedHashMap<>(16, 0.75f, true);
+
+    Session get(String token) {
+      lock.lock();
+      try {
+        // a get moves the entry to the most recently used end
+        return sessions.get(token);
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    // returns the session the token had before, if any
+    Session put(String token, Session session) {
+      lock.lock();
+      try {
+        return sessions.put(token, session);
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    // removes and returns the least recently used session other than the given token, if any
+    Map.Entry<String, Session> removeEldest(String keep) {
+      lock.lock();
+      try {
+        Iterator<Map.Entry<String, Session>> entries = sessions.entrySet().iterator();
+        while (entries.hasNext()) {
+          Map.Entry<String, Session> eldest = entries.next();
+          if (!eldest.getKey().equals(keep)) {
+            entries.remove();
+            return new AbstractMap.SimpleImmutableEntry<>(eldest);
+          }
+        }
+        return null;
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    boolean remove(String token) {
+      lock.lock();
+      try {
+        return sessions.remove(token) != null;
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    int clear() {
+      lock.lock();
+      try {
+        int removed = sessions.size();
+        sessions.clear();
+        return removed;
+      } finally {
+        lock.unlock();
+      }
+    }
+  }
+}
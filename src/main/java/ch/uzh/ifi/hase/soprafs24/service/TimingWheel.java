@@ -0,0 +1,166 @@
+package ch.uzh.ifi.hase.soprafs24.service;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Timing Wheel
+ * This class is a hierarchical timing wheel: LEVELS wheels of SLOTS slots,
+ * where a slot of the lowest wheel spans one tick and a slot of every wheel
+ * above spans a full turn of the wheel below. A node goes into the lowest
+ * wheel that reaches its deadline, in the slot of that deadline. Whenever a
+ * wheel completes a turn, the next slot of the wheel above is emptied into
+ * the wheels below, so every node ends up in the lowest wheel by the time it
+ * is due.
+ * Slots are intrusive doubly linked lists, so scheduling and cancelling are
+ * O(1), and a tick only touches the nodes that are due or move down a wheel.
+ * With one-second ticks, the four wheels reach about 194 days; later
+ * deadlines wait in the top wheel and are placed again on every turn.
+ * Not thread-safe.
+ */
+final class TimingWheel<N extends TimingWheel.Node> {
+
+  private static final int BITS = 6;
+
+  static final int SLOTS = 1 << BITS;
+
+  private static final int MASK = SLOTS - 1;
+
+  static final int LEVELS = 4;
+
+  private static final long MAX_DELAY_TICKS = (1L << (BITS * LEVELS)) - 1;
+
+  private final long tickMillis;
+
+  private final Node[] slots = new Node[LEVELS * SLOTS];
+
+  private long currentTick;
+
+  private int size;
+
+  TimingWheel(long tickMillis, long startMillis) {
+    this.tickMillis = tickMillis;
+    this.currentTick = startMillis / tickMillis;
+    for (int i = 0; i < slots.length; i++) {
+      Node head = new Node();
+      head.prev = head;
+      head.next = head;
+      slots[i] = head;
+    }
+  }
+
+  /**
+   * Schedules the node for the first tick at or after the deadline, but no
+   * earlier than the next tick.
+   */
+  void schedule(N scheduled, long deadlineMillis) {
+    Node node = scheduled;
+    if (node.isScheduled()) {
+      throw new IllegalStateException("Node is already scheduled");
+    }
+    long deadlineTick = (deadlineMillis + tickMillis - 1) / tickMillis;
+    node.deadline = Math.max(currentTick + 1, deadlineTick);
+    place(node);
+    size++;
+  }
+
+  void cancel(N node) {
+    if (node.isScheduled()) {
+      unlink(node);
+      size--;
+    }
+  }
+
+  /**
+   * Advances the wheel to the given time and returns the nodes that became
+   * due on the way. They are no longer scheduled.
+   */
+  @SuppressWarnings("unchecked")
+  List<N> advance(long nowMillis) {
+    long targetTick = nowMillis / tickMillis;
+    List<N> due = new ArrayList<>();
+    while (currentTick < targetTick) {
+      currentTick++;
+      // the wheels that completed a turn, the highest first, so that nodes can move down several wheels
+      int level = 0;
+      while (level + 1 < LEVELS && (currentTick & ((1L << (BITS * (level + 1))) - 1)) == 0) {
+        level++;
+      }
+      for (; level > 0; level--) {
+        Node node = detachAll(slots[level * SLOTS + slotOf(currentTick, level)]);
+        while (node != null) {
+          Node next = node.next;
+          node.next = null;
+          place(node);
+          node = next;
+        }
+      }
+      Node node = detachAll(slots[slotOf(currentTick, 0)]);
+      while (node != null) {
+        Node next = node.next;
+        node.next = null;
+        size--;
+        due.add((N) node);
+        node = next;
+      }
+    }
+    return due;
+  }
+
+  int size() {
+    return size;
+  }
+
+  private static int slotOf(long tick, int level) {
+    return (int) ((tick >>> (BITS * level)) & MASK);
+  }
+
+  private void place(Node node) {
+    long delay = Math.min(node.deadline - currentTick, MAX_DELAY_TICKS);
+    long tick = currentTick + Math.max(delay, 0);
+    int level = 0;
+    while (level + 1 < LEVELS && delay >= (1L << (BITS * (level + 1)))) {
+      level++;
+    }
+    Node head = slots[level * SLOTS + slotOf(tick, level)];
+    node.prev = head.prev;
+    node.next = head;
+    head.prev.next = node;
+    head.prev = node;
+  }
+
+  private static void unlink(Node node) {
+    node.prev.next = node.next;
+    node.next.prev = node.prev;
+    node.prev = null;
+    node.next = null;
+  }
+
+  // empties the slot and returns its nodes as a null-terminated list
+  private static Node detachAll(Node head) {
+    if (head.next == head) {
+      return null;
+    }
+    Node first = head.next;
+    head.prev.next = null;
+    head.prev = head;
+    head.next = head;
+    for (Node node = first; node != null; node = node.next) {
+      node.prev = null;
+    }
+    return first;
+  }
+
+  /**
+   * The links a wheel needs in each scheduled object.
+   */
+  static class Node {
+    private Node prev;
+    private Node next;
+    private long deadline;
+
+    boolean isScheduled() {
+      return next != null;
+    }
+  }
+}
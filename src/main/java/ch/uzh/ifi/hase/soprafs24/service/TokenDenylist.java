@@ -0,0 +1,60 @@
+package ch.uzh.ifi.hase.soprafs24.service;
+
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Token Denylist
+ * This class remembers signed tokens that were revoked (by logging out or
+ * logging in again) before they expired. Only the 64-bit fingerprint of a
+ * token is kept, in buckets by the minute the token expires in, so a lookup
+ * only searches the bucket of the token and whole buckets are dropped once
+ * their tokens have expired: from then on, the signature check rejects them.
+ * The denylist is held in memory, so it does not survive a restart and is not
+ * shared between instances; tokens.ttl-ms bounds how long that matters.
+ */
+@Component
+public class TokenDenylist {
+
+  private static final long BUCKET_MILLIS = 60_000;
+
+  private final ConcurrentSkipListMap<Long, Set<Long>> buckets = new ConcurrentSkipListMap<>();
+
+  public void revoke(TokenSigner.Claims claims) {
+    if (claims.getExpiresAt() <= System.currentTimeMillis()) {
+      return;
+    }
+    buckets.computeIfAbsent(claims.getExpiresAt() / BUCKET_MILLIS, bucket -> ConcurrentHashMap.newKeySet())
+        .add(claims.getFingerprint());
+  }
+
+  public boolean isRevoked(TokenSigner.Claims claims) {
+    Set<Long> bucket = buckets.get(claims.getExpiresAt() / BUCKET_MILLIS);
+    return bucket != null && bucket.contains(claims.getFingerprint());
+  }
+
+  /**
+   * Drops the buckets whose tokens have all expired.
+   */
+  @Scheduled(fixedDelayString = "${tokens.denylist-sweep-interval-ms:60000}")
+  public void purgeExpired() {
+    purgeExpired(System.currentTimeMillis());
+  }
+
+  void purgeExpired(long now) {
+    buckets.headMap(now / BUCKET_MILLIS).clear();
+  }
+
+  public int size() {
+    int size = 0;
+    for (Map.Entry<Long, Set<Long>> bucket : buckets.entrySet()) {
+      size += bucket.getValue().size();
+    }
+    return size;
+  }
+}
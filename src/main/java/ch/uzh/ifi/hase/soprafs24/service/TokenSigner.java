@@ -0,0 +1,191 @@
+package ch.uzh.ifi.hase.soprafs24.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+
+/**
+ * Token Signer
+ * This class issues and checks self-contained tokens: the user ID, the issue
+ * time and the expiry, followed by an HMAC-SHA256 signature of these fields,
+ * both base64url encoded and separated by a dot. Checking such a token needs
+ * neither the database nor the session registry, only the key.
+ * Issuing signed tokens is optional (tokens.signed); without it, logIn and
+ * registration keep handing out random UUIDs. Signed tokens are checked either
+ * way, as long as the key stays the same.
+ */
+@Component
+public class TokenSigner {
+
+  private final Logger log = LoggerFactory.getLogger(TokenSigner.class);
+
+  private static final String ALGORITHM = "HmacSHA256";
+
+  // user ID, issued at, expires at (epoch millis) and a random nonce
+  private static final int PAYLOAD_BYTES = 8 + 8 + 8 + 4;
+
+  private static final int SIGNATURE_BYTES = 32;
+
+  private static final int MIN_KEY_BYTES = 32;
+
+  private static final int PAYLOAD_CHARS = encodedLength(PAYLOAD_BYTES);
+
+  private static final int TOKEN_LENGTH = PAYLOAD_CHARS + 1 + encodedLength(SIGNATURE_BYTES);
+
+  private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+
+  private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+  private final SecureRandom random = new SecureRandom();
+
+  private final boolean enabled;
+
+  private final long ttlMillis;
+
+  private final SecretKeySpec key;
+
+  // Mac instances are not thread-safe and expensive to look up
+  private final ThreadLocal<Mac> macs;
+
+  public TokenSigner(@Value("${tokens.signed:false}") boolean enabled,
+      @Value("${tokens.signing-key:}") String signingKey,
+      @Value("${tokens.ttl-ms:86400000}") long ttlMillis) {
+    this.enabled = enabled;
+    this.ttlMillis = ttlMillis;
+    byte[] keyBytes;
+    if (signingKey.isEmpty()) {
+      keyBytes = new byte[MIN_KEY_BYTES];
+      random.nextBytes(keyBytes);
+      if (enabled) {
+        log.warn("No tokens.signing-key set, signed tokens will not survive a restart");
+      }
+    } else {
+      keyBytes = Base64.getDecoder().decode(signingKey);
+      if (keyBytes.length < MIN_KEY_BYTES) {
+        throw new IllegalArgumentException("tokens.signing-key must be at least " + MIN_KEY_BYTES + " bytes");
+      }
+    }
+    this.key = new SecretKeySpec(keyBytes, ALGORITHM);
+    this.macs = ThreadLocal.withInitial(this::newMac);
+    // fail at startup rather than on the first request
+    newMac();
+  }
+
+  private Mac newMac() {
+    try {
+      Mac mac = Mac.getInstance(ALGORITHM);
+      mac.init(key);
+      return mac;
+    } catch (GeneralSecurityException e) {
+      throw new IllegalStateException("Cannot create " + ALGORITHM, e);
+    }
+  }
+
+  private static int encodedLength(int bytes) {
+    return (bytes * 4 + 2) / 3;
+  }
+
+  /**
+   * Whether logIn and registration hand out signed tokens.
+   */
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Whether the token has the format of a signed token. Says nothing about
+   * whether it is valid.
+   */
+  public boolean isSigned(String token) {
+    return token != null && token.length() == TOKEN_LENGTH && token.charAt(PAYLOAD_CHARS) == '.';
+  }
+
+  public String issue(Long userId) {
+    return issue(userId, System.currentTimeMillis());
+  }
+
+  String issue(Long userId, long issuedAt) {
+    byte[] payload = ByteBuffer.allocate(PAYLOAD_BYTES)
+        .putLong(userId)
+        .putLong(issuedAt)
+        .putLong(issuedAt + ttlMillis)
+        .putInt(random.nextInt())
+        .array();
+    byte[] signature = macs.get().doFinal(payload);
+    return ENCODER.encodeToString(payload) + "." + ENCODER.encodeToString(signature);
+  }
+
+  /**
+   * Returns the claims of a correctly signed, unexpired token, otherwise null.
+   * Revocation is not checked here, see TokenDenylist.
+   */
+  public Claims verify(String token) {
+    if (!isSigned(token)) {
+      return null;
+    }
+    byte[] payload;
+    byte[] signature;
+    try {
+      payload = DECODER.decode(token.substring(0, PAYLOAD_CHARS));
+      signature = DECODER.decode(token.substring(PAYLOAD_CHARS + 1));
+    } catch (IllegalArgumentException e) {
+      return null;
+    }
+    if (payload.length != PAYLOAD_BYTES || !MessageDigest.isEqual(macs.get().doFinal(payload), signature)) {
+      return null;
+    }
+    ByteBuffer fields = ByteBuffer.wrap(payload);
+    long userId = fields.getLong();
+    long issuedAt = fields.getLong();
+    long expiresAt = fields.getLong();
+    if (expiresAt <= System.currentTimeMillis()) {
+      return null;
+    }
+    return new Claims(userId, issuedAt, expiresAt, ByteBuffer.wrap(signature).getLong());
+  }
+
+  /**
+   * The fields of a verified token.
+   */
+  public static final class Claims {
+    private final Long userId;
+    private final long issuedAt;
+    private final long expiresAt;
+    private final long fingerprint;
+
+    Claims(Long userId, long issuedAt, long expiresAt, long fingerprint) {
+      this.userId = userId;
+      this.issuedAt = issuedAt;
+      this.expiresAt = expiresAt;
+      this.fingerprint = fingerprint;
+    }
+
+    public Long getUserId() {
+      return userId;
+    }
+
+    public long getIssuedAt() {
+      return issuedAt;
+    }
+
+    public long getExpiresAt() {
+      return expiresAt;
+    }
+
+    /**
+     * The first 64 bits of the signature, enough to tell tokens apart.
+     */
+    public long getFingerprint() {
+      return fingerprint;
+    }
+  }
+}
@@ -0,0 +1,53 @@
+package ch.uzh.ifi.hase.soprafs24.service;
+
+import ch.uzh.ifi.hase.soprafs24.constant.UserStatus;
+
+/**
+ * User Changed Event
+ * Published by the UserService whenever a user is created or modified.
+ * Listeners that keep derived state (caches, indexes) react to it once the
+ * surrounding transaction has committed.
+ */
+public class UserChangedEvent {
+
+  public enum Type {
+    CREATED, UPDATED, LOGGED_IN, LOGGED_OUT
+  }
+
+  private final Long userId;
+  private final Type type;
+  private final String username;
+  private final String previousUsername;
+  private final UserStatus status;
+
+  public UserChangedEvent(Long userId, Type type, String username, String previousUsername, UserStatus status) {
+    this.userId = userId;
+    this.type = type;
+    this.username = username;
+    this.previousUsername = previousUsername;
+    this.status = status;
+  }
+
+  public Long getUserId() {
+    return userId;
+  }
+
+  public Type getType() {
+    return type;
+  }
+
+  public String getUsername() {
+    return username;
+  }
+
+  /**
+   * The username before the change, only differs from getUsername() on renames.
+   */
+  public String getPreviousUsername() {
+    return previousUsername;
+  }
+
+  public UserStatus getStatus() {
+    return status;
+  }
+}
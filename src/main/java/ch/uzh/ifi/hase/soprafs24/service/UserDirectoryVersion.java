@@ -0,0 +1,94 @@
+package ch.uzh.ifi.hase.soprafs24.service;
+
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * User Directory Version
+ * This class counts changes to the user table so that GET /users can answer
+ * conditional requests without loading a single user.
+ * A change bumps the version when it is announced and again once its
+ * transaction has completed. While a change is in flight no tag is handed
+ * out, so a tag is only ever paired with data that was committed under it.
+ * The start time of the instance is part of the tag, so tags from before a
+ * restart never match.
+ */
+@Component
+public class UserDirectoryVersion {
+
+  private static final int PAGE_DIGEST_BYTES = 16;
+
+  private final String epoch = Long.toHexString(System.currentTimeMillis());
+
+  private final AtomicLong version = new AtomicLong();
+
+  private final AtomicInteger inFlight = new AtomicInteger();
+
+  @EventListener
+  public void onUserChanged(UserChangedEvent event) {
+    markChanged();
+  }
+
+  public void markChanged() {
+    if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+      version.incrementAndGet();
+      return;
+    }
+    inFlight.incrementAndGet();
+    version.incrementAndGet();
+    TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+      @Override
+      public void afterCompletion(int status) {
+        version.incrementAndGet();
+        inFlight.decrementAndGet();
+      }
+    });
+  }
+
+  /**
+   * Returns the current version or -1 while a change is being committed.
+   */
+  public long current() {
+    long current = version.get();
+    return inFlight.get() > 0 ? -1 : current;
+  }
+
+  /**
+   * Returns the weak ETag of the given page at the given version, or null if
+   * the version is not usable (a change was in flight or has happened since).
+   * The page is whatever identifies it among the others, e.g. its query
+   * parameters, so that pages of one version get different tags. It goes into
+   * the tag as the first 128 bits of its SHA-256, so that different pages do
+   * not share a tag by chance.
+   */
+  public String eTagOf(long observedVersion, String page) {
+    if (observedVersion < 0 || version.get() != observedVersion) {
+      return null;
+    }
+    return "W/\"" + epoch + "-" + Long.toHexString(observedVersion) + "-" + digestOf(page) + "\"";
+  }
+
+  private static String digestOf(String page) {
+    MessageDigest sha256;
+    try {
+      sha256 = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      // every Java platform has to provide SHA-256
+      throw new IllegalStateException(e);
+    }
+    byte[] digest = sha256.digest(page.getBytes(StandardCharsets.UTF_8));
+    StringBuilder hex = new StringBuilder(2 * PAGE_DIGEST_BYTES);
+    for (int i = 0; i < PAGE_DIGEST_BYTES; i++) {
+      hex.append(Character.forDigit((digest[i] >> 4) & 0xf, 16)).append(Character.forDigit(digest[i] & 0xf, 16));
+    }
+    return hex.toString();
+  }
+}
@@ -0,0 +1,55 @@
+package ch.uzh.ifi.hase.soprafs24.service;
+
+import ch.uzh.ifi.hase.soprafs24.entity.User;
+import ch.uzh.ifi.hase.soprafs24.repository.UserRepository;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.persistence.EntityManager;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.stream.Stream;
+
+/**
+ * User Export Service
+ * This class walks the whole user table through a forward-only cursor and
+ * hands every user to a writer. Each entity is detached right after it was
+ * written, so the persistence context never holds more than one user.
+ */
+@Service
+public class UserExportService {
+
+  private final UserRepository userRepository;
+
+  private final EntityManager entityManager;
+
+  public UserExportService(@Qualifier("userRepository") UserRepository userRepository, EntityManager entityManager) {
+    this.userRepository = userRepository;
+    this.entityManager = entityManager;
+  }
+
+  /**
+   * Passes every user to the writer in ID order and returns how many were
+   * written.
+   */
+  @Transactional(readOnly = true)
+  public long exportUsers(UserWriter writer) throws IOException {
+    long count = 0;
+    try (Stream<User> users = userRepository.streamAllOrderedById()) {
+      Iterator<User> iterator = users.iterator();
+      while (iterator.hasNext()) {
+        User user = iterator.next();
+        writer.write(user);
+        entityManager.detach(user);
+        count++;
+      }
+    }
+    return count;
+  }
+
+  @FunctionalInterface
+  public interface UserWriter {
+    void write(User user) throws IOException;
+  }
+}
@@ -0,0 +1,245 @@
+package ch.uzh.ifi.hase.soprafs24.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * User List Cache
+ * This class keeps pages of GET /users as the JSON bytes sent to the client,
+ * raw and gzip-compressed, together with their headers, so that repeated
+ * requests for an unchanged table skip loading, mapping and serializing.
+ * Pages are stored under the request URL and the directory version they
+ * were loaded at, and only served while that version is current. Every
+ * change to a user (creation, edit, login, logout) empties the cache.
+ * The bytes held are capped; the least recently used pages go first.
+ * Concurrent misses of one page at one version share a single load: the
+ * first request loads it, the others wait for its result.
+ */
+@Component
+public class UserListCache {
+
+  // below this, gzip barely saves anything and is not worth holding
+  private static final int MIN_GZIP_BYTES = 1024;
+
+  private final ObjectMapper objectMapper;
+
+  private final long maxBytes;
+
+  private final LinkedHashMap<String, Page> pages = new LinkedHashMap<>(16, 0.75f, true);
+
+  private long bytes;
+
+  // loads in progress, by version and key
+  private final ConcurrentHashMap<String, CompletableFuture<Page>> loading = new ConcurrentHashMap<>();
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong coalesced = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+  private final AtomicLong rebuilds = new AtomicLong();
+  private final AtomicLong rebuildNanos = new AtomicLong();
+
+  public UserListCache(ObjectMapper objectMapper, @Value("${users.list-cache.max-bytes:8388608}") long maxBytes) {
+    this.objectMapper = objectMapper;
+    this.maxBytes = maxBytes;
+  }
+
+  /**
+   * Returns the page stored for the key at the given version, or loads,
+   * serializes and returns it. It is only stored if the loader tagged it
+   * with an ETag, which it does when the version did not change meanwhile.
+   * While the page is being loaded, other calls for it wait for that load
+   * instead of starting their own.
+   */
+  public Page get(String key, long version, Supplier<ResponseEntity<?>> loader) {
+    synchronized (pages) {
+      Page page = pages.get(key);
+      if (page != null && page.version == version) {
+        hits.incrementAndGet();
+        return page;
+      }
+    }
+    String flightKey = version + " " + key;
+    CompletableFuture<Page> flight = new CompletableFuture<>();
+    CompletableFuture<Page> leader = loading.putIfAbsent(flightKey, flight);
+    if (leader != null) {
+      coalesced.incrementAndGet();
+      return await(leader);
+    }
+    try {
+      Page page = load(key, version, loader);
+      flight.complete(page);
+      return page;
+    } catch (RuntimeException | Error e) {
+      flight.completeExceptionally(e);
+      throw e;
+    } finally {
+      loading.remove(flightKey, flight);
+    }
+  }
+
+  // the waiting callers get the same exception as the one that loaded
+  private static Page await(CompletableFuture<Page> leader) {
+    try {
+      return leader.join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      if (e.getCause() instanceof Error) {
+        throw (Error) e.getCause();
+      }
+      throw e;
+    }
+  }
+
+  private Page load(String key, long version, Supplier<ResponseEntity<?>> loader) {
+    misses.incrementAndGet();
+
+    long start = System.nanoTime();
+    ResponseEntity<?> response = loader.get();
+    Page page = new Page(version, response.getHeaders(), serialize(response.getBody()));
+    rebuildNanos.addAndGet(System.nanoTime() - start);
+    rebuilds.incrementAndGet();
+
+    if (response.getHeaders().getETag() != null && page.size() <= maxBytes) {
+      synchronized (pages) {
+        Page previous = pages.put(key, page);
+        bytes += page.size() - (previous != null ? previous.size() : 0);
+        while (bytes > maxBytes) {
+          Map.Entry<String, Page> eldest = pages.entrySet().iterator().next();
+          pages.remove(eldest.getKey());
+          bytes -= eldest.getValue().size();
+          evictions.incrementAndGet();
+        }
+      }
+    }
+    return page;
+  }
+
+  private byte[] serialize(Object body) {
+    try {
+      return objectMapper.writeValueAsBytes(body);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  @EventListener
+  public void onUserChanged(UserChangedEvent event) {
+    clear();
+  }
+
+  public void clear() {
+    synchronized (pages) {
+      pages.clear();
+      bytes = 0;
+    }
+  }
+
+  public int size() {
+    synchronized (pages) {
+      return pages.size();
+    }
+  }
+
+  public long getBytes() {
+    synchronized (pages) {
+      return bytes;
+    }
+  }
+
+  public long getHitCount() {
+    return hits.get();
+  }
+
+  public long getMissCount() {
+    return misses.get();
+  }
+
+  public long getCoalescedCount() {
+    return coalesced.get();
+  }
+
+  public long getEvictionCount() {
+    return evictions.get();
+  }
+
+  public long getRebuildCount() {
+    return rebuilds.get();
+  }
+
+  public double getRebuildNanos() {
+    return rebuildNanos.get();
+  }
+
+  /**
+   * A serialized page with the headers it was sent with.
+   */
+  public static final class Page {
+    private final long version;
+    private final HttpHeaders headers;
+    private final byte[] json;
+    private final byte[] gzip;
+
+    Page(long version, HttpHeaders headers, byte[] json) {
+      this.version = version;
+      this.headers = HttpHeaders.readOnlyHttpHeaders(headers);
+      this.json = json;
+      this.gzip = json.length >= MIN_GZIP_BYTES ? gzip(json) : null;
+    }
+
+    private static byte[] gzip(byte[] json) {
+      ByteArrayOutputStream buffer = new ByteArrayOutputStream(json.length / 4);
+      try (GZIPOutputStream out = new GZIPOutputStream(buffer)) {
+        out.write(json);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      return buffer.toByteArray();
+    }
+
+    long size() {
+      return json.length + (gzip != null ? gzip.length : 0);
+    }
+
+    public byte[] getJson() {
+      return json;
+    }
+
+    public byte[] getGzip() {
+      return gzip;
+    }
+
+    /**
+     * The stored response, compressed if the client accepts gzip.
+     */
+    public ResponseEntity<byte[]> toResponse(boolean acceptsGzip) {
+      ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+          .headers(headers)
+          .contentType(MediaType.APPLICATION_JSON)
+          .varyBy(HttpHeaders.ACCEPT, HttpHeaders.ACCEPT_ENCODING);
+      if (acceptsGzip && gzip != null) {
+        return response.header(HttpHeaders.CONTENT_ENCODING, "gzip").body(gzip);
+      }
+      return response.body(json);
+    }
+  }
+}
@@ -0,0 +1,124 @@
+package ch.uzh.ifi.hase.soprafs24.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * User Metrics
+ * This class registers the application specific meters: login outcomes and
+ * the size and hit rates of the in-memory structures kept by the services.
+ * Gauges and function counters read the existing counters when the registry
+ * is scraped, so nothing extra happens on the request path.
+ */
+@Component
+public class UserMetrics {
+
+  private final Counter loginSucceeded;
+
+  private final Counter loginUnknownUser;
+
+  private final Counter loginWrongPassword;
+
+  public UserMetrics(MeterRegistry registry, SessionRegistry sessionRegistry, UserProfileCache profileCache,
+      PresenceTracker presenceTracker, PresenceBroadcaster presenceBroadcaster, PasswordHasher passwordHasher,
+      UsernameBloomFilter usernameFilter, UserListCache listCache, TokenDenylist tokenDenylist,
+      SessionExpiry sessionExpiry) {
+    this.loginSucceeded = loginCounter(registry, "success");
+    this.loginUnknownUser = loginCounter(registry, "unknown_user");
+    this.loginWrongPassword = loginCounter(registry, "wrong_password");
+
+    Gauge.builder("users.sessions.active", sessionRegistry, SessionRegistry::size)
+        .description("Sessions held in the session registry")
+        .register(registry);
+    Gauge.builder("users.sessions.tracked", sessionExpiry, SessionExpiry::size)
+        .description("Sessions tracked for idle expiry")
+        .register(registry);
+    FunctionCounter.builder("users.sessions.expired", sessionExpiry, SessionExpiry::getExpiredCount)
+        .description("Sessions logged out after being idle for too long")
+        .register(registry);
+    Gauge.builder("users.tokens.revoked", tokenDenylist, TokenDenylist::size)
+        .description("Signed tokens on the denylist that have not expired yet")
+        .register(registry);
+    Gauge.builder("users.presence.pending", presenceTracker, PresenceTracker::pendingCount)
+        .description("Presence changes not yet written to the database")
+        .register(registry);
+    Gauge.builder("users.presence.subscribers", presenceBroadcaster, PresenceBroadcaster::getSubscriberCount)
+        .description("Open presence streams")
+        .register(registry);
+
+    Gauge.builder("users.passwords.queued", passwordHasher, PasswordHasher::getQueueSize)
+        .description("Password hashes and checks waiting for the hashing pool")
+        .register(registry);
+    FunctionCounter.builder("users.passwords.rejected", passwordHasher, PasswordHasher::getRejectedCount)
+        .description("Password hashes and checks shed because the queue was full")
+        .register(registry);
+
+    FunctionCounter.builder("users.username_filter.checks", usernameFilter, UsernameBloomFilter::getNegativeCount)
+        .description("Username uniqueness checks answered without a query")
+        .tag("result", "negative")
+        .register(registry);
+    FunctionCounter.builder("users.username_filter.checks", usernameFilter, UsernameBloomFilter::getPossibleHitCount)
+        .description("Username uniqueness checks that had to query the database")
+        .tag("result", "possible_hit")
+        .register(registry);
+    Gauge.builder("users.username_filter.false_positive_rate", usernameFilter,
+        UsernameBloomFilter::estimatedFalsePositiveRate)
+        .register(registry);
+
+    Gauge.builder("users.profile_cache.size", profileCache, UserProfileCache::size)
+        .register(registry);
+    FunctionCounter.builder("users.profile_cache.requests", profileCache, UserProfileCache::getHitCount)
+        .tag("result", "hit")
+        .register(registry);
+    FunctionCounter.builder("users.profile_cache.requests", profileCache, UserProfileCache::getMissCount)
+        .tag("result", "miss")
+        .register(registry);
+    FunctionCounter.builder("users.profile_cache.evictions", profileCache, UserProfileCache::getEvictionCount)
+        .register(registry);
+
+    Gauge.builder("users.list_cache.size", listCache, UserListCache::getBytes)
+        .baseUnit("bytes")
+        .description("Serialized list pages held, raw and compressed")
+        .register(registry);
+    FunctionCounter.builder("users.list_cache.requests", listCache, UserListCache::getHitCount)
+        .tag("result", "hit")
+        .register(registry);
+    FunctionCounter.builder("users.list_cache.requests", listCache, UserListCache::getMissCount)
+        .tag("result", "miss")
+        .register(registry);
+    FunctionCounter.builder("users.list_cache.requests", listCache, UserListCache::getCoalescedCount)
+        .tag("result", "coalesced")
+        .register(registry);
+    FunctionCounter.builder("users.list_cache.evictions", listCache, UserListCache::getEvictionCount)
+        .register(registry);
+    FunctionTimer.builder("users.list_cache.rebuilds", listCache, UserListCache::getRebuildCount,
+        UserListCache::getRebuildNanos, TimeUnit.NANOSECONDS)
+        .description("List pages loaded, mapped, serialized and compressed")
+        .register(registry);
+  }
+
+  private static Counter loginCounter(MeterRegistry registry, String outcome) {
+    return Counter.builder("users.logins")
+        .description("Login attempts by outcome")
+        .tag("outcome", outcome)
+        .register(registry);
+  }
+
+  public void loginSucceeded() {
+    loginSucceeded.increment();
+  }
+
+  public void loginUnknownUser() {
+    loginUnknownUser.increment();
+  }
+
+  public void loginWrongPassword() {
+    loginWrongPassword.increment();
+  }
+}
@@ -0,0 +1,249 @@
+package ch.uzh.ifi.hase.soprafs24.service;
+
+import ch.uzh.ifi.hase.soprafs24.rest.dto.UserDTO;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+/**
+ * User Profile Cache
+ * This class keeps recently requested profiles (already mapped to UserDTO,
+ * together with the entity version they were read at) in a bounded LRU map
+ * with a time to live. Every change to a user evicts its
+ * entry as soon as the change is committed.
+ * A profile that was loaded while its user was invalidated is not stored, so
+ * a slow reader can never put an outdated profile back into the cache.
+ * Changes to other users do not keep a load from being stored.
+ * Like SessionRegistry, the map is split into stripes, each guarded by its
+ * own lock and kept in access order, so that readers of different users do
+ * not wait for each other. Each stripe holds an equal share of maxEntries.
+ */
+@Component
+public class UserProfileCache {
+
+  private static final int MAX_STRIPES = 16;
+
+  private final long ttlMillis;
+
+  private final Stripe[] stripes;
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+
+  public UserProfileCache(@Value("${users.profile-cache.max-entries:10000}") int maxEntries,
+      @Value("${users.profile-cache.ttl-ms:60000}") long ttlMillis) {
+    this.ttlMillis = ttlMillis;
+    // a power of two, and no more stripes than entries
+    int stripeCount = Math.min(MAX_STRIPES, Integer.highestOneBit(Math.max(1, maxEntries)));
+    this.stripes = new Stripe[stripeCount];
+    int entriesPerStripe = Math.max(1, (maxEntries + stripeCount - 1) / stripeCount);
+    for (int i = 0; i < stripeCount; i++) {
+      stripes[i] = new Stripe(entriesPerStripe);
+    }
+  }
+
+  /**
+   * Returns the cached profile or loads, stores and returns it. Returns null
+   * (and caches nothing) when the loader does not find the user.
+   */
+  public Profile get(Long userId, Function<Long, Profile> loader) {
+    long now = System.currentTimeMillis();
+    Stripe stripe = stripeFor(userId);
+    Load load;
+    long invalidationsBeforeLoad;
+    stripe.lock.lock();
+    try {
+      Entry entry = stripe.entries.get(userId);
+      if (entry != null) {
+        if (entry.expiresAt > now) {
+          hits.incrementAndGet();
+          return entry.profile;
+        }
+        stripe.entries.remove(userId);
+        evictions.incrementAndGet();
+      }
+      load = stripe.loads.computeIfAbsent(userId, id -> new Load());
+      load.loaders++;
+      invalidationsBeforeLoad = load.invalidations;
+    } finally {
+      stripe.lock.unlock();
+    }
+    misses.incrementAndGet();
+
+    Profile profile = null;
+    try {
+      profile = loader.apply(userId);
+    } finally {
+      stripe.lock.lock();
+      try {
+        if (profile != null && load.invalidations == invalidationsBeforeLoad) {
+          stripe.entries.put(userId, new Entry(profile, now + ttlMillis));
+        }
+        if (--load.loaders == 0) {
+          stripe.loads.remove(userId);
+        }
+      } finally {
+        stripe.lock.unlock();
+      }
+    }
+    return profile;
+  }
+
+  public void invalidate(Long userId) {
+    Stripe stripe = stripeFor(userId);
+    stripe.lock.lock();
+    try {
+      stripe.entries.remove(userId);
+      Load load = stripe.loads.get(userId);
+      if (load != null) {
+        load.invalidations++;
+      }
+    } finally {
+      stripe.lock.unlock();
+    }
+  }
+
+  public void clear() {
+    for (Stripe stripe : stripes) {
+      stripe.lock.lock();
+      try {
+        stripe.entries.clear();
+        for (Load load : stripe.loads.values()) {
+          load.invalidations++;
+        }
+      } finally {
+        stripe.lock.unlock();
+      }
+    }
+  }
+
+  @TransactionalEventListener(fallbackExecution = true)
+  public void onUserChanged(UserChangedEvent event) {
+    invalidate(event.getUserId());
+  }
+
+  public int size() {
+    int size = 0;
+    for (Stripe stripe : stripes) {
+      stripe.lock.lock();
+      try {
+        size += stripe.entries.size();
+      } finally {
+        stripe.lock.unlock();
+      }
+    }
+    return size;
+  }
+
+  public long getHitCount() {
+    return hits.get();
+  }
+
+  public long getMissCount() {
+    return misses.get();
+  }
+
+  public long getEvictionCount() {
+    return evictions.get();
+  }
+
+  /**
+   * A mapped profile and the version of the user it was mapped from.
+   */
+  public static final class Profile {
+    private final UserDTO user;
+    private final Long version;
+
+    public Profile(UserDTO user, Long version) {
+      this.user = user;
+      this.version = version;
+    }
+
+    public UserDTO getUser() {
+      return user;
+    }
+
+    public Long getVersion() {
+      return version;
+    }
+
+    /**
+     * The entity version plus a hash of status and token, as presence changes
+     * never bump the version.
+     */
+    public String getETag() {
+      int presence = Objects.hash(user.getStatus(), user.getToken());
+      return "W/\"" + user.getId() + "-" + version + "-" + Integer.toHexString(presence) + "\"";
+    }
+
+    /**
+     * The version in a tag handed out by getETag() for the given user, or
+     * null if the tag is not one of them. The presence part is ignored, as
+     * presence is not part of the profile a client edits.
+     */
+    public static Long versionOf(String eTag, Long userId) {
+      String opaqueTag = eTag.startsWith("W/") ? eTag.substring(2) : eTag;
+      String[] parts = opaqueTag.replace("\"", "").split("-");
+      if (parts.length != 3 || !parts[0].equals(String.valueOf(userId))) {
+        return null;
+      }
+      try {
+        return Long.valueOf(parts[1]);
+      } catch (NumberFormatException e) {
+        return null;
+      }
+    }
+  }
+
+  private Stripe stripeFor(Long userId) {
+    int hash = userId.hashCode();
+    hash ^= (hash >>> 16);
+    return stripes[hash & (stripes.length - 1)];
+  }
+
+  private final class Stripe {
+    private final ReentrantLock lock = new ReentrantLock();
+    // access order, so the eldest entry is the least recently used profile
+    private final LinkedHashMap<Long, Entry> entries;
+    // the loads in progress, only kept while someone is loading the user
+    private final HashMap<Long, Load> loads = new HashMap<>();
+
+    Stripe(int maxEntries) {
+      this.entries = new LinkedHashMap<Long, Entry>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Entry> eldest) {
+          if (size() > maxEntries) {
+            evictions.incrementAndGet();
+            return true;
+          }
+          return false;
+        }
+      };
+    }
+  }
+
+  // guarded by the stripe lock
+  private static final class Load {
+    private int loaders;
+    private long invalidations;
+  }
+
+  private static final class Entry {
+    private final Profile profile;
+    private final long expiresAt;
+
+    Entry(Profile profile, long expiresAt) {
+      this.profile = profile;
+      this.expiresAt = expiresAt;
+    }
+  }
+}
@@ -0,0 +1,367 @@
+package ch.uzh.ifi.hase.soprafs24.service;
+
+import ch.uzh.ifi.hase.soprafs24.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs24.datasource.ReadYourWrites;
+import ch.uzh.ifi.hase.soprafs24.entity.User;
+import ch.uzh.ifi.hase.soprafs24.repository.UserRepository;
+import ch.uzh.ifi.hase.soprafs24.repository.UserSummary;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.stream.Stream;
+
+/**
+ * User Search Index
+ * This class answers username searches from memory, ranked by the edit
+ * distance between the query and the closest prefix of the username, then
+ * alphabetically. Distance 0 means the username starts with the query; short
+ * queries only get those, longer ones tolerate one or two typos.
+ * Prefix matches come from a map sorted by lower-case username. Typos are
+ * found through an index of the trigrams of every username and where they
+ * occur: a name within k edits of the query keeps all but 3k of the query's
+ * trigrams, each shifted by at most k positions, so only names reaching that
+ * count are checked with the actual edit distance.
+ * Every username gets an ordinal, so the postings are plain int lists. A
+ * rename assigns a new ordinal; the old one is left dead in the postings and
+ * skipped when found.
+ * The index is filled from the USER table once the application is ready and
+ * follows creates, renames and presence changes once they are committed.
+ */
+@Component
+public class UserSearchIndex {
+
+  private final Logger log = LoggerFactory.getLogger(UserSearchIndex.class);
+
+  // queries shorter than these get no typos, or at most one
+  private static final int ONE_TYPO_LENGTH = 4;
+  private static final int TWO_TYPOS_LENGTH = 10;
+
+  // sorts before every character, so "bob" and its duplicates come before "bob1"
+  private static final char KEY_SEPARATOR = '\u0000';
+  private static final String SUBTREE_END = "\uffff";
+
+  // pads the start of a name, so the first characters get trigrams of their own
+  private static final char PAD = '\u0001';
+
+  private final UserRepository userRepository;
+
+  private final ConcurrentSkipListMap<String, Entry> byName = new ConcurrentSkipListMap<>();
+
+  private final ConcurrentHashMap<Long, Entry> byId = new ConcurrentHashMap<>();
+
+  private final ConcurrentHashMap<Long, Posting> trigrams = new ConcurrentHashMap<>();
+
+  // ordinal -> current entry, null once renamed; filled before ordinalCount is published
+  private volatile Entry[] entries = new Entry[1024];
+
+  private volatile int ordinalCount;
+
+  // writers are serialized, searches never lock
+  private final Object writeLock = new Object();
+
+  public UserSearchIndex(@Qualifier("userRepository") UserRepository userRepository) {
+    this.userRepository = userRepository;
+  }
+
+  /**
+   * Loads all users. Changes committed in the meantime wait for the load and
+   * are applied on top of it.
+   */
+  @EventListener(ApplicationReadyEvent.class)
+  @Transactional(readOnly = true)
+  public void load() {
+    synchronized (writeLock) {
+      ReadYourWrites.onPrimary(() -> {
+        try (Stream<UserSummary> users = userRepository.streamAllSummaries()) {
+          users.forEach(user -> put(user.getId(), user.getUsername(), user.getStatus()));
+        }
+        return null;
+      });
+    }
+    log.info("Indexed {} usernames with {} trigrams for search", byId.size(), trigrams.size());
+  }
+
+  @TransactionalEventListener(fallbackExecution = true)
+  public void onUserChanged(UserChangedEvent event) {
+    synchronized (writeLock) {
+      Entry current = byId.get(event.getUserId());
+      switch (event.getType()) {
+        case CREATED:
+          put(event.getUserId(), event.getUsername(), event.getStatus());
+          break;
+        case UPDATED:
+          // edits carry the stored status, which may lag behind the presence events
+          put(event.getUserId(), event.getUsername(), current != null ? current.status : event.getStatus());
+          break;
+        default:
+          if (current != null) {
+            put(current.id, current.username, event.getStatus());
+          }
+      }
+    }
+  }
+
+  private void put(Long id, String username, UserStatus status) {
+    if (id == null || username == null) {
+      return;
+    }
+    Entry previous = byId.get(id);
+    String normalized = normalize(username);
+    boolean renamed = previous == null || !previous.normalized.equals(normalized);
+    int ordinal = renamed ? addOrdinal(normalized) : previous.ordinal;
+    Entry entry = new Entry(id, username, normalized, status, ordinal);
+    entries[ordinal] = entry;
+    if (renamed) {
+      if (previous != null) {
+        entries[previous.ordinal] = null;
+      }
+      ordinalCount = ordinal + 1;
+    }
+    byId.put(id, entry);
+    byName.put(entry.key, entry);
+    if (previous != null && !previous.key.equals(entry.key)) {
+      byName.remove(previous.key);
+    }
+  }
+
+  // the new ordinal becomes visible to searches once ordinalCount is raised
+  private int addOrdinal(String normalized) {
+    int ordinal = ordinalCount;
+    if (ordinal == entries.length) {
+      entries = Arrays.copyOf(entries, ordinal * 2);
+    }
+    long[] nameTrigrams = trigramsOf(normalized);
+    for (int position = 0; position < nameTrigrams.length; position++) {
+      trigrams.computeIfAbsent(nameTrigrams[position], key -> new Posting()).add(ordinal, position);
+    }
+    return ordinal;
+  }
+
+  public int size() {
+    return byId.size();
+  }
+
+  /**
+   * Returns the best matches for the query, at most maxResults of them, as
+   * detached users carrying only ID, username and status.
+   */
+  public List<User> search(String query, int maxResults) {
+    String normalized = normalize(query);
+    List<User> results = new ArrayList<>();
+    if (normalized.isEmpty() || maxResults < 1) {
+      return results;
+    }
+    // distance 0: names starting with the query, in alphabetical order
+    for (Entry entry : byName.subMap(normalized, normalized + SUBTREE_END).values()) {
+      if (results.size() == maxResults) {
+        return results;
+      }
+      results.add(entry.toUser());
+    }
+    List<Match> typos = findTypos(normalized, maxDistance(normalized.length()));
+    typos.sort(Comparator.comparingInt((Match match) -> match.distance).thenComparing(match -> match.entry.key));
+    for (Match match : typos) {
+      if (results.size() == maxResults) {
+        break;
+      }
+      results.add(match.entry.toUser());
+    }
+    return results;
+  }
+
+  /**
+   * Names whose closest prefix is between 1 and maxDistance edits away from
+   * the query.
+   */
+  private List<Match> findTypos(String query, int maxDistance) {
+    List<Match> matches = new ArrayList<>();
+    if (maxDistance < 1) {
+      return matches;
+    }
+    long[] queryTrigrams = trigramsOf(query);
+    int required = queryTrigrams.length - 3 * maxDistance;
+    Map<Long, List<Integer>> queryPositions = new HashMap<>();
+    for (int position = 0; position < queryTrigrams.length; position++) {
+      queryPositions.computeIfAbsent(queryTrigrams[position], key -> new ArrayList<>()).add(position);
+    }
+
+    // count the query trigrams each name holds at a nearby position; the count
+    // is read first, so the entry array read afterwards covers all these ordinals
+    byte[] counts = new byte[ordinalCount];
+    Entry[] current = entries;
+    List<Integer> candidates = new ArrayList<>();
+    for (Map.Entry<Long, List<Integer>> trigram : queryPositions.entrySet()) {
+      Posting posting = trigrams.get(trigram.getKey());
+      if (posting == null) {
+        continue;
+      }
+      int size = posting.size;
+      int[] ordinals = posting.ordinals;
+      byte[] positions = posting.positions;
+      for (int i = 0; i < size; i++) {
+        int ordinal = ordinals[i];
+        if (ordinal >= counts.length) {
+          continue;
+        }
+        for (int position : trigram.getValue()) {
+          if (counts[ordinal] < required
+              && Math.abs(positions[i] - Math.min(position, Posting.MAX_POSITION)) <= maxDistance
+              && ++counts[ordinal] == required) {
+            candidates.add(ordinal);
+          }
+        }
+      }
+    }
+
+    int[] above = new int[query.length() + 1];
+    int[] row = new int[query.length() + 1];
+    for (int ordinal : candidates) {
+      Entry entry = current[ordinal];
+      if (entry == null) {
+        continue;
+      }
+      int distance = prefixDistance(query, entry.normalized, maxDistance, above, row);
+      if (distance >= 1 && distance <= maxDistance) {
+        matches.add(new Match(entry, distance));
+      }
+    }
+    return matches;
+  }
+
+  /**
+   * Edit distance between the query and the closest prefix of the name, or
+   * something above maxDistance if there is none within it.
+   */
+  static int prefixDistance(String query, String name, int maxDistance, int[] above, int[] row) {
+    int m = query.length();
+    for (int j = 0; j <= m; j++) {
+      above[j] = j;
+    }
+    int best = m;
+    for (int i = 1; i <= name.length(); i++) {
+      char c = name.charAt(i - 1);
+      row[0] = i;
+      int min = i;
+      for (int j = 1; j <= m; j++) {
+        int substitution = above[j - 1] + (query.charAt(j - 1) == c ? 0 : 1);
+        row[j] = Math.min(substitution, Math.min(above[j] + 1, row[j - 1] + 1));
+        min = Math.min(min, row[j]);
+      }
+      best = Math.min(best, row[m]);
+      // longer prefixes cannot get closer than the best cell of this row
+      if (min >= best || min > maxDistance) {
+        return best;
+      }
+      int[] swap = above;
+      above = row;
+      row = swap;
+    }
+    return best;
+  }
+
+  static int maxDistance(int queryLength) {
+    if (queryLength < ONE_TYPO_LENGTH) {
+      return 0;
+    }
+    return queryLength < TWO_TYPOS_LENGTH ? 1 : 2;
+  }
+
+  static String normalize(String value) {
+    return value == null ? "" : value.trim().toLowerCase(Locale.ROOT);
+  }
+
+  /**
+   * The trigrams of the padded value, each packed into a long. The trigram
+   * at position i ends with the i-th character.
+   */
+  static long[] trigramsOf(String value) {
+    long[] packed = new long[value.length()];
+    char first = PAD;
+    char second = PAD;
+    for (int i = 0; i < value.length(); i++) {
+      char third = value.charAt(i);
+      packed[i] = ((long) first << 32) | ((long) second << 16) | third;
+      first = second;
+      second = third;
+    }
+    return packed;
+  }
+
+  /**
+   * The names holding one trigram and where it occurs, positions capped at
+   * MAX_POSITION. Appended to by the single writer; size is published last,
+   * so readers that read it first see that many complete entries.
+   */
+  private static final class Posting {
+    static final int MAX_POSITION = Byte.MAX_VALUE;
+
+    private volatile int[] ordinals = new int[4];
+    private volatile byte[] positions = new byte[4];
+    private volatile int size;
+
+    void add(int ordinal, int position) {
+      int[] currentOrdinals = ordinals;
+      byte[] currentPositions = positions;
+      if (size == currentOrdinals.length) {
+        currentOrdinals = Arrays.copyOf(currentOrdinals, size * 2);
+        currentPositions = Arrays.copyOf(currentPositions, size * 2);
+      }
+      currentOrdinals[size] = ordinal;
+      currentPositions[size] = (byte) Math.min(position, MAX_POSITION);
+      ordinals = currentOrdinals;
+      positions = currentPositions;
+      size = size + 1;
+    }
+  }
+
+  private static final class Match {
+    private final Entry entry;
+    private final int distance;
+
+    Match(Entry entry, int distance) {
+      this.entry = entry;
+      this.distance = distance;
+    }
+  }
+
+  private static final class Entry {
+    private final Long id;
+    private final String username;
+    private final String normalized;
+    private final UserStatus status;
+    private final int ordinal;
+    private final String key;
+
+    Entry(Long id, String username, String normalized, UserStatus status, int ordinal) {
+      this.id = id;
+      this.username = username;
+      this.normalized = normalized;
+      this.status = status;
+      this.ordinal = ordinal;
+      this.key = normalized + KEY_SEPARATOR + id;
+    }
+
+    User toUser() {
+      User user = new User();
+      user.setId(id);
+      user.setUsername(username);
+      user.setStatus(status);
+      return user;
+    }
+  }
+}
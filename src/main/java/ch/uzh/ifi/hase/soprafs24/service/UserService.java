@@ -3,18 +3,41 @@ package ch.uzh.ifi.hase.soprafs24.service;
 import ch.qos.logback.core.status.StatusUtil;
 import ch.uzh.ifi.hase.soprafs24.constant.UserStatus;
 import ch.uzh.ifi.hase.soprafs24.entity.User;
+import ch.uzh.ifi.hase.soprafs24.repository.UserProfile;
 import ch.uzh.ifi.hase.soprafs24.repository.UserRepository;
+import ch.uzh.ifi.hase.soprafs24.repository.UserSummary;
+import io.micrometer.core.annotation.Timed;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.SliceImpl;
 import org.springframework.http.HttpStatus;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.server.ResponseStatusException;
 
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Objects;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
 
 /**
  * User Service
@@ -22,6 +45,7 @@ import java.util.UUID;
  * the user
  * (e.g., it creates, modifies, deletes, finds). The result will be passed back
  * to the caller.
+ * Every public operation is timed as users.service, tagged with the method.
  */
 @Service
 @Transactional
@@ -29,41 +53,275 @@ public class UserService {
 
   private final Logger log = LoggerFactory.getLogger(UserService.class);
 
+  public static final int MAX_BATCH_SIZE = 5000;
+
+  static final String TIMER = "users.service";
+
+  private static final int UNIQUENESS_CHUNK_SIZE = 1000;
+
+  static final int MAX_EDIT_ATTEMPTS = 3;
+
+  static final int MAX_BATCH_ATTEMPTS = 3;
+
+  private static final int EDIT_LOCK_STRIPES = 64;
+
   private final UserRepository userRepository;
 
+  private final SessionRegistry sessionRegistry;
+
+  private final ApplicationEventPublisher eventPublisher;
+
+  private final PresenceTracker presenceTracker;
+
+  private final UserMetrics metrics;
+
+  private final PasswordHasher passwordHasher;
+
+  private final UsernameBloomFilter usernameFilter;
+
+  private final TransactionTemplate transactionTemplate;
+
+  private final TokenSigner tokenSigner;
+
+  private final TokenDenylist tokenDenylist;
+
+  private final SessionExpiry sessionExpiry;
+
+  // edits of the same user take turns, see editUser
+  private final ReentrantLock[] editLocks = new ReentrantLock[EDIT_LOCK_STRIPES];
+
+  @PersistenceContext
+  private EntityManager entityManager;
+
   @Autowired
-  public UserService(@Qualifier("userRepository") UserRepository userRepository) {
+  public UserService(@Qualifier("userRepository") UserRepository userRepository, SessionRegistry sessionRegistry,
+      ApplicationEventPublisher eventPublisher, PresenceTracker presenceTracker, UserMetrics metrics,
+      PasswordHasher passwordHasher, UsernameBloomFilter usernameFilter,
+      PlatformTransactionManager transactionManager, TokenSigner tokenSigner, TokenDenylist tokenDenylist,
+      SessionExpiry sessionExpiry) {
     this.userRepository = userRepository;
+    this.sessionRegistry = sessionRegistry;
+    this.eventPublisher = eventPublisher;
+    this.presenceTracker = presenceTracker;
+    this.metrics = metrics;
+    this.passwordHasher = passwordHasher;
+    this.usernameFilter = usernameFilter;
+    this.transactionTemplate = new TransactionTemplate(transactionManager);
+    this.tokenSigner = tokenSigner;
+    this.tokenDenylist = tokenDenylist;
+    this.sessionExpiry = sessionExpiry;
+    for (int i = 0; i < EDIT_LOCK_STRIPES; i++) {
+      editLocks[i] = new ReentrantLock();
+    }
+  }
+
+  /**
+   * Returns at most limit users with an ID greater than after, optionally
+   * restricted to a status and a username prefix. Both the status filter and
+   * the returned users reflect the latest presence, including changes that
+   * have not been flushed yet. Only the listed columns are read, no entity is
+   * loaded.
+   */
+  @Timed(TIMER)
+  @Transactional(readOnly = true)
+  public Slice<UserSummary> getUsers(Long after, int limit, UserStatus status, String usernamePrefix) {
+    String pattern = null;
+    if (usernamePrefix != null && !usernamePrefix.isEmpty()) {
+      pattern = escapeLikePattern(usernamePrefix) + "%";
+    }
+    long cursor = after == null ? 0L : after;
+    if (status == null) {
+      Slice<UserSummary> page = this.userRepository.findSummaryPage(cursor, null, pattern, PageRequest.of(0, limit));
+      page.forEach(presenceTracker::overlay);
+      return page;
+    }
+    // the stored status can be a flush behind: users changing to the status are
+    // read as well, and users changing away from it are dropped after the overlay
+    List<Long> changedTo = presenceTracker.pendingWith(status);
+    List<UserSummary> users = new ArrayList<>(limit);
+    boolean hasNext;
+    do {
+      Pageable candidates = PageRequest.of(0, limit - users.size());
+      Slice<UserSummary> page = changedTo.isEmpty()
+          ? this.userRepository.findSummaryPage(cursor, status, pattern, candidates)
+          : this.userRepository.findSummaryPageIncluding(cursor, status, changedTo, pattern, candidates);
+      for (UserSummary user : page) {
+        cursor = user.getId();
+        if (presenceTracker.overlay(user).getStatus() == status) {
+          users.add(user);
+        }
+      }
+      hasNext = page.hasNext();
+    } while (hasNext && users.size() < limit);
+    return new SliceImpl<>(users, PageRequest.of(0, limit), hasNext);
   }
 
-  public List<User> getUsers() {
-    return this.userRepository.findAll();
+  private static String escapeLikePattern(String value) {
+    return value.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
   }
 
+  // like logIn, runs outside a transaction so hashing holds no connection
+  @Timed(TIMER)
+  @Transactional(propagation = Propagation.NOT_SUPPORTED)
   public User createUser(User newUser) {
-    newUser.setToken(UUID.randomUUID().toString());
-    newUser.setStatus(UserStatus.ONLINE);
+    prepareNewUser(newUser);
     checkIfUserExists(newUser);
+    newUser.setPassword(passwordHasher.hash(newUser.getPassword()));
     // saves the given entity but data is only persisted in the database once
     // flush() is called
     newUser = userRepository.save(newUser);
     userRepository.flush();
+    startSession(newUser);
+    publish(newUser, UserChangedEvent.Type.CREATED, newUser.getUsername());
 
     log.debug("Created Information for User: {}", newUser);
     return newUser;
   }
 
+  /**
+   * Registers many users at once. Usernames the filter cannot rule out are
+   * checked with one set-based query per chunk and the inserts go out as JDBC
+   * batches. The returned list
+   * is aligned with the input: it holds the created user, or null where the
+   * username was taken (in the database or earlier in the same batch) or the
+   * input was incomplete.
+   * Passwords are hashed before the inserts start, outside the transaction.
+   * If a username is taken by someone else while the batch is inserted, the
+   * batch is rolled back and inserted again without it, up to
+   * MAX_BATCH_ATTEMPTS times.
+   *
+   * @param newUsers users to create, at most MAX_BATCH_SIZE
+   * @return the created users, null for rejected entries
+   */
+  @Timed(TIMER)
+  @Transactional(propagation = Propagation.NOT_SUPPORTED)
+  public List<User> createUsers(List<User> newUsers) {
+    List<String> checked = new ArrayList<>();
+    for (User user : newUsers) {
+      if (user.getUsername() != null && usernameFilter.mightContain(user.getUsername())) {
+        checked.add(user.getUsername());
+      }
+    }
+    Set<String> taken = existingUsernames(checked);
+
+    List<User> results = new ArrayList<>(newUsers.size());
+    List<User> accepted = new ArrayList<>();
+    List<String> passwords = new ArrayList<>();
+    for (User newUser : newUsers) {
+      if (newUser.getUsername() == null || newUser.getPassword() == null || !taken.add(newUser.getUsername())) {
+        results.add(null);
+        continue;
+      }
+      prepareNewUser(newUser);
+      results.add(newUser);
+      accepted.add(newUser);
+      passwords.add(newUser.getPassword());
+    }
+    List<String> hashes = passwordHasher.hashAll(passwords);
+    for (int i = 0; i < accepted.size(); i++) {
+      accepted.get(i).setPassword(hashes.get(i));
+    }
+
+    for (int attempt = 1; ; attempt++) {
+      try {
+        transactionTemplate.executeWithoutResult(status -> {
+          List<User> pending = new ArrayList<>();
+          for (User newUser : accepted) {
+            pending.add(newUser);
+            if (pending.size() == User.ALLOCATION_SIZE) {
+              persistBatch(pending);
+            }
+          }
+          persistBatch(pending);
+        });
+        break;
+      } catch (DataIntegrityViolationException e) {
+        // a name was taken between the check and the inserts, which rolled back the whole batch
+        Set<String> takenMeanwhile = existingUsernames(accepted.stream().map(User::getUsername)
+            .collect(Collectors.toList()));
+        if (takenMeanwhile.isEmpty() || attempt == MAX_BATCH_ATTEMPTS) {
+          throw e;
+        }
+        log.debug("{} usernames of a batch were taken concurrently, retrying without them", takenMeanwhile.size());
+        results.replaceAll(user -> user != null && takenMeanwhile.contains(user.getUsername()) ? null : user);
+        accepted.removeIf(user -> takenMeanwhile.contains(user.getUsername()));
+        // the rolled back inserts left their IDs behind
+        for (User user : accepted) {
+          user.setId(null);
+          user.setVersion(null);
+        }
+      }
+    }
+    // only once committed, so that no session outlives a rolled back insert
+    for (User created : accepted) {
+      startSession(created);
+    }
+    log.debug("Created {} of {} users in batch", accepted.size(), newUsers.size());
+    return results;
+  }
+
+  // checked with one set-based query per chunk
+  private Set<String> existingUsernames(List<String> usernames) {
+    Set<String> existing = new HashSet<>();
+    for (int from = 0; from < usernames.size(); from += UNIQUENESS_CHUNK_SIZE) {
+      existing.addAll(userRepository.findExistingUsernames(
+          usernames.subList(from, Math.min(from + UNIQUENESS_CHUNK_SIZE, usernames.size()))));
+    }
+    return existing;
+  }
+
+  private void persistBatch(List<User> batch) {
+    if (batch.isEmpty()) {
+      return;
+    }
+    userRepository.saveAll(batch);
+    userRepository.flush();
+    // the batch is written, keep the persistence context from growing
+    entityManager.clear();
+    for (User created : batch) {
+      publish(created, UserChangedEvent.Type.CREATED, created.getUsername());
+    }
+    batch.clear();
+  }
+
+  private void prepareNewUser(User newUser) {
+    // a signed token needs the ID, it is issued once the user is stored
+    newUser.setToken(tokenSigner.isEnabled() ? null : UUID.randomUUID().toString());
+    newUser.setStatus(UserStatus.ONLINE);
+    newUser.setCreationDate(new Date());
+  }
+
+  /**
+   * Signed tokens carry the user ID, so new users only get theirs after the
+   * insert; it is written behind, like the tokens handed out by logIn.
+   */
+  private void startSession(User user) {
+    if (tokenSigner.isEnabled()) {
+      user.setToken(tokenSigner.issue(user.getId()));
+      sessionExpiry.track(user.getId(), user.getUsername(), user.getToken());
+      presenceTracker.record(user.getId(), user.getStatus(), user.getToken());
+    } else {
+      sessionExpiry.track(user.getId(), user.getUsername(), user.getToken());
+      sessionRegistry.register(user.getToken(), user.getId(), user.getStatus());
+    }
+  }
+
   /**
    * This is a helper method that will check the uniqueness criteria of the
    * username and the name
    * defined in the User entity. The method will do nothing if the input is unique
-   * and throw an error otherwise.
+   * and throw an error otherwise. Names the filter has never seen are unique
+   * without asking the database; a concurrent registration of the same name
+   * still fails on the unique constraint.
    *
    * @param userToBeCreated
    * @throws ResponseStatusException
    * @see User
    */
   private void checkIfUserExists(User userToBeCreated) {
+      if (!usernameFilter.mightContain(userToBeCreated.getUsername())) {
+          return;
+      }
       //User userByUsername = userRepository.findByPassword(userToBeCreated.getPassword());
       User userByUsername = userRepository.findByUsername(userToBeCreated.getUsername());
 
@@ -73,73 +331,256 @@ public class UserService {
       }
   }
 
+  // the lookups run read-only, so overlaying the latest presence never writes
+
+  @Timed(TIMER)
+  @Transactional(readOnly = true)
   public User findByID(Long ID){
-      List<User> userList = getUsers();
-      for(User comp : userList){
-          if(comp.getId() == ID){
-              return comp;
-          }
+      if(ID == null){
+          return null;
       }
-      return null;
+      return presenceTracker.overlay(userRepository.findById(ID).orElse(null));
   }
+
+  /**
+   * The profile columns of a user, or null if there is none. Unlike findByID,
+   * this reads no password and loads no entity.
+   */
+  @Timed(TIMER)
+  @Transactional(readOnly = true)
+  public UserProfile getProfile(Long id) {
+      if (id == null) {
+          return null;
+      }
+      return presenceTracker.overlay(userRepository.findProfileById(id));
+  }
+
+    @Timed(TIMER)
+    @Transactional(readOnly = true)
     public User findByName(String name) {
-        List<User> userList = getUsers();
-        for (User comp : userList) {
-            if (comp.getUsername().equals(name)) {
-                return comp;
-            }
+        if (name == null) {
+            return null;
         }
-        return null;
+        return presenceTracker.overlay(userRepository.findByUsername(name));
     }
+
+    /**
+     * Runs outside a transaction, so that no connection is held while the
+     * password is verified (and possibly rehashed) on the hashing pool.
+     */
+    @Timed(TIMER)
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
     public User logIn(User logInUser){
        //TODO: Find user by Username in JPA repo. If not found Throw StatusResponseException. Check if password matches password on file. yes -> return User. no -> Throw ResponseStatusException
-        User found = findByName(logInUser.getUsername());
+        User found = userRepository.findByUsername(logInUser.getUsername());
         if(found == null){
+            metrics.loginUnknownUser();
             throw new ResponseStatusException(HttpStatus.FORBIDDEN, "User does not exist");
         }
-        if(found.getPassword().equals(logInUser.getPassword())){
+        if(passwordHasher.matches(logInUser.getPassword(), found.getPassword())){
             //set to online and assign auth token
+            revoke(presenceTracker.current(found).getToken());
+            // status and token are written behind, the caller gets a detached copy
+            entityManager.detach(found);
+            if(passwordHasher.needsRehash(found.getPassword())){
+                found.setPassword(passwordHasher.hash(logInUser.getPassword()));
+                userRepository.updatePassword(found.getId(), found.getPassword());
+            }
             found.setStatus(UserStatus.ONLINE);
-            found.setToken(UUID.randomUUID().toString());
+            found.setToken(tokenSigner.isEnabled() ? tokenSigner.issue(found.getId()) : UUID.randomUUID().toString());
+            sessionExpiry.track(found.getId(), found.getUsername(), found.getToken());
+            presenceTracker.record(found.getId(), found.getStatus(), found.getToken());
+            if(!tokenSigner.isEnabled()){
+                sessionRegistry.register(found.getToken(), found.getId(), found.getStatus());
+            }
+            publish(found, UserChangedEvent.Type.LOGGED_IN, found.getUsername());
+            metrics.loginSucceeded();
             return found;
         } else {
+            metrics.loginWrongPassword();
             throw new ResponseStatusException(HttpStatus.UNAUTHORIZED,"Wrong Password");
         }
     }
 
+    /**
+     * Applies a profile edit: a new username (unless null) and the birthday.
+     * The user row is only written if it is still at the version the edit
+     * read. If the caller sent a version (If-Match), the edit fails with 412
+     * when the user is at any other version. Otherwise, an edit that lost a
+     * race against another write is applied again on the new state. This is
+     * retried at most MAX_EDIT_ATTEMPTS times. If the other write changed one
+     * of the same fields to a different value, the edit fails with 409.
+     * Edits of the same user are written one at a time: H2 1.4 can let two
+     * versioned updates of one row both through when their row locks race,
+     * so the version check alone does not keep them apart.
+     */
+    @Timed(TIMER)
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
     public void editUser(User editUser){
-      User toEdit = findByID(editUser.getId());
+      // reject unknown tokens before going to the database
+      Long userId = authenticate(editUser.getToken());
+      if(userId == null || !userId.equals(editUser.getId())){
+          throw new ResponseStatusException(HttpStatus.UNAUTHORIZED, "Unauthorised Access");
+      }
+      // the state the edit is based on, taken by the first attempt
+      User base = new User();
+      ReentrantLock editLock = editLocks[Long.hashCode(userId) & (EDIT_LOCK_STRIPES - 1)];
+      for(int attempt = 1; ; attempt++){
+          try {
+              editLock.lock();
+              try {
+                  transactionTemplate.executeWithoutResult(status -> applyEdit(editUser, base));
+              } finally {
+                  editLock.unlock();
+              }
+              return;
+          } catch (OptimisticLockingFailureException e) {
+              if(editUser.getVersion() != null){
+                  throw new ResponseStatusException(HttpStatus.PRECONDITION_FAILED, "User was changed concurrently");
+              }
+              if(attempt == MAX_EDIT_ATTEMPTS){
+                  throw new ResponseStatusException(HttpStatus.CONFLICT, "User is being changed concurrently");
+              }
+              log.debug("Edit of user {} lost a race, attempt {}", editUser.getId(), attempt);
+          } catch (DataIntegrityViolationException e) {
+              // the name was taken between the uniqueness check and the write
+              throw new ResponseStatusException(HttpStatus.FORBIDDEN);
+          }
+      }
+    }
+
+    private void applyEdit(User editUser, User base) {
+      User toEdit = userRepository.findById(editUser.getId()).orElse(null);
       if(toEdit == null){
           throw new ResponseStatusException(HttpStatus.NOT_FOUND, String.format("user with ID %d was not found",editUser.getId()));
       }
-      if(!editUser.getToken().equals(toEdit.getToken())){ //yes putDTO hast token
-          throw new ResponseStatusException(HttpStatus.UNAUTHORIZED, "Unauthorised Access");
+      if(editUser.getVersion() != null && !editUser.getVersion().equals(toEdit.getVersion())){
+          throw new ResponseStatusException(HttpStatus.PRECONDITION_FAILED, "User was changed in the meantime");
       }
-      User preExisting = findByName(editUser.getUsername());
-      if(preExisting != null){
-          throw new ResponseStatusException(HttpStatus.FORBIDDEN);
+      if(base.getVersion() == null){
+          base.setUsername(toEdit.getUsername());
+          base.setBirthday(toEdit.getBirthday());
+          base.setVersion(toEdit.getVersion());
       }
-      toEdit.setUsername(editUser.getUsername());
-      toEdit.setBirthday(editUser.getBirthday());
-      return;
+      // only the fields the edit changes are written, the rest keeps what concurrent writes left
+      boolean renames = editUser.getUsername() != null && !editUser.getUsername().equals(base.getUsername());
+      boolean changesBirthday = !Objects.equals(millis(editUser.getBirthday()), millis(base.getBirthday()));
+      if((renames && overwritten(base.getUsername(), editUser.getUsername(), toEdit.getUsername()))
+          || (changesBirthday && overwritten(millis(base.getBirthday()), millis(editUser.getBirthday()),
+              millis(toEdit.getBirthday())))){
+          throw new ResponseStatusException(HttpStatus.CONFLICT, "User was changed concurrently");
+      }
+      String previousUsername = toEdit.getUsername();
+      if(renames && !editUser.getUsername().equals(toEdit.getUsername())){
+          User preExisting = usernameFilter.mightContain(editUser.getUsername())
+              ? userRepository.findByUsername(editUser.getUsername())
+              : null;
+          if(preExisting != null){
+              throw new ResponseStatusException(HttpStatus.FORBIDDEN);
+          }
+          toEdit.setUsername(editUser.getUsername());
+      }
+      if(changesBirthday){
+          toEdit.setBirthday(editUser.getBirthday());
+      }
+      publish(toEdit, UserChangedEvent.Type.UPDATED, previousUsername);
+    }
+
+    // a concurrent write changed the field since it was read, to something else than the edit wants
+    private static boolean overwritten(Object base, Object requested, Object current) {
+      return !Objects.equals(current, base) && !Objects.equals(current, requested);
+    }
+
+    // loaded dates are Timestamps, which never equal a Date
+    private static Long millis(Date date) {
+      return date != null ? date.getTime() : null;
     }
 
 //    public User viewUser(User toShow){
 //      return new User();
 //    }
 
+    @Timed(TIMER)
     public User logOutUser(User entity){
-      User toLogOut = findByID(entity.getId());
-      if(!entity.getToken().equals(toLogOut.getToken()) || toLogOut.getToken() == null){
+      Long userId = authenticate(entity.getToken());
+      if(userId == null || !userId.equals(entity.getId())){
           throw new ResponseStatusException(HttpStatus.UNAUTHORIZED, "Unauthorised Access");
       }
+      User toLogOut = userRepository.findById(entity.getId()).orElse(null);
+      if(toLogOut == null){
+          throw new ResponseStatusException(HttpStatus.NOT_FOUND, String.format("user with ID %d was not found",entity.getId()));
+      }
       //user might be offline already
-      if(toLogOut.getStatus().equals(UserStatus.OFFLINE)){
+      if(presenceTracker.current(toLogOut).getStatus() == UserStatus.OFFLINE){
           throw new ResponseStatusException(HttpStatus.FORBIDDEN, "User already logged out!");
       }
 //      final String invalidToken = "Invalid Token";
+      // written behind like logIn, the caller gets a detached copy
+      entityManager.detach(toLogOut);
       toLogOut.setStatus(UserStatus.OFFLINE);
       toLogOut.setToken(null);
+      sessionExpiry.untrack(toLogOut.getId());
+      presenceTracker.record(toLogOut.getId(), toLogOut.getStatus(), toLogOut.getToken());
+      revoke(entity.getToken());
+      publish(toLogOut, UserChangedEvent.Type.LOGGED_OUT, toLogOut.getUsername());
       return toLogOut;
     }
+
+    /**
+     * Logs out the users whose session has been idle for longer than
+     * sessions.idle-timeout-ms. Their OFFLINE status and cleared token are
+     * written behind, so a tick that expires many sessions ends in batched
+     * updates instead of one transaction per user.
+     */
+    @Scheduled(fixedDelayString = "${sessions.expiry-tick-ms:1000}")
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public void expireIdleSessions() {
+      int expired = sessionExpiry.expire(System.currentTimeMillis(), this::expireSession);
+      if(expired > 0){
+          log.debug("Logged out {} idle sessions", expired);
+      }
+    }
+
+    private void expireSession(SessionExpiry.Session session) {
+      presenceTracker.record(session.getUserId(), UserStatus.OFFLINE, null);
+      revoke(session.getToken());
+      eventPublisher.publishEvent(new UserChangedEvent(session.getUserId(), UserChangedEvent.Type.LOGGED_OUT,
+          session.getUsername(), session.getUsername(), UserStatus.OFFLINE));
+    }
+
+    /**
+     * Returns the ID of the user the token belongs to, or null, and counts as
+     * activity of that user. Signed tokens are checked by their signature and
+     * the denylist alone, random ones are looked up in the session registry.
+     */
+    private Long authenticate(String token) {
+      TokenSigner.Claims claims = tokenSigner.verify(token);
+      Long userId;
+      if(claims != null){
+          userId = tokenDenylist.isRevoked(claims) ? null : claims.getUserId();
+      } else {
+          SessionRegistry.Session session = sessionRegistry.authenticate(token);
+          userId = session != null ? session.getUserId() : null;
+      }
+      sessionExpiry.touch(userId);
+      return userId;
+    }
+
+    private void revoke(String token) {
+      TokenSigner.Claims claims = tokenSigner.verify(token);
+      if(claims != null){
+          tokenDenylist.revoke(claims);
+      } else {
+          sessionRegistry.remove(token);
+      }
+    }
+
+    /**
+     * Announces a change to listeners that keep derived state about users.
+     * Transactional listeners only run once the change has been committed.
+     */
+    private void publish(User user, UserChangedEvent.Type type, String previousUsername) {
+      eventPublisher.publishEvent(new UserChangedEvent(user.getId(), type, user.getUsername(),
+          previousUsername, user.getStatus()));
+    }
 }
@@ -0,0 +1,202 @@
+package ch.uzh.ifi.hase.soprafs24.service;
+
+import ch.uzh.ifi.hase.soprafs24.datasource.ReadYourWrites;
+import ch.uzh.ifi.hase.soprafs24.repository.UserRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * Username Bloom Filter
+ * This class remembers every username that has been taken, so that the
+ * uniqueness checks of registrations and renames only go to the database when
+ * the name might already exist.
+ * The filter is sized from the expected number of usernames and the accepted
+ * false-positive rate (capped by a memory limit) and filled from the USER
+ * table once the application is ready. Until then every name counts as a
+ * possible hit. Names are added as soon as a create or rename is announced;
+ * names given up by a rename stay in the filter and only cost an extra query.
+ * Bits are only ever set, so lookups and additions need no locking.
+ */
+@Component
+public class UsernameBloomFilter {
+
+  private final Logger log = LoggerFactory.getLogger(UsernameBloomFilter.class);
+
+  private static final int MAX_HASHES = 16;
+
+  private final UserRepository userRepository;
+
+  private final AtomicLongArray bits;
+
+  private final long bitCount;
+
+  private final int hashCount;
+
+  private final long expectedEntries;
+
+  private final AtomicLong added = new AtomicLong();
+
+  private final LongAdder negatives = new LongAdder();
+
+  private final LongAdder possibleHits = new LongAdder();
+
+  private volatile boolean ready;
+
+  public UsernameBloomFilter(@Qualifier("userRepository") UserRepository userRepository,
+      @Value("${users.username-filter.expected-entries:1000000}") long expectedEntries,
+      @Value("${users.username-filter.false-positive-rate:0.01}") double falsePositiveRate,
+      @Value("${users.username-filter.max-bytes:16777216}") long maxBytes) {
+    if (expectedEntries < 1 || falsePositiveRate <= 0 || falsePositiveRate >= 1 || maxBytes < 8) {
+      throw new IllegalArgumentException("Invalid username filter configuration");
+    }
+    this.userRepository = userRepository;
+    this.expectedEntries = expectedEntries;
+
+    // optimal size m = -n ln(p) / ln(2)^2, rounded up to whole words
+    double optimalBits = -expectedEntries * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2));
+    long maxWords = Math.min(maxBytes / Long.BYTES, Integer.MAX_VALUE);
+    int words = (int) Math.max(1, Math.min(maxWords, (long) Math.ceil(optimalBits / Long.SIZE)));
+    this.bits = new AtomicLongArray(words);
+    this.bitCount = (long) words * Long.SIZE;
+    // optimal number of hashes k = m/n ln(2) for the size we actually got
+    long hashes = Math.round((double) bitCount / expectedEntries * Math.log(2));
+    this.hashCount = (int) Math.max(1, Math.min(MAX_HASHES, hashes));
+    if (words == maxWords && optimalBits > bitCount) {
+      log.warn("Username filter capped at {} bytes, the false-positive rate will exceed {}",
+          getSizeInBytes(), falsePositiveRate);
+    }
+  }
+
+  /**
+   * Fills the filter with all stored usernames. Names added concurrently are
+   * kept, the filter only answers negatively once this has finished.
+   */
+  @EventListener(ApplicationReadyEvent.class)
+  @Transactional(readOnly = true)
+  public void load() {
+    // a lagging replica could miss names, and a missing name means a skipped uniqueness check
+    long count = ReadYourWrites.onPrimary(() -> {
+      long loaded = 0;
+      try (Stream<String> usernames = userRepository.streamAllUsernames()) {
+        for (String username : (Iterable<String>) usernames::iterator) {
+          add(username);
+          loaded++;
+        }
+      }
+      return loaded;
+    });
+    ready = true;
+    log.info("Loaded {} usernames into a {} byte filter with {} hashes", count, getSizeInBytes(), hashCount);
+  }
+
+  // unlike the caches, this runs before commit so a concurrent check sees the name as early as possible
+  @EventListener
+  public void onUserChanged(UserChangedEvent event) {
+    if (event.getType() == UserChangedEvent.Type.CREATED || event.getType() == UserChangedEvent.Type.UPDATED) {
+      add(event.getUsername());
+    }
+  }
+
+  public void add(String username) {
+    if (username == null) {
+      return;
+    }
+    long hash = hash(username);
+    long step = mix(hash + 0x9E3779B97F4A7C15L) | 1L;
+    for (int i = 0; i < hashCount; i++) {
+      long index = Math.floorMod(hash + i * step, bitCount);
+      long mask = 1L << index;
+      int word = (int) (index >>> 6);
+      if ((bits.get(word) & mask) == 0) {
+        bits.accumulateAndGet(word, mask, (current, bit) -> current | bit);
+      }
+    }
+    if (added.incrementAndGet() == expectedEntries + 1) {
+      log.warn("Username filter holds more than the expected {} names, its false-positive rate is rising",
+          expectedEntries);
+    }
+  }
+
+  /**
+   * Returns false only if the username has certainly never been taken. A
+   * true result means the database has to be asked.
+   */
+  public boolean mightContain(String username) {
+    if (!ready || username == null) {
+      return true;
+    }
+    long hash = hash(username);
+    long step = mix(hash + 0x9E3779B97F4A7C15L) | 1L;
+    for (int i = 0; i < hashCount; i++) {
+      long index = Math.floorMod(hash + i * step, bitCount);
+      if ((bits.get((int) (index >>> 6)) & (1L << index)) == 0) {
+        negatives.increment();
+        return false;
+      }
+    }
+    possibleHits.increment();
+    return true;
+  }
+
+  public boolean isReady() {
+    return ready;
+  }
+
+  public long getSizeInBytes() {
+    return bitCount / Byte.SIZE;
+  }
+
+  public int getHashCount() {
+    return hashCount;
+  }
+
+  public long getNegativeCount() {
+    return negatives.sum();
+  }
+
+  public long getPossibleHitCount() {
+    return possibleHits.sum();
+  }
+
+  /**
+   * Estimates the current false-positive rate from the share of set bits.
+   * Walks the whole bit array, so only call it when scraping metrics.
+   */
+  public double estimatedFalsePositiveRate() {
+    long set = 0;
+    for (int i = 0; i < bits.length(); i++) {
+      set += Long.bitCount(bits.get(i));
+    }
+    return Math.pow((double) set / bitCount, hashCount);
+  }
+
+  // FNV-1a over the UTF-16 code units, finished with the MurmurHash3 mixer
+  private static long hash(String value) {
+    long hash = 0xcbf29ce484222325L;
+    for (int i = 0; i < value.length(); i++) {
+      hash ^= value.charAt(i);
+      hash *= 0x100000001b3L;
+    }
+    return mix(hash);
+  }
+
+  private static long mix(long hash) {
+    hash ^= hash >>> 33;
+    hash *= 0xff51afd7ed558ccdL;
+    hash ^= hash >>> 33;
+    hash *= 0xc4ceb9fe1a85ec53L;
+    hash ^= hash >>> 33;
+    return hash;
+  }
+}
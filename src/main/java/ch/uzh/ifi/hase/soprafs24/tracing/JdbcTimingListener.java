@@ -0,0 +1,59 @@
+package ch.uzh.ifi.hase.soprafs24.tracing;
+
+import org.hibernate.BaseSessionEventListener;
+
+/**
+ * JDBC Timing Listener
+ * Hibernate creates one of these per session (hibernate.session.events.auto)
+ * and reports every statement preparation and execution to it. The time is
+ * added to the trace of the current request, if there is one.
+ */
+public class JdbcTimingListener extends BaseSessionEventListener {
+
+  private static final long serialVersionUID = 1L;
+
+  private long prepareStart;
+
+  private long executeStart;
+
+  private long batchStart;
+
+  @Override
+  public void jdbcPrepareStatementStart() {
+    prepareStart = System.nanoTime();
+  }
+
+  @Override
+  public void jdbcPrepareStatementEnd() {
+    RequestTrace trace = RequestTrace.current();
+    if (trace != null) {
+      trace.jdbcTime(System.nanoTime() - prepareStart);
+    }
+  }
+
+  @Override
+  public void jdbcExecuteStatementStart() {
+    executeStart = System.nanoTime();
+  }
+
+  @Override
+  public void jdbcExecuteStatementEnd() {
+    RequestTrace trace = RequestTrace.current();
+    if (trace != null) {
+      trace.statementExecuted(System.nanoTime() - executeStart);
+    }
+  }
+
+  @Override
+  public void jdbcExecuteBatchStart() {
+    batchStart = System.nanoTime();
+  }
+
+  @Override
+  public void jdbcExecuteBatchEnd() {
+    RequestTrace trace = RequestTrace.current();
+    if (trace != null) {
+      trace.statementExecuted(System.nanoTime() - batchStart);
+    }
+  }
+}
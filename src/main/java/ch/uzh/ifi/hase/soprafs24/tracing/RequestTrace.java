@@ -0,0 +1,114 @@
+package ch.uzh.ifi.hase.soprafs24.tracing;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Request Trace
+ * This class collects where the time of one request went: the SQL statements
+ * and their JDBC time, DTO mapping and JSON serialization. The trace is bound
+ * to the thread that serves the request, so the recording points only need a
+ * thread-local lookup and do nothing when no request is traced.
+ * Exposed traces are sent back in a Server-Timing header; the others are only
+ * measured, so that slow requests can still be logged with their breakdown.
+ */
+public final class RequestTrace {
+
+  public static final String SERVER_TIMING_HEADER = "Server-Timing";
+
+  private static final ThreadLocal<RequestTrace> CURRENT = new ThreadLocal<>();
+
+  private final long startNanos = System.nanoTime();
+
+  private final boolean exposed;
+
+  private int statements;
+
+  private long jdbcNanos;
+
+  private long mappingNanos;
+
+  private long mappingStartNanos = -1;
+
+  private long serializationNanos;
+
+  private RequestTrace(boolean exposed) {
+    this.exposed = exposed;
+  }
+
+  static RequestTrace start(boolean exposed) {
+    RequestTrace trace = new RequestTrace(exposed);
+    CURRENT.set(trace);
+    return trace;
+  }
+
+  static void finish() {
+    CURRENT.remove();
+  }
+
+  /**
+   * Returns the trace of the request served by this thread, or null.
+   */
+  public static RequestTrace current() {
+    return CURRENT.get();
+  }
+
+  public boolean isExposed() {
+    return exposed;
+  }
+
+  void statementExecuted(long nanos) {
+    statements++;
+    jdbcNanos += nanos;
+  }
+
+  void jdbcTime(long nanos) {
+    jdbcNanos += nanos;
+  }
+
+  public void mappingStarted() {
+    mappingStartNanos = System.nanoTime();
+  }
+
+  /**
+   * Ends the mapping started last. A mapping that returned early (null input)
+   * never ends; its start is simply overwritten by the next one.
+   */
+  public void mappingFinished() {
+    if (mappingStartNanos >= 0) {
+      mappingNanos += System.nanoTime() - mappingStartNanos;
+      mappingStartNanos = -1;
+    }
+  }
+
+  void serialized(long nanos) {
+    serializationNanos += nanos;
+  }
+
+  public int getStatements() {
+    return statements;
+  }
+
+  long elapsedNanos() {
+    return System.nanoTime() - startNanos;
+  }
+
+  /**
+   * Formats the trace as a Server-Timing value, durations in milliseconds.
+   */
+  public String toServerTiming() {
+    // header values always use a dot as decimal separator
+    return String.format(Locale.ROOT, "db;dur=%.2f;desc=\"%d statements\", mapping;dur=%.2f, serialization;dur=%.2f, app;dur=%.2f",
+        millis(jdbcNanos), statements, millis(mappingNanos), millis(serializationNanos), millis(elapsedNanos()));
+  }
+
+  @Override
+  public String toString() {
+    return String.format(Locale.ROOT, "%d statements, jdbc %.2f ms, mapping %.2f ms, serialization %.2f ms", statements,
+        millis(jdbcNanos), millis(mappingNanos), millis(serializationNanos));
+  }
+
+  private static double millis(long nanos) {
+    return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+  }
+}
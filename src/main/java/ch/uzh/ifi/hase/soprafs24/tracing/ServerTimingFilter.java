@@ -0,0 +1,55 @@
+package ch.uzh.ifi.hase.soprafs24.tracing;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Server Timing Filter
+ * This filter traces every request it sees. A sampled share of the requests
+ * gets the breakdown in a Server-Timing header: responses with a JSON body
+ * get it from TracingJackson2HttpMessageConverter, responses without a body
+ * get it here once the handler is done. Requests slower than the threshold
+ * are logged with their breakdown, sampled or not.
+ */
+public class ServerTimingFilter extends OncePerRequestFilter {
+
+  private final Logger log = LoggerFactory.getLogger(ServerTimingFilter.class);
+
+  private final double sampleRate;
+
+  private final long slowRequestNanos;
+
+  public ServerTimingFilter(double sampleRate, long slowRequestMillis) {
+    this.sampleRate = sampleRate;
+    this.slowRequestNanos = TimeUnit.MILLISECONDS.toNanos(slowRequestMillis);
+  }
+
+  @Override
+  protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+      throws ServletException, IOException {
+    boolean exposed = sampleRate >= 1.0 || ThreadLocalRandom.current().nextDouble() < sampleRate;
+    RequestTrace trace = RequestTrace.start(exposed);
+    try {
+      filterChain.doFilter(request, response);
+    } finally {
+      RequestTrace.finish();
+      if (exposed && !response.isCommitted() && !response.containsHeader(RequestTrace.SERVER_TIMING_HEADER)) {
+        response.setHeader(RequestTrace.SERVER_TIMING_HEADER, trace.toServerTiming());
+      }
+      long elapsed = trace.elapsedNanos();
+      if (elapsed >= slowRequestNanos) {
+        log.warn("Slow request {} {} -> {} took {} ms: {}", request.getMethod(), request.getRequestURI(),
+            response.getStatus(), TimeUnit.NANOSECONDS.toMillis(elapsed), trace);
+      }
+    }
+  }
+}
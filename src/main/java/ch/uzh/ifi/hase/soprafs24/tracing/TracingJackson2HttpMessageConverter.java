@@ -0,0 +1,57 @@
+package ch.uzh.ifi.hase.soprafs24.tracing;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.converter.HttpMessageNotWritableException;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Type;
+
+/**
+ * Tracing Jackson Converter
+ * Measures JSON serialization for traced requests. For exposed traces the
+ * body is serialized into a buffer first, because the Server-Timing header
+ * has to be set before the first byte of the body is written. Untraced
+ * requests are written exactly as by the default converter.
+ */
+public class TracingJackson2HttpMessageConverter extends MappingJackson2HttpMessageConverter {
+
+  public TracingJackson2HttpMessageConverter(ObjectMapper objectMapper) {
+    super(objectMapper);
+  }
+
+  @Override
+  protected void writeInternal(Object object, Type type, HttpOutputMessage outputMessage)
+      throws IOException, HttpMessageNotWritableException {
+    RequestTrace trace = RequestTrace.current();
+    if (trace == null) {
+      super.writeInternal(object, type, outputMessage);
+      return;
+    }
+    long start = System.nanoTime();
+    if (!trace.isExposed()) {
+      super.writeInternal(object, type, outputMessage);
+      trace.serialized(System.nanoTime() - start);
+      return;
+    }
+    ByteArrayOutputStream buffer = new ByteArrayOutputStream(1024);
+    super.writeInternal(object, type, new HttpOutputMessage() {
+      @Override
+      public OutputStream getBody() {
+        return buffer;
+      }
+
+      @Override
+      public HttpHeaders getHeaders() {
+        return outputMessage.getHeaders();
+      }
+    });
+    trace.serialized(System.nanoTime() - start);
+    outputMessage.getHeaders().set(RequestTrace.SERVER_TIMING_HEADER, trace.toServerTiming());
+    buffer.writeTo(outputMessage.getBody());
+  }
+}
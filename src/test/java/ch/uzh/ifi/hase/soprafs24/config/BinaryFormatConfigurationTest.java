@@ -0,0 +1,36 @@
+package ch.uzh.ifi.hase.soprafs24.config;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BinaryFormatConfigurationTest {
+
+  private final BinaryFormatConfiguration configuration = new BinaryFormatConfiguration();
+
+  // stands in for a builder that spring.jackson properties were applied to
+  private static Jackson2ObjectMapperBuilder configuredBuilder() {
+    return Jackson2ObjectMapperBuilder.json().featuresToEnable(SerializationFeature.WRITE_ENUMS_USING_INDEX);
+  }
+
+  @Test
+  public void cborConverter_keepsBuilderSettings() {
+    ObjectMapper mapper = configuration.cborHttpMessageConverter(configuredBuilder()).getObjectMapper();
+
+    assertTrue(mapper.getFactory() instanceof CBORFactory);
+    assertTrue(mapper.isEnabled(SerializationFeature.WRITE_ENUMS_USING_INDEX));
+  }
+
+  @Test
+  public void smileConverter_keepsBuilderSettings() {
+    ObjectMapper mapper = configuration.smileHttpMessageConverter(configuredBuilder()).getObjectMapper();
+
+    assertTrue(mapper.getFactory() instanceof SmileFactory);
+    assertTrue(mapper.isEnabled(SerializationFeature.WRITE_ENUMS_USING_INDEX));
+  }
+}
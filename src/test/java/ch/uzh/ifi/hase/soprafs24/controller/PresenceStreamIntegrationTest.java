@@ -0,0 +1,113 @@
+package ch.uzh.ifi.hase.soprafs24.controller;
+
+import ch.uzh.ifi.hase.soprafs24.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs24.rest.dto.PresenceDTO;
+import ch.uzh.ifi.hase.soprafs24.service.PresenceBroadcaster;
+import ch.uzh.ifi.hase.soprafs24.service.PresenceTracker;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.web.server.LocalServerPort;
+
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Runs the presence stream on the embedded Tomcat with a client that stops
+ * reading, so that a send really blocks in a socket write.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+    "presence.flush-interval-ms=100",
+    "presence.stream.dispatch-threads=1",
+    "presence.stream.send-timeout-ms=200",
+    "server.tomcat.connection-timeout=3s"
+})
+public class PresenceStreamIntegrationTest {
+
+  @LocalServerPort
+  private int port;
+
+  @Autowired
+  private PresenceBroadcaster broadcaster;
+
+  @Autowired
+  private PresenceTracker presenceTracker;
+
+  @Test
+  public void clientThatStopsReading_blocksNeitherSchedulerNorOtherSubscribers() throws Exception {
+    Map<Long, UserStatus> received = new ConcurrentHashMap<>();
+    broadcaster.subscribe(new PresenceBroadcaster.PresenceSink() {
+      @Override
+      public void send(List<PresenceDTO> updates) {
+        for (PresenceDTO update : updates) {
+          received.put(update.getId(), update.getStatus());
+        }
+      }
+
+      @Override
+      public void sendResync() {
+      }
+
+      @Override
+      public void sendHeartbeat() {
+      }
+
+      @Override
+      public void close() {
+      }
+    });
+
+    try (Socket client = new Socket()) {
+      client.setReceiveBufferSize(4096);
+      client.connect(new InetSocketAddress("localhost", port));
+      client.getOutputStream().write(("GET /users/presence/stream HTTP/1.1\r\nHost: localhost\r\n"
+          + "Accept: text/event-stream\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+      InputStream in = client.getInputStream();
+      assertTrue(in.read(new byte[256]) > 0);
+      assertEquals(2, broadcaster.getSubscriberCount());
+
+      // fill the socket buffers until the send blocks and the subscriber is dropped
+      String username = "x".repeat(2000);
+      long deadline = System.currentTimeMillis() + 20000;
+      for (int round = 0; broadcaster.getSubscriberCount() > 1 && System.currentTimeMillis() < deadline; round++) {
+        for (long userId = 0; userId < 256; userId++) {
+          broadcaster.publish(new PresenceDTO(userId, username, round % 2 == 0 ? UserStatus.ONLINE : UserStatus.OFFLINE));
+        }
+        Thread.sleep(5);
+      }
+      assertEquals(1, broadcaster.getSubscriberCount());
+
+      // the write is still blocked: Tomcat ignores the interrupt until its write timeout expires
+      long stuckSince = System.currentTimeMillis();
+      broadcaster.publish(new PresenceDTO(-1L, "marker", UserStatus.ONLINE));
+      presenceTracker.record(-1L, UserStatus.ONLINE, null);
+      while ((received.get(-1L) == null || presenceTracker.pendingCount() > 0)
+          && System.currentTimeMillis() - stuckSince < 2000) {
+        Thread.sleep(10);
+      }
+      // both well before the write timeout: the other subscriber was served and the scheduler kept flushing
+      assertEquals(UserStatus.ONLINE, received.get(-1L));
+      assertEquals(0, presenceTracker.pendingCount());
+
+      // the connector's write timeout ends the blocked write and closes the connection
+      client.setSoTimeout(10000);
+      byte[] chunk = new byte[65536];
+      try {
+        while (in.read(chunk) >= 0) {
+          // what was written before the write gave up
+        }
+      } catch (SocketException reset) {
+        // closed with data still unread
+      }
+      assertTrue(System.currentTimeMillis() - stuckSince < 10000);
+    }
+  }
+}
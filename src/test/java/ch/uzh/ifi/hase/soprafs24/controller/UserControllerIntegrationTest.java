@@ -0,0 +1,160 @@
+package ch.uzh.ifi.hase.soprafs24.controller;
+
+import ch.uzh.ifi.hase.soprafs24.repository.UserRepository;
+import ch.uzh.ifi.hase.soprafs24.service.UserProfileCache;
+import ch.uzh.ifi.hase.soprafs24.statistics.QueryCountExtension;
+import ch.uzh.ifi.hase.soprafs24.statistics.QueryCounter;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Runs the user endpoints against the real database and keeps the number of
+ * statements and loaded rows of every request within a budget.
+ */
+@SpringBootTest(properties = {
+    "presence.flush-interval-ms=3600000",
+    "passwords.bcrypt-strength=4"
+})
+@AutoConfigureMockMvc
+@ExtendWith(QueryCountExtension.class)
+public class UserControllerIntegrationTest {
+
+  @Autowired
+  private MockMvc mockMvc;
+
+  @Qualifier("userRepository")
+  @Autowired
+  private UserRepository userRepository;
+
+  @Autowired
+  private UserProfileCache profileCache;
+
+  private final ObjectMapper objectMapper = new ObjectMapper();
+
+  @BeforeEach
+  public void setup() {
+    userRepository.deleteAll();
+    profileCache.clear();
+  }
+
+  @Test
+  public void userEndpoints_stayWithinQueryBudgets(QueryCounter queries) throws Exception {
+    // 200 users: one uniqueness query, then per 50 users one sequence call and one insert batch
+    ArrayNode batch = objectMapper.createArrayNode();
+    for (int i = 0; i < 200; i++) {
+      batch.addObject().put("username", "endpoint" + i).put("password", "password");
+    }
+    queries.measure("POST /users/batch", () -> mockMvc.perform(json(post("/users/batch"), batch))
+        .andExpect(status().isOk()))
+        .assertStatementsAtMost(10)
+        .assertEntityLoadsAtMost(0)
+        .assertNoNPlusOne();
+
+    JsonNode[] body = new JsonNode[1];
+    queries.measure("POST /users", () -> body[0] = read(mockMvc.perform(json(post("/users"),
+        objectMapper.createObjectNode().put("username", "budget").put("password", "password")))
+        .andExpect(status().isCreated()).andReturn()))
+        .assertStatementsAtMost(3)
+        .assertEntityLoadsAtMost(0)
+        .assertNoNPlusOne();
+    long id = body[0].get("id").asLong();
+
+    queries.measure("POST /login", () -> body[0] = read(mockMvc.perform(json(post("/login"),
+        objectMapper.createObjectNode().put("username", "budget").put("password", "password")))
+        .andExpect(status().isOk()).andReturn()))
+        .assertStatementsAtMost(1)
+        .assertEntityLoadsAtMost(1)
+        .assertNoNPlusOne();
+    String token = body[0].get("token").asText();
+
+    String[] eTag = new String[1];
+    queries.measure("GET /users/{userId}", () -> eTag[0] = mockMvc.perform(get("/users/" + id))
+        .andExpect(status().isOk()).andReturn().getResponse().getHeader(HttpHeaders.ETAG))
+        .assertStatementsAtMost(1)
+        .assertEntityLoadsAtMost(1);
+    queries.measure("GET /users/{userId} cached", () -> mockMvc.perform(get("/users/" + id)
+        .header(HttpHeaders.IF_NONE_MATCH, eTag[0]))
+        .andExpect(status().isNotModified()))
+        .assertStatementsAtMost(0);
+
+    queries.measure("GET /users", () -> eTag[0] = mockMvc.perform(get("/users").param("limit", "50"))
+        .andExpect(status().isOk()).andReturn().getResponse().getHeader(HttpHeaders.ETAG))
+        .assertStatementsAtMost(1)
+        .assertEntityLoadsAtMost(51)
+        .assertNoNPlusOne();
+    queries.measure("GET /users not modified", () -> mockMvc.perform(get("/users").param("limit", "50")
+        .header(HttpHeaders.IF_NONE_MATCH, eTag[0]))
+        .andExpect(status().isNotModified()))
+        .assertStatementsAtMost(0);
+    queries.measure("GET /users cached", () -> mockMvc.perform(get("/users").param("limit", "50"))
+        .andExpect(status().isOk()))
+        .assertStatementsAtMost(0);
+
+    queries.measure("PUT /users/{userId}", () -> mockMvc.perform(json(put("/users/" + id),
+        objectMapper.createObjectNode().put("id", id).put("token", token).put("username", "budgetRenamed")))
+        .andExpect(status().isNoContent()))
+        .assertStatementsAtMost(3)
+        .assertEntityLoadsAtMost(1)
+        .assertNoNPlusOne();
+
+    queries.measure("PUT /logout", () -> mockMvc.perform(json(put("/logout"),
+        objectMapper.createObjectNode().put("id", id).put("token", token)))
+        .andExpect(status().isNoContent()))
+        .assertStatementsAtMost(1)
+        .assertEntityLoadsAtMost(1)
+        .assertNoNPlusOne();
+
+    // the export reads every row, but with a single statement
+    queries.measure("GET /users/export", () -> mockMvc.perform(get("/users/export"))
+        .andExpect(status().isOk()))
+        .assertStatementsAtMost(1)
+        .assertEntityLoadsAtMost(201)
+        .assertNoNPlusOne();
+  }
+
+  @Test
+  public void registrationAndExport_neverExposePasswordHash() throws Exception {
+    String registered = mockMvc.perform(json(post("/users"),
+        objectMapper.createObjectNode().put("username", "hashed").put("password", "password")))
+        .andExpect(status().isCreated()).andReturn().getResponse().getContentAsString();
+    String exported = mockMvc.perform(get("/users/export"))
+        .andExpect(status().isOk()).andReturn().getResponse().getContentAsString();
+
+    String hash = userRepository.findByUsername("hashed").getPassword();
+    for (String body : new String[] { registered, exported }) {
+      assertFalse(body.contains(hash), body);
+      // the export is a single line here, as only one user exists
+      assertTrue(objectMapper.readTree(body).path("password").isNull()
+          || objectMapper.readTree(body).path("password").isMissingNode(), body);
+    }
+  }
+
+  private MockHttpServletRequestBuilder json(MockHttpServletRequestBuilder request, JsonNode content)
+      throws Exception {
+    return request.contentType(MediaType.APPLICATION_JSON).content(objectMapper.writeValueAsString(content));
+  }
+
+  private JsonNode read(MvcResult result) throws Exception {
+    return objectMapper.readTree(result.getResponse().getContentAsString());
+  }
+}
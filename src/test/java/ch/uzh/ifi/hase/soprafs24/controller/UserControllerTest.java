@@ -1,28 +1,46 @@
 package ch.uzh.ifi.hase.soprafs24.controller;
 
+import ch.uzh.ifi.hase.soprafs24.config.BinaryFormatConfiguration;
 import ch.uzh.ifi.hase.soprafs24.constant.UserStatus;
 import ch.uzh.ifi.hase.soprafs24.entity.User;
+import ch.uzh.ifi.hase.soprafs24.exceptions.ServiceBusyException;
+import ch.uzh.ifi.hase.soprafs24.repository.UserSummary;
+import ch.uzh.ifi.hase.soprafs24.rest.dto.UserGetDTO;
 import ch.uzh.ifi.hase.soprafs24.rest.dto.UserPostDTO;
 import ch.uzh.ifi.hase.soprafs24.rest.dto.UserPutDTO;
+import ch.uzh.ifi.hase.soprafs24.service.UserDirectoryVersion;
+import ch.uzh.ifi.hase.soprafs24.service.UserListCache;
+import ch.uzh.ifi.hase.soprafs24.service.UserProfileCache;
 import ch.uzh.ifi.hase.soprafs24.service.UserService;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mockito;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.SliceImpl;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
 import org.springframework.web.server.ResponseStatusException;
 
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.UUID;
+import java.util.zip.GZIPInputStream;
 
+import static org.hamcrest.Matchers.hasItem;
 import static org.hamcrest.Matchers.hasSize;
 import static org.hamcrest.Matchers.is;
 import static org.junit.jupiter.api.Assertions.assertEquals;
@@ -31,6 +49,8 @@ import static org.mockito.BDDMockito.given;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
@@ -41,6 +61,7 @@ import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.
  * This tests if the UserController works.
  */
 @WebMvcTest(UserController.class)
+@Import({ BinaryFormatConfiguration.class, UserListCache.class })
 public class UserControllerTest {
 
   @Autowired
@@ -49,22 +70,26 @@ public class UserControllerTest {
   @MockBean
   private UserService userService;
 
+  @MockBean
+  private UserProfileCache userProfileCache;
+
+  @MockBean
+  private UserDirectoryVersion userDirectoryVersion;
+
   private UserController userController;
 
   @Test
   //test getallusers
   public void givenUsers_whenGetUsers_thenReturnJsonArray() throws Exception {
     // given
-    User user = new User();
-    user.setUsername("Firstname Lastname");
-    user.setPassword("firstname@lastname");
-    user.setStatus(UserStatus.OFFLINE);
+    UserSummary user = new UserSummary(1L, "Firstname Lastname", UserStatus.OFFLINE);
 
-    List<User> allUsers = Collections.singletonList(user);
+    List<UserSummary> allUsers = Collections.singletonList(user);
 
     // this mocks the UserService -> we define above what the userService should
     // return when getUsers() is called
-    given(userService.getUsers()).willReturn(allUsers);
+    given(userService.getUsers(Mockito.any(), Mockito.anyInt(), Mockito.any(), Mockito.any()))
+        .willReturn(new SliceImpl<>(allUsers));
 
     // when
     MockHttpServletRequestBuilder getRequest = get("/users").contentType(MediaType.APPLICATION_JSON);
@@ -73,10 +98,158 @@ public class UserControllerTest {
     mockMvc.perform(getRequest).andExpect(status().isOk())
         .andExpect(jsonPath("$", hasSize(1)))
         .andExpect(jsonPath("$[0].name", is(user.getUsername())))
-        .andExpect(jsonPath("$[0].username", is(user.getPassword())))
+        .andExpect(jsonPath("$[0].username", is(user.getUsername())))
         .andExpect(jsonPath("$[0].status", is(user.getStatus().toString())));
   }
 
+  @Test
+  public void givenMoreUsers_whenGetUsersPage_thenReturnNextCursor() throws Exception {
+    // given
+    UserSummary first = new UserSummary(1L, "first", UserStatus.ONLINE);
+    UserSummary second = new UserSummary(2L, "second", UserStatus.ONLINE);
+
+    given(userService.getUsers(Mockito.eq(0L), Mockito.eq(2), Mockito.eq(UserStatus.ONLINE), Mockito.isNull()))
+        .willReturn(new SliceImpl<>(List.of(first, second), PageRequest.of(0, 2), true));
+
+    // when
+    MockHttpServletRequestBuilder getRequest = get("/users?after=0&limit=2&status=ONLINE")
+        .contentType(MediaType.APPLICATION_JSON);
+
+    // then
+    mockMvc.perform(getRequest).andExpect(status().isOk())
+        .andExpect(jsonPath("$", hasSize(2)))
+        .andExpect(header().string("X-Next-Cursor", "2"));
+  }
+
+  @Test
+  public void givenUnchangedUsers_whenGetUsersWithETag_thenNotModified() throws Exception {
+    // given -> the client holds the current version of the user list
+    given(userDirectoryVersion.current()).willReturn(7L);
+    given(userDirectoryVersion.eTagOf(Mockito.eq(7L), Mockito.anyString())).willReturn("W/\"abc-7\"");
+
+    // when
+    MockHttpServletRequestBuilder getRequest = get("/users")
+        .header(HttpHeaders.IF_NONE_MATCH, "W/\"abc-7\"");
+
+    // then -> no user is loaded at all
+    mockMvc.perform(getRequest).andExpect(status().isNotModified())
+        .andExpect(header().string(HttpHeaders.ETAG, "W/\"abc-7\""));
+    Mockito.verifyNoInteractions(userService);
+  }
+
+  @Test
+  public void givenUnchangedUsers_whenGetUsersAgain_thenServedFromCache() throws Exception {
+    // given -> a page large enough to be stored compressed as well
+    given(userDirectoryVersion.current()).willReturn(3L);
+    given(userDirectoryVersion.eTagOf(Mockito.eq(3L), Mockito.anyString())).willReturn("W/\"abc-3\"");
+    List<UserSummary> users = new ArrayList<>();
+    for (long id = 1; id <= 50; id++) {
+      users.add(new UserSummary(id, "cached" + id, UserStatus.OFFLINE));
+    }
+    given(userService.getUsers(Mockito.any(), Mockito.anyInt(), Mockito.any(), Mockito.any()))
+        .willReturn(new SliceImpl<>(users));
+
+    // when
+    mockMvc.perform(get("/users"))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$", hasSize(50)));
+    MvcResult result = mockMvc.perform(get("/users").header(HttpHeaders.ACCEPT_ENCODING, "gzip, deflate"))
+        .andExpect(status().isOk())
+        .andExpect(header().string(HttpHeaders.CONTENT_ENCODING, "gzip"))
+        .andExpect(header().string(HttpHeaders.ETAG, "W/\"abc-3\""))
+        .andReturn();
+
+    // then -> the second request loaded nothing and got the same page
+    Mockito.verify(userService, Mockito.times(1))
+        .getUsers(Mockito.any(), Mockito.anyInt(), Mockito.any(), Mockito.any());
+    try (GZIPInputStream body = new GZIPInputStream(
+        new ByteArrayInputStream(result.getResponse().getContentAsByteArray()))) {
+      assertEquals(50, new ObjectMapper().readTree(body).size());
+    }
+  }
+
+  @Test
+  public void givenUsers_whenGetUsersAsCbor_thenReturnCbor() throws Exception {
+    // given
+    UserSummary user = new UserSummary(1L, "cbor", UserStatus.ONLINE);
+    given(userService.getUsers(Mockito.any(), Mockito.anyInt(), Mockito.any(), Mockito.any()))
+        .willReturn(new SliceImpl<>(List.of(user)));
+
+    // when
+    MvcResult result = mockMvc.perform(get("/users").accept(MediaType.APPLICATION_CBOR))
+        .andExpect(status().isOk())
+        .andExpect(content().contentType(MediaType.APPLICATION_CBOR))
+        .andExpect(header().stringValues(HttpHeaders.VARY, hasItem(HttpHeaders.ACCEPT)))
+        .andReturn();
+
+    // then
+    UserGetDTO[] users = new ObjectMapper(new CBORFactory())
+        .readValue(result.getResponse().getContentAsByteArray(), UserGetDTO[].class);
+    assertEquals(1, users.length);
+    assertEquals("cbor", users[0].getUsername());
+    assertEquals(UserStatus.ONLINE, users[0].getStatus());
+  }
+
+  @Test
+  public void givenUsers_whenGetUsersWithoutPreference_thenReturnJson() throws Exception {
+    given(userService.getUsers(Mockito.any(), Mockito.anyInt(), Mockito.any(), Mockito.any()))
+        .willReturn(new SliceImpl<>(List.of(new UserSummary(1L, "json", UserStatus.ONLINE))));
+
+    mockMvc.perform(get("/users").accept(MediaType.ALL))
+        .andExpect(status().isOk())
+        .andExpect(content().contentType(MediaType.APPLICATION_JSON))
+        .andExpect(jsonPath("$[0].username", is("json")));
+  }
+
+  @Test
+  public void createUser_smileBody_smileResponse() throws Exception {
+    // given
+    User user = new User();
+    user.setId(1L);
+    user.setUsername("smile");
+    user.setStatus(UserStatus.ONLINE);
+    given(userService.createUser(Mockito.any())).willReturn(user);
+
+    UserPostDTO userPostDTO = new UserPostDTO();
+    userPostDTO.setUsername("smile");
+    userPostDTO.setPassword("password");
+    ObjectMapper smileMapper = new ObjectMapper(new SmileFactory());
+    MediaType smile = new MediaType("application", "x-jackson-smile");
+
+    // when
+    MvcResult result = mockMvc.perform(post("/users")
+            .contentType(smile)
+            .accept(smile)
+            .content(smileMapper.writeValueAsBytes(userPostDTO)))
+        .andExpect(status().isCreated())
+        .andExpect(content().contentType(smile))
+        .andReturn();
+
+    // then
+    UserGetDTO created = smileMapper.readValue(result.getResponse().getContentAsByteArray(), UserGetDTO.class);
+    assertEquals(1L, created.getId());
+    assertEquals("smile", created.getUsername());
+  }
+
+  @Test
+  public void login_passwordQueueFull_serviceUnavailableWithRetryAfter() throws Exception {
+    // given -> the password hashing pool sheds the request
+    given(userService.logIn(Mockito.any())).willThrow(new ServiceBusyException("busy", 2));
+
+    UserPostDTO userPostDTO = new UserPostDTO();
+    userPostDTO.setUsername("testUsername");
+    userPostDTO.setPassword("password");
+
+    // when
+    MockHttpServletRequestBuilder postRequest = post("/login")
+        .contentType(MediaType.APPLICATION_JSON)
+        .content(asJsonString(userPostDTO));
+
+    // then
+    mockMvc.perform(postRequest).andExpect(status().isServiceUnavailable())
+        .andExpect(header().string(HttpHeaders.RETRY_AFTER, "2"));
+  }
+
   @Test
   //testcreateUser
   public void createUser_validInput_userCreated() throws Exception {
@@ -178,7 +351,7 @@ public class UserControllerTest {
     }
 
     public void test_unknown_user_to_return() throws Exception{
-        ResponseStatusException exception = assertThrows(ResponseStatusException.class, () -> userController.getUserProfile(6L));
+        ResponseStatusException exception = assertThrows(ResponseStatusException.class, () -> userController.getUserProfile(6L, null));
 
 // check that an error is thrown
         assertEquals(HttpStatus.NOT_FOUND, exception.getStatus());
@@ -187,6 +360,35 @@ public class UserControllerTest {
 
 
 
+  @Test
+  public void givenProfileETag_whenPutUserWithIfMatch_thenVersionPassedOn() throws Exception {
+    UserPutDTO userPutDTO = new UserPutDTO();
+    userPutDTO.setUsername("renamed");
+    userPutDTO.setToken("token");
+
+    MockHttpServletRequestBuilder putRequest = put("/users/3")
+        .contentType(MediaType.APPLICATION_JSON)
+        .header(HttpHeaders.IF_MATCH, "W/\"3-12-5a1f\"")
+        .content(asJsonString(userPutDTO));
+
+    mockMvc.perform(putRequest).andExpect(status().isNoContent());
+    Mockito.verify(userService).editUser(Mockito.argThat(user -> user.getId() == 3L && user.getVersion() == 12L));
+  }
+
+  @Test
+  public void givenETagOfOtherUser_whenPutUserWithIfMatch_thenPreconditionFailed() throws Exception {
+    UserPutDTO userPutDTO = new UserPutDTO();
+    userPutDTO.setUsername("renamed");
+
+    MockHttpServletRequestBuilder putRequest = put("/users/3")
+        .contentType(MediaType.APPLICATION_JSON)
+        .header(HttpHeaders.IF_MATCH, "W/\"4-12-5a1f\"")
+        .content(asJsonString(userPutDTO));
+
+    mockMvc.perform(putRequest).andExpect(status().isPreconditionFailed());
+    Mockito.verifyNoInteractions(userService);
+  }
+
   /**
    * Helper Method to convert userPostDTO into a JSON string such that the input
    * can be processed
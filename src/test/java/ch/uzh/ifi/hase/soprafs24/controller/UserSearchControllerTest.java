@@ -0,0 +1,77 @@
+package ch.uzh.ifi.hase.soprafs24.controller;
+
+import ch.uzh.ifi.hase.soprafs24.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs24.entity.User;
+import ch.uzh.ifi.hase.soprafs24.service.UserSearchIndex;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.http.HttpHeaders;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.BDDMockito.given;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@WebMvcTest(UserSearchController.class)
+public class UserSearchControllerTest {
+
+  @Autowired
+  private MockMvc mockMvc;
+
+  @MockBean
+  private UserSearchIndex userSearchIndex;
+
+  @Test
+  public void search_secondPage_returnsSliceAndNextLink() throws Exception {
+    // given -> five ranked matches, the index is asked for one beyond the page
+    given(userSearchIndex.search("pla", 5)).willReturn(matches(5));
+
+    // when/then
+    mockMvc.perform(get("/users/search?q=pla&offset=2&limit=2"))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$", hasSize(2)))
+        .andExpect(jsonPath("$[0].username", is("player2")))
+        .andExpect(jsonPath("$[1].username", is("player3")))
+        .andExpect(header().string("X-Next-Cursor", "4"))
+        .andExpect(header().string(HttpHeaders.LINK, containsString("offset=4")));
+  }
+
+  @Test
+  public void search_lastPage_noNextLink() throws Exception {
+    given(userSearchIndex.search("pla", 5)).willReturn(matches(3));
+
+    mockMvc.perform(get("/users/search?q=pla&offset=2&limit=2"))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$", hasSize(1)))
+        .andExpect(header().doesNotExist(HttpHeaders.LINK));
+  }
+
+  @Test
+  public void search_blankQuery_badRequest() throws Exception {
+    mockMvc.perform(get("/users/search").param("q", " ")).andExpect(status().isBadRequest());
+    Mockito.verifyNoInteractions(userSearchIndex);
+  }
+
+  private static List<User> matches(int count) {
+    List<User> users = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      User user = new User();
+      user.setId((long) i);
+      user.setUsername("player" + i);
+      user.setStatus(UserStatus.OFFLINE);
+      users.add(user);
+    }
+    return users;
+  }
+}
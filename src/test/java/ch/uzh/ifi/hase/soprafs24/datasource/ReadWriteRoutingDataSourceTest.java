@@ -0,0 +1,110 @@
+package ch.uzh.ifi.hase.soprafs24.datasource;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Two H2 databases stand in for primary and replica; each holds a row naming
+ * itself, so a query shows where it was sent.
+ */
+public class ReadWriteRoutingDataSourceTest {
+
+  private JdbcTemplate jdbcTemplate;
+
+  private TransactionTemplate readWrite;
+
+  private TransactionTemplate readOnly;
+
+  @BeforeEach
+  public void setup() {
+    DataSource primary = database("routing-test-primary");
+    DataSource replica = database("routing-test-replica");
+    DataSource dataSource = new LazyConnectionDataSourceProxy(new ReadWriteRoutingDataSource(primary, replica));
+    DataSourceTransactionManager transactionManager = new DataSourceTransactionManager(dataSource);
+    jdbcTemplate = new JdbcTemplate(dataSource);
+    readWrite = new TransactionTemplate(transactionManager);
+    readOnly = new TransactionTemplate(transactionManager);
+    readOnly.setReadOnly(true);
+  }
+
+  private static DataSource database(String name) {
+    DataSource dataSource = new DriverManagerDataSource("jdbc:h2:mem:" + name + ";DB_CLOSE_DELAY=-1", "sa", "");
+    JdbcTemplate jdbc = new JdbcTemplate(dataSource);
+    jdbc.execute("DROP TABLE IF EXISTS marker");
+    jdbc.execute("CREATE TABLE marker (name VARCHAR(32))");
+    jdbc.update("INSERT INTO marker VALUES (?)", name.substring(name.lastIndexOf('-') + 1));
+    return dataSource;
+  }
+
+  @AfterEach
+  public void tearDown() {
+    ReadYourWrites.finish();
+  }
+
+  private String marker() {
+    return jdbcTemplate.queryForObject("SELECT name FROM marker", String.class);
+  }
+
+  @Test
+  public void readOnlyTransaction_readsReplica() {
+    assertEquals("replica", readOnly.execute(status -> marker()));
+  }
+
+  @Test
+  public void readWriteTransactionAndNoTransaction_usePrimary() {
+    assertEquals("primary", readWrite.execute(status -> marker()));
+    assertEquals("primary", marker());
+  }
+
+  @Test
+  public void write_pinsTheContextToPrimary() {
+    AtomicInteger firstWrites = new AtomicInteger();
+    ReadYourWrites context = ReadYourWrites.start(false, firstWrites::incrementAndGet);
+
+    assertEquals("replica", readOnly.execute(status -> marker()));
+    readWrite.executeWithoutResult(status -> jdbcTemplate.update("UPDATE marker SET name = 'written'"));
+    readWrite.executeWithoutResult(status -> jdbcTemplate.update("UPDATE marker SET name = 'primary'"));
+
+    assertTrue(context.hasWritten());
+    assertEquals(1, firstWrites.get());
+    assertEquals("primary", readOnly.execute(status -> marker()));
+  }
+
+  @Test
+  public void writeWithoutContext_doesNotPinLaterReads() {
+    readWrite.executeWithoutResult(status -> jdbcTemplate.update("UPDATE marker SET name = 'primary'"));
+
+    assertEquals("replica", readOnly.execute(status -> marker()));
+  }
+
+  @Test
+  public void pinnedContext_readsPrimary() {
+    ReadYourWrites.start(true, null);
+
+    assertEquals("primary", readOnly.execute(status -> marker()));
+  }
+
+  @Test
+  public void onPrimary_readsPrimaryAndRestoresTheContext() {
+    ReadYourWrites context = ReadYourWrites.start(false, null);
+
+    assertEquals("primary", ReadYourWrites.onPrimary(() -> readOnly.execute(status -> marker())));
+    assertSame(context, ReadYourWrites.current());
+    assertEquals("replica", readOnly.execute(status -> marker()));
+
+    ReadYourWrites.finish();
+    assertEquals("primary", ReadYourWrites.onPrimary(() -> readOnly.execute(status -> marker())));
+    assertNull(ReadYourWrites.current());
+  }
+}
@@ -0,0 +1,87 @@
+package ch.uzh.ifi.hase.soprafs24.datasource;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ReadYourWritesFilterTest {
+
+  private final ReadYourWritesFilter filter = new ReadYourWritesFilter(5000);
+
+  private final List<Boolean> pinned = new ArrayList<>();
+
+  // records whether the handler was pinned before and after it (optionally) wrote
+  private MockFilterChain chain(boolean writes) {
+    return new MockFilterChain(new HttpServlet() {
+      @Override
+      protected void service(HttpServletRequest request, HttpServletResponse response) {
+        pinned.add(ReadYourWrites.isPinned());
+        if (writes) {
+          ReadYourWrites.recordWrite();
+        }
+        pinned.add(ReadYourWrites.isPinned());
+      }
+    });
+  }
+
+  @Test
+  public void requestWithoutWrite_readsReplicaAndSetsNoCookie() throws Exception {
+    MockHttpServletResponse response = new MockHttpServletResponse();
+
+    filter.doFilter(new MockHttpServletRequest("GET", "/users"), response, chain(false));
+
+    assertEquals(List.of(false, false), pinned);
+    assertNull(response.getCookie(ReadYourWritesFilter.COOKIE_NAME));
+    assertNull(ReadYourWrites.current());
+  }
+
+  @Test
+  public void write_setsCookieAndPinsTheRestOfTheRequest() throws Exception {
+    MockHttpServletResponse response = new MockHttpServletResponse();
+    long before = System.currentTimeMillis();
+
+    filter.doFilter(new MockHttpServletRequest("POST", "/users"), response, chain(true));
+
+    assertEquals(List.of(false, true), pinned);
+    Cookie cookie = response.getCookie(ReadYourWritesFilter.COOKIE_NAME);
+    assertNotNull(cookie);
+    assertTrue(Long.parseLong(cookie.getValue()) >= before + 5000);
+    assertEquals(5, cookie.getMaxAge());
+    assertTrue(cookie.isHttpOnly());
+  }
+
+  @Test
+  public void unexpiredCookie_pinsTheRequest() throws Exception {
+    MockHttpServletRequest request = new MockHttpServletRequest("GET", "/users");
+    request.setCookies(new Cookie(ReadYourWritesFilter.COOKIE_NAME,
+        String.valueOf(System.currentTimeMillis() + 1000)));
+
+    filter.doFilter(request, new MockHttpServletResponse(), chain(false));
+
+    assertEquals(List.of(true, true), pinned);
+  }
+
+  @Test
+  public void expiredOrGarbledCookie_isIgnored() throws Exception {
+    MockHttpServletRequest expired = new MockHttpServletRequest("GET", "/users");
+    expired.setCookies(new Cookie(ReadYourWritesFilter.COOKIE_NAME,
+        String.valueOf(System.currentTimeMillis() - 1)));
+    MockHttpServletRequest garbled = new MockHttpServletRequest("GET", "/users");
+    garbled.setCookies(new Cookie(ReadYourWritesFilter.COOKIE_NAME, "soon"));
+
+    filter.doFilter(expired, new MockHttpServletResponse(), chain(false));
+    filter.doFilter(garbled, new MockHttpServletResponse(), chain(false));
+
+    assertEquals(List.of(false, false, false, false), pinned);
+  }
+}
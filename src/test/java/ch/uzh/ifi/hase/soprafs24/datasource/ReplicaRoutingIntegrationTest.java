@@ -0,0 +1,147 @@
+package ch.uzh.ifi.hase.soprafs24.datasource;
+
+import ch.uzh.ifi.hase.soprafs24.repository.UserRepository;
+import ch.uzh.ifi.hase.soprafs24.service.UserService;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import javax.servlet.http.Cookie;
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.options;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Runs the application on two H2 databases, a primary and a replica. There is
+ * no replication between them: replicate() copies the primary over, anything
+ * written since then is "lag".
+ */
+@SpringBootTest(properties = {
+    "spring.datasource.url=jdbc:h2:mem:routing-primary;DB_CLOSE_DELAY=-1",
+    "datasource.replica.url=" + ReplicaRoutingIntegrationTest.REPLICA_URL,
+    "presence.flush-interval-ms=3600000",
+    "passwords.bcrypt-strength=4",
+    "ratelimit.enabled=false"
+})
+@AutoConfigureMockMvc
+public class ReplicaRoutingIntegrationTest {
+
+  static final String REPLICA_URL = "jdbc:h2:mem:routing-replica;DB_CLOSE_DELAY=-1";
+
+  private static final MediaType CBOR = MediaType.parseMediaType("application/cbor");
+
+  @Autowired
+  private MockMvc mockMvc;
+
+  @Autowired
+  private UserService userService;
+
+  @Qualifier("userRepository")
+  @Autowired
+  private UserRepository userRepository;
+
+  @Autowired
+  @Qualifier("primaryDataSource")
+  private DataSource primary;
+
+  private final ObjectMapper objectMapper = new ObjectMapper();
+
+  private final ObjectMapper cborMapper = new ObjectMapper(new CBORFactory());
+
+  @BeforeEach
+  public void setup() throws SQLException {
+    userRepository.deleteAll();
+    replicate();
+  }
+
+  // stands in for replication: the replica becomes a copy of the primary
+  private void replicate() throws SQLException {
+    List<String> script = new JdbcTemplate(primary).queryForList("SCRIPT", String.class);
+    try (Connection replica = DriverManager.getConnection(REPLICA_URL, "sa", "");
+        Statement statement = replica.createStatement()) {
+      statement.execute("DROP ALL OBJECTS");
+      for (String sql : script) {
+        statement.execute(sql);
+      }
+    }
+  }
+
+  private MvcResult register(String username) throws Exception {
+    return mockMvc.perform(post("/users").contentType(MediaType.APPLICATION_JSON)
+        .content(objectMapper.createObjectNode().put("username", username).put("password", "pw").toString()))
+        .andExpect(status().isCreated()).andReturn();
+  }
+
+  private JsonNode listUsers(Cookie... cookies) throws Exception {
+    var request = get("/users").accept(CBOR);
+    if (cookies.length > 0) {
+      request.cookie(cookies);
+    }
+    return cborMapper.readTree(mockMvc.perform(request).andExpect(status().isOk())
+        .andReturn().getResponse().getContentAsByteArray());
+  }
+
+  @Test
+  public void readOnlyServiceMethods_readTheReplica() throws Exception {
+    long id = objectMapper.readTree(register("lagging").getResponse().getContentAsString()).get("id").asLong();
+
+    assertNull(userService.findByID(id));
+    assertNotNull(ReadYourWrites.onPrimary(() -> userService.findByID(id)));
+
+    replicate();
+    assertEquals("lagging", userService.findByID(id).getUsername());
+  }
+
+  @Test
+  public void crossOriginFrontend_mayCarryTheCookie() throws Exception {
+    // without credentials the browser would neither store nor send the cookie
+    mockMvc.perform(options("/users").header(HttpHeaders.ORIGIN, "http://localhost:3000")
+        .header(HttpHeaders.ACCESS_CONTROL_REQUEST_METHOD, "POST"))
+        .andExpect(status().isOk())
+        .andExpect(header().string(HttpHeaders.ACCESS_CONTROL_ALLOW_ORIGIN, "http://localhost:3000"))
+        .andExpect(header().string(HttpHeaders.ACCESS_CONTROL_ALLOW_CREDENTIALS, "true"));
+    mockMvc.perform(options("/users").header(HttpHeaders.ORIGIN, "http://elsewhere.example")
+        .header(HttpHeaders.ACCESS_CONTROL_REQUEST_METHOD, "POST"))
+        .andExpect(status().isForbidden());
+  }
+
+  @Test
+  public void writer_readsItsOwnWriteThroughTheCookie() throws Exception {
+    Cookie cookie = register("writer").getResponse().getCookie(ReadYourWritesFilter.COOKIE_NAME);
+    assertNotNull(cookie);
+
+    assertEquals(0, listUsers().size());
+    JsonNode users = listUsers(cookie);
+    assertEquals(1, users.size());
+    assertEquals("writer", users.get(0).get("username").asText());
+  }
+
+  @Test
+  public void cachedProfiles_areLoadedFromThePrimary() throws Exception {
+    long id = objectMapper.readTree(register("cached").getResponse().getContentAsString()).get("id").asLong();
+
+    // not replicated yet, and requested without the cookie
+    mockMvc.perform(get("/users/" + id)).andExpect(status().isOk());
+  }
+}
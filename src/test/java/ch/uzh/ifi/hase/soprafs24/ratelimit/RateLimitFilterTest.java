@@ -0,0 +1,124 @@
+package ch.uzh.ifi.hase.soprafs24.ratelimit;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.util.StreamUtils;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RateLimitFilterTest {
+
+  private final RateLimitFilter filter = new RateLimitFilter(
+      new TokenBucketLimiter("ip", 3, 0.001, 100),
+      new TokenBucketLimiter("username", 2, 0.001, 100),
+      new ObjectMapper());
+
+  @Test
+  public void login_limitedPerAddressAndUsername_bodyStillReadable() throws Exception {
+    for (int i = 0; i < 2; i++) {
+      String[] body = new String[1];
+      MockHttpServletResponse response = login("10.0.0.1", "/login", "alice", (request, r) ->
+          body[0] = StreamUtils.copyToString(request.getInputStream(), StandardCharsets.UTF_8));
+      assertEquals(HttpStatus.OK.value(), response.getStatus());
+      assertEquals("{\"username\":\"alice\",\"password\":\"pw\"}", body[0]);
+    }
+
+    // the address still has a token left, but not for this username
+    MockHttpServletResponse rejected = login("10.0.0.1", "/login/", "alice", failIfCalled());
+    assertEquals(HttpStatus.TOO_MANY_REQUESTS.value(), rejected.getStatus());
+    assertNotNull(rejected.getHeader(HttpHeaders.RETRY_AFTER));
+
+    // failed attempts from one address do not lock the user out elsewhere
+    assertEquals(HttpStatus.OK.value(), login("10.0.0.2", "/login", "alice", (request, r) -> { }).getStatus());
+  }
+
+  @Test
+  public void login_bodyReadAsynchronously() throws Exception {
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    boolean[] allRead = new boolean[1];
+    login("10.0.0.1", "/login", "alice", (request, r) -> {
+      ServletInputStream in = request.getInputStream();
+      in.setReadListener(new ReadListener() {
+        @Override
+        public void onDataAvailable() throws IOException {
+          while (in.isReady() && !in.isFinished()) {
+            body.write(in.read());
+          }
+        }
+
+        @Override
+        public void onAllDataRead() {
+          allRead[0] = true;
+        }
+
+        @Override
+        public void onError(Throwable t) {
+          fail(t);
+        }
+      });
+    });
+
+    assertTrue(allRead[0]);
+    assertEquals("{\"username\":\"alice\",\"password\":\"pw\"}", body.toString(StandardCharsets.UTF_8.name()));
+  }
+
+  @Test
+  public void registration_limitedPerAddress() throws Exception {
+    for (int i = 0; i < 3; i++) {
+      assertEquals(HttpStatus.OK.value(), register("10.0.0.1", (request, r) -> { }).getStatus());
+    }
+    MockHttpServletResponse rejected = register("10.0.0.1", failIfCalled());
+
+    assertEquals(HttpStatus.TOO_MANY_REQUESTS.value(), rejected.getStatus());
+    assertEquals(HttpStatus.OK.value(), register("10.0.0.2", (request, r) -> { }).getStatus());
+  }
+
+  @Test
+  public void reads_notLimited() throws Exception {
+    for (int i = 0; i < 10; i++) {
+      MockHttpServletRequest request = new MockHttpServletRequest("GET", "/users");
+      request.setRemoteAddr("10.0.0.1");
+      MockHttpServletResponse response = new MockHttpServletResponse();
+      filter.doFilter(request, response, new MockFilterChain());
+      assertEquals(HttpStatus.OK.value(), response.getStatus());
+    }
+  }
+
+  private MockHttpServletResponse login(String address, String path, String username, FilterChain chain)
+      throws Exception {
+    MockHttpServletRequest request = new MockHttpServletRequest("POST", path);
+    request.setServletPath(path);
+    request.setRemoteAddr(address);
+    request.setContentType("application/json");
+    request.setContent(("{\"username\":\"" + username + "\",\"password\":\"pw\"}").getBytes(StandardCharsets.UTF_8));
+    MockHttpServletResponse response = new MockHttpServletResponse();
+    filter.doFilter(request, response, chain);
+    return response;
+  }
+
+  private MockHttpServletResponse register(String address, FilterChain chain) throws Exception {
+    MockHttpServletRequest request = new MockHttpServletRequest("POST", "/users");
+    request.setServletPath("/users");
+    request.setRemoteAddr(address);
+    MockHttpServletResponse response = new MockHttpServletResponse();
+    filter.doFilter(request, response, chain);
+    return response;
+  }
+
+  // rejected requests must not reach the controller (and thus the database)
+  private static FilterChain failIfCalled() {
+    return (request, response) -> fail("request was passed on");
+  }
+}
@@ -0,0 +1,55 @@
+package ch.uzh.ifi.hase.soprafs24.ratelimit;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TokenBucketLimiterTest {
+
+  private final AtomicLong now = new AtomicLong();
+
+  @Test
+  public void tryAcquire_burstUpToCapacity_thenRefills() {
+    TokenBucketLimiter limiter = new TokenBucketLimiter("ip", 3, 1.0, 100, now::get);
+
+    for (int i = 0; i < 3; i++) {
+      assertEquals(0, limiter.tryAcquire("10.0.0.1"));
+    }
+    long wait = limiter.tryAcquire("10.0.0.1");
+    assertTrue(wait > 0 && wait <= TimeUnit.SECONDS.toNanos(1), String.valueOf(wait));
+
+    // other keys have their own bucket
+    assertEquals(0, limiter.tryAcquire("10.0.0.2"));
+
+    now.addAndGet(TimeUnit.SECONDS.toNanos(1));
+    assertEquals(0, limiter.tryAcquire("10.0.0.1"));
+    assertTrue(limiter.tryAcquire("10.0.0.1") > 0);
+    assertEquals(2, limiter.getRejectedCount());
+  }
+
+  @Test
+  public void evictIdle_dropsBucketsThatAreFullAgain() {
+    TokenBucketLimiter limiter = new TokenBucketLimiter("ip", 2, 1.0, 100, now::get);
+    limiter.tryAcquire("idle");
+    now.addAndGet(TimeUnit.SECONDS.toNanos(1));
+    limiter.tryAcquire("recent");
+
+    now.addAndGet(TimeUnit.MILLISECONDS.toNanos(1500));
+    assertEquals(1, limiter.evictIdle());
+    assertEquals(1, limiter.size());
+  }
+
+  @Test
+  public void size_boundedByMaxEntries() {
+    TokenBucketLimiter limiter = new TokenBucketLimiter("ip", 2, 1.0, 160, now::get);
+
+    for (int i = 0; i < 10000; i++) {
+      limiter.tryAcquire("client" + i);
+    }
+
+    assertTrue(limiter.size() <= 160, String.valueOf(limiter.size()));
+  }
+}
@@ -2,13 +2,21 @@ package ch.uzh.ifi.hase.soprafs24.repository;
 
 import ch.uzh.ifi.hase.soprafs24.constant.UserStatus;
 import ch.uzh.ifi.hase.soprafs24.entity.User;
+import org.hibernate.Session;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
 import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Slice;
+
+import java.util.Date;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 @DataJpaTest
 public class UserRepositoryIntegrationTest {
@@ -41,4 +49,64 @@ public class UserRepositoryIntegrationTest {
     assertEquals(found.getToken(), user.getToken());
     assertEquals(found.getStatus(), user.getStatus());
   }
+
+  @Test
+  public void findSummaryPage_keysetAndFilters_success() {
+    // given
+    User alice = persistUser("alice", UserStatus.ONLINE);
+    User albert = persistUser("albert", UserStatus.OFFLINE);
+    User bob = persistUser("bob", UserStatus.ONLINE);
+    persistUser("al_x", UserStatus.ONLINE);
+
+    // when -> first page of two, then the page after its last ID
+    Slice<UserSummary> firstPage = userRepository.findSummaryPage(0L, null, null, PageRequest.of(0, 2));
+    Slice<UserSummary> secondPage = userRepository.findSummaryPage(albert.getId(), null, null, PageRequest.of(0, 2));
+
+    // then
+    assertEquals(2, firstPage.getNumberOfElements());
+    assertTrue(firstPage.hasNext());
+    assertEquals(alice.getId(), firstPage.getContent().get(0).getId());
+    assertEquals(bob.getId(), secondPage.getContent().get(0).getId());
+    assertFalse(secondPage.hasNext());
+
+    // filters: status and an escaped username prefix
+    Slice<UserSummary> online = userRepository.findSummaryPage(0L, UserStatus.ONLINE, "al%", PageRequest.of(0, 10));
+    assertEquals(2, online.getNumberOfElements());
+    Slice<UserSummary> literalUnderscore = userRepository.findSummaryPage(0L, null, "al\\_%", PageRequest.of(0, 10));
+    assertEquals(1, literalUnderscore.getNumberOfElements());
+  }
+
+  @Test
+  public void findSummaryPage_andProfile_readColumnsWithoutEntities() {
+    // given
+    User alice = persistUser("alice", UserStatus.ONLINE);
+    persistUser("albert", UserStatus.OFFLINE);
+    entityManager.clear();
+
+    // when
+    Slice<UserSummary> online = userRepository.findSummaryPage(0L, UserStatus.ONLINE, "al%", PageRequest.of(0, 10));
+    UserProfile profile = userRepository.findProfileById(alice.getId());
+
+    // then -> the projections carry the columns, nothing was loaded into the context
+    assertEquals(1, online.getNumberOfElements());
+    assertEquals("alice", online.getContent().get(0).getUsername());
+    assertEquals(UserStatus.ONLINE, online.getContent().get(0).getStatus());
+    assertEquals("alice-token", profile.getToken());
+    assertEquals(alice.getVersion(), profile.getVersion());
+    assertNotNull(profile.getCreationDate());
+    assertEquals(0, entityManager.getEntityManager().unwrap(Session.class).getStatistics().getEntityCount());
+    assertNull(userRepository.findProfileById(-1L));
+  }
+
+  private User persistUser(String username, UserStatus status) {
+    User user = new User();
+    user.setUsername(username);
+    user.setPassword("password");
+    user.setStatus(status);
+    user.setToken(username + "-token");
+    user.setCreationDate(new Date());
+    entityManager.persist(user);
+    entityManager.flush();
+    return user;
+  }
 }
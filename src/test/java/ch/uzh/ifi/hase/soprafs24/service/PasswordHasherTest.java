@@ -0,0 +1,97 @@
+package ch.uzh.ifi.hase.soprafs24.service;
+
+import ch.uzh.ifi.hase.soprafs24.exceptions.ServiceBusyException;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PasswordHasherTest {
+
+  @Test
+  public void hash_matchesOnlyTheOriginalPassword() {
+    PasswordHasher hasher = new PasswordHasher(4, 1, 4, 1);
+
+    String hash = hasher.hash("secret");
+
+    assertNotEquals("secret", hash);
+    assertTrue(hasher.matches("secret", hash));
+    assertFalse(hasher.matches("other", hash));
+    assertFalse(hasher.needsRehash(hash));
+    hasher.shutdown();
+  }
+
+  @Test
+  public void plaintextAndWeakerHashes_needRehash() {
+    PasswordHasher weak = new PasswordHasher(4, 1, 4, 1);
+    PasswordHasher strong = new PasswordHasher(5, 1, 4, 1);
+
+    // stored before hashing was introduced
+    assertTrue(strong.matches("secret", "secret"));
+    assertFalse(strong.matches("other", "secret"));
+    assertTrue(strong.needsRehash("secret"));
+
+    // hashed with a lower cost than configured now
+    String weakHash = weak.hash("secret");
+    assertTrue(strong.matches("secret", weakHash));
+    assertTrue(strong.needsRehash(weakHash));
+    weak.shutdown();
+    strong.shutdown();
+  }
+
+  @Test
+  public void hashAll_keepsOrder() {
+    PasswordHasher hasher = new PasswordHasher(4, 2, 4, 1);
+    List<String> passwords = new ArrayList<>();
+    for (int i = 0; i < 10; i++) {
+      passwords.add("password" + i);
+    }
+
+    List<String> hashes = hasher.hashAll(passwords);
+
+    assertEquals(10, hashes.size());
+    for (int i = 0; i < 10; i++) {
+      assertTrue(hasher.matches("password" + i, hashes.get(i)));
+    }
+    hasher.shutdown();
+  }
+
+  @Test
+  public void fullQueue_shedsWithRetryAfter() throws Exception {
+    // one worker, one queue slot -> of four simultaneous slow hashes at least two are shed
+    PasswordHasher hasher = new PasswordHasher(12, 1, 1, 3);
+    ExecutorService callers = Executors.newFixedThreadPool(4);
+    CountDownLatch start = new CountDownLatch(1);
+    List<Future<String>> results = new ArrayList<>();
+    for (int i = 0; i < 4; i++) {
+      results.add(callers.submit(() -> {
+        start.await();
+        return hasher.hash("secret");
+      }));
+    }
+
+    start.countDown();
+    int shed = 0;
+    for (Future<String> result : results) {
+      try {
+        result.get();
+      } catch (ExecutionException e) {
+        assertTrue(e.getCause() instanceof ServiceBusyException, e.toString());
+        assertEquals(3, ((ServiceBusyException) e.getCause()).getRetryAfterSeconds());
+        shed++;
+      }
+    }
+
+    assertTrue(shed >= 2, "shed " + shed + " of 4");
+    assertEquals(shed, hasher.getRejectedCount());
+    callers.shutdown();
+    hasher.shutdown();
+  }
+}
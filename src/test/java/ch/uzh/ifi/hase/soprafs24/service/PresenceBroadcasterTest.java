@@ -0,0 +1,264 @@
+package ch.uzh.ifi.hase.soprafs24.service;
+
+import ch.uzh.ifi.hase.soprafs24.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs24.rest.dto.PresenceDTO;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PresenceBroadcasterTest {
+
+  private PresenceBroadcaster broadcaster;
+
+  @AfterEach
+  public void tearDown() {
+    if (broadcaster != null) {
+      broadcaster.shutdown();
+    }
+  }
+
+  @Test
+  public void soak_thousandsOfSubscribers_allReceiveLatestState() throws InterruptedException {
+    int subscriberCount = 5000;
+    int userCount = 100;
+    broadcaster = new PresenceBroadcaster(subscriberCount, 256, 4, 5000);
+    List<RecordingSink> sinks = new ArrayList<>();
+    for (int i = 0; i < subscriberCount; i++) {
+      RecordingSink sink = new RecordingSink();
+      assertNotNull(broadcaster.subscribe(sink));
+      sinks.add(sink);
+    }
+    assertNull(broadcaster.subscribe(new RecordingSink()));
+
+    for (int round = 0; round < 10; round++) {
+      UserStatus status = round % 2 == 0 ? UserStatus.ONLINE : UserStatus.OFFLINE;
+      for (long userId = 0; userId < userCount; userId++) {
+        broadcaster.publish(new PresenceDTO(userId, "user" + userId, status));
+      }
+    }
+
+    // every subscriber ends up with the final state of every user
+    long deadline = System.currentTimeMillis() + 30000;
+    for (RecordingSink sink : sinks) {
+      while (!sink.hasFinalState(userCount, UserStatus.OFFLINE) && System.currentTimeMillis() < deadline) {
+        Thread.sleep(5);
+      }
+      assertTrue(sink.hasFinalState(userCount, UserStatus.OFFLINE));
+    }
+    assertEquals(subscriberCount, broadcaster.getSubscriberCount());
+  }
+
+  @Test
+  public void slowSubscriber_bufferBounded_andResyncRequested() throws InterruptedException {
+    broadcaster = new PresenceBroadcaster(10, 8, 2, 5000);
+    CountDownLatch release = new CountDownLatch(1);
+    RecordingSink slow = new RecordingSink() {
+      @Override
+      public void send(List<PresenceDTO> updates) throws Exception {
+        release.await();
+        super.send(updates);
+      }
+    };
+    RecordingSink fast = new RecordingSink();
+    PresenceBroadcaster.Subscriber slowSubscriber = broadcaster.subscribe(slow);
+    broadcaster.subscribe(fast);
+
+    // the first update blocks the slow sink, everything after piles up in its buffer
+    broadcaster.publish(new PresenceDTO(0L, "user0", UserStatus.ONLINE));
+    Thread.sleep(50);
+    for (long userId = 1; userId <= 100; userId++) {
+      broadcaster.publish(new PresenceDTO(userId, "user" + userId, UserStatus.ONLINE));
+    }
+    assertTrue(slowSubscriber.buffered() <= 8);
+    assertTrue(fast.hasFinalStateWithin(100, UserStatus.ONLINE, 5000));
+
+    release.countDown();
+    long deadline = System.currentTimeMillis() + 5000;
+    while (!slow.resynced.get() && System.currentTimeMillis() < deadline) {
+      Thread.sleep(5);
+    }
+    assertTrue(slow.resynced.get());
+  }
+
+  @Test
+  public void failingSink_isUnsubscribed() throws InterruptedException {
+    broadcaster = new PresenceBroadcaster(10, 8, 1, 5000);
+    AtomicInteger closed = new AtomicInteger();
+    broadcaster.subscribe(new RecordingSink() {
+      @Override
+      public void send(List<PresenceDTO> updates) throws Exception {
+        throw new IllegalStateException("client went away");
+      }
+
+      @Override
+      public void close() {
+        closed.incrementAndGet();
+      }
+    });
+
+    broadcaster.publish(new PresenceDTO(1L, "user1", UserStatus.ONLINE));
+
+    long deadline = System.currentTimeMillis() + 5000;
+    while (broadcaster.getSubscriberCount() > 0 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(5);
+    }
+    assertEquals(0, broadcaster.getSubscriberCount());
+    assertEquals(1, closed.get());
+  }
+
+  @Test
+  public void stalledSubscriber_droppedAfterSendTimeout_othersServedAgain() throws InterruptedException {
+    // a single dispatcher thread, which the stalled sink holds
+    broadcaster = new PresenceBroadcaster(10, 8, 1, 50);
+    CountDownLatch sending = new CountDownLatch(1);
+    AtomicInteger closed = new AtomicInteger();
+    broadcaster.subscribe(new RecordingSink() {
+      @Override
+      public void send(List<PresenceDTO> updates) throws Exception {
+        sending.countDown();
+        // a client that stopped reading, only an interrupt gets the thread back
+        new CountDownLatch(1).await();
+      }
+
+      @Override
+      public void close() {
+        closed.incrementAndGet();
+      }
+    });
+    broadcaster.publish(new PresenceDTO(0L, "user0", UserStatus.ONLINE));
+    assertTrue(sending.await(5, TimeUnit.SECONDS));
+    RecordingSink waiting = new RecordingSink();
+    broadcaster.subscribe(waiting);
+    broadcaster.publish(new PresenceDTO(1L, "user1", UserStatus.ONLINE));
+
+    Thread.sleep(100);
+    broadcaster.dropStalledSubscribers();
+
+    assertEquals(1, broadcaster.getSubscriberCount());
+    assertTrue(waiting.hasFinalStateWithin(1, UserStatus.ONLINE, 5000));
+    // closed by the interrupted sender once its send gave up
+    long deadline = System.currentTimeMillis() + 5000;
+    while (closed.get() == 0 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(5);
+    }
+    assertEquals(1, closed.get());
+  }
+
+  @Test
+  public void sendIgnoringInterrupts_neitherBlocksSchedulerNorOtherSubscribers() throws Exception {
+    broadcaster = new PresenceBroadcaster(10, 8, 1, 50);
+    CountDownLatch sending = new CountDownLatch(1);
+    CountDownLatch clientGone = new CountDownLatch(1);
+    AtomicInteger closed = new AtomicInteger();
+    Object emitterMonitor = new Object();
+    // like SseEmitter over a blocked Tomcat write: send and close share a monitor and interrupts do not help
+    broadcaster.subscribe(new RecordingSink() {
+      @Override
+      public void send(List<PresenceDTO> updates) throws Exception {
+        synchronized (emitterMonitor) {
+          sending.countDown();
+          while (clientGone.getCount() > 0) {
+            try {
+              clientGone.await();
+            } catch (InterruptedException ignored) {
+              // Tomcat swallows the interrupt and keeps waiting for its write timeout
+            }
+          }
+          throw new IOException("write timed out");
+        }
+      }
+
+      @Override
+      public void close() {
+        synchronized (emitterMonitor) {
+          closed.incrementAndGet();
+        }
+      }
+    });
+    broadcaster.publish(new PresenceDTO(0L, "user0", UserStatus.ONLINE));
+    assertTrue(sending.await(5, TimeUnit.SECONDS));
+    RecordingSink waiting = new RecordingSink();
+    broadcaster.subscribe(waiting);
+    broadcaster.publish(new PresenceDTO(1L, "user1", UserStatus.ONLINE));
+    Thread.sleep(100);
+
+    // the scheduler thread returns right away although the sink cannot be closed yet
+    Thread scheduler = new Thread(broadcaster::dropStalledSubscribers);
+    scheduler.start();
+    scheduler.join(1000);
+    assertFalse(scheduler.isAlive());
+
+    // a replacement thread serves the others while the send is still stuck
+    assertTrue(waiting.hasFinalStateWithin(1, UserStatus.ONLINE, 5000));
+    assertEquals(2, broadcaster.getDispatchThreads());
+    assertEquals(0, closed.get());
+
+    // once the write times out, the sender closes the sink and the pool shrinks back
+    clientGone.countDown();
+    long deadline = System.currentTimeMillis() + 5000;
+    while ((closed.get() == 0 || broadcaster.getDispatchThreads() > 1) && System.currentTimeMillis() < deadline) {
+      Thread.sleep(5);
+    }
+    assertEquals(1, closed.get());
+    assertEquals(1, broadcaster.getDispatchThreads());
+  }
+
+  private static class RecordingSink implements PresenceBroadcaster.PresenceSink {
+    private final Map<Long, UserStatus> latest = new ConcurrentHashMap<>();
+    final AtomicBoolean resynced = new AtomicBoolean();
+
+    @Override
+    public void send(List<PresenceDTO> updates) throws Exception {
+      for (PresenceDTO update : updates) {
+        latest.put(update.getId(), update.getStatus());
+      }
+    }
+
+    @Override
+    public void sendResync() {
+      resynced.set(true);
+    }
+
+    @Override
+    public void sendHeartbeat() {
+    }
+
+    @Override
+    public void close() {
+    }
+
+    boolean hasFinalState(int userCount, UserStatus status) {
+      if (latest.size() < userCount) {
+        return false;
+      }
+      for (UserStatus received : latest.values()) {
+        if (received != status) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    boolean hasFinalStateWithin(int lastUserId, UserStatus status, long timeoutMillis) throws InterruptedException {
+      long deadline = System.currentTimeMillis() + timeoutMillis;
+      while (System.currentTimeMillis() < deadline) {
+        if (latest.get((long) lastUserId) == status) {
+          return true;
+        }
+        Thread.sleep(5);
+      }
+      return false;
+    }
+  }
+}
@@ -0,0 +1,52 @@
+package ch.uzh.ifi.hase.soprafs24.service;
+
+import ch.uzh.ifi.hase.soprafs24.constant.UserStatus;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PresenceTrackerTest {
+
+  private final JdbcTemplate jdbcTemplate = Mockito.mock(JdbcTemplate.class);
+
+  private final PresenceTracker presenceTracker =
+      new PresenceTracker(jdbcTemplate, Mockito.mock(PlatformTransactionManager.class));
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void flush_oneBatchPerChunk() {
+    for (long userId = 0; userId < 1200; userId++) {
+      presenceTracker.record(userId, UserStatus.OFFLINE, null);
+    }
+    // coalesced: only the latest state of a user is written
+    presenceTracker.record(7L, UserStatus.ONLINE, "token");
+
+    presenceTracker.flush();
+
+    ArgumentCaptor<List<Object[]>> rows = ArgumentCaptor.forClass(List.class);
+    // three round trips for 1200 users
+    Mockito.verify(jdbcTemplate, Mockito.times(3))
+        .batchUpdate(Mockito.eq(PresenceTracker.UPDATE_PRESENCE), rows.capture());
+    Mockito.verifyNoMoreInteractions(jdbcTemplate);
+    assertEquals(List.of(500, 500, 200),
+        rows.getAllValues().stream().map(List::size).collect(Collectors.toList()));
+    Object[] user7 = rows.getAllValues().stream().flatMap(List::stream)
+        .filter(row -> row[2].equals(7L)).findFirst().orElseThrow();
+    assertArrayEquals(new Object[] {UserStatus.ONLINE.ordinal(), "token", 7L}, user7);
+    assertEquals(0, presenceTracker.pendingCount());
+  }
+
+  @Test
+  public void flush_nothingPending_noStatements() {
+    presenceTracker.flush();
+
+    Mockito.verifyNoInteractions(jdbcTemplate);
+  }
+}
@@ -0,0 +1,117 @@
+package ch.uzh.ifi.hase.soprafs24.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SessionExpiryTest {
+
+  private static final long TIMEOUT = 60000;
+
+  private final long start = System.currentTimeMillis();
+
+  // the repository is only needed to load sessions at startup
+  private final SessionExpiry expiry = new SessionExpiry(TIMEOUT, 1000);
+
+  private final List<SessionExpiry.Session> expired = new ArrayList<>();
+
+  private int expireAt(long now) {
+    return expiry.expire(now, expired::add);
+  }
+
+  @Test
+  public void expire_idleSession_expiresAfterTimeout() {
+    expiry.track(1L, "alice", "token", start);
+
+    assertEquals(0, expireAt(start + TIMEOUT - 1000));
+    assertEquals(1, expireAt(start + TIMEOUT + 1000));
+
+    assertEquals("token", expired.get(0).getToken());
+    assertEquals("alice", expired.get(0).getUsername());
+    assertEquals(0, expiry.size());
+    assertEquals(1, expiry.getExpiredCount());
+  }
+
+  @Test
+  public void touch_postponesExpiry() {
+    expiry.track(1L, "alice", "token", start);
+    expiry.touch(1L, start + 30000);
+
+    // the original deadline passes, the session is put back
+    assertEquals(0, expireAt(start + TIMEOUT + 1000));
+    assertEquals(1, expiry.size());
+
+    assertEquals(1, expireAt(start + 30000 + TIMEOUT + 1000));
+  }
+
+  @Test
+  public void track_again_replacesEarlierSession() {
+    expiry.track(1L, "alice", "old", start);
+    expiry.track(1L, "alice", "new", start + 30000);
+
+    assertEquals(0, expireAt(start + TIMEOUT + 1000));
+    assertEquals(1, expireAt(start + 30000 + TIMEOUT + 1000));
+    assertEquals("new", expired.get(0).getToken());
+  }
+
+  @Test
+  public void untrack_sessionNeverExpires() {
+    expiry.track(1L, "alice", "token", start);
+    expiry.untrack(1L);
+
+    assertEquals(0, expireAt(start + TIMEOUT + 1000));
+    assertEquals(0, expiry.size());
+  }
+
+  @Test
+  public void expireNow_expiresOnNextTick_unlessReplaced() {
+    expiry.track(1L, "alice", "evicted", start);
+    expiry.track(2L, "bob", "old", start);
+    expiry.track(2L, "bob", "new", start);
+
+    expiry.expireNow(1L, "evicted");
+    expiry.expireNow(2L, "old");
+
+    assertEquals(1, expireAt(System.currentTimeMillis() + 1000));
+    assertEquals("evicted", expired.get(0).getToken());
+    assertEquals(1, expiry.size());
+  }
+
+  @Test
+  public void onUserChanged_renamedUser_expiresUnderNewName() {
+    expiry.track(1L, "alice", "token", start);
+
+    expiry.onUserChanged(new UserChangedEvent(1L, UserChangedEvent.Type.UPDATED, "bob", "alice", null));
+    expireAt(start + TIMEOUT + 1000);
+
+    assertEquals("bob", expired.get(0).getUsername());
+  }
+
+  @Test
+  public void expire_millionSessions_onTheCallingThread() {
+    int sessions = 1_000_000;
+    Set<Thread> expiringThreads = new HashSet<>();
+    for (long userId = 0; userId < sessions; userId++) {
+      // spread over the first half of the timeout, every other user stays active
+      expiry.track(userId, null, "token", start + userId % 30000);
+    }
+    for (long userId = 0; userId < sessions; userId += 2) {
+      expiry.touch(userId, start + 45000);
+    }
+
+    int idle = 0;
+    for (long now = start; now <= start + 31000 + TIMEOUT; now += 1000) {
+      idle += expiry.expire(now, session -> expiringThreads.add(Thread.currentThread()));
+    }
+
+    assertEquals(sessions / 2, idle);
+    assertEquals(sessions / 2, expiry.size());
+    // no sweeper thread of its own, the sessions are expired by whoever advances the wheel
+    assertEquals(Set.of(Thread.currentThread()), expiringThreads);
+  }
+}
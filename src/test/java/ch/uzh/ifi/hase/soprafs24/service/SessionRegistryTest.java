@@ -0,0 +1,102 @@
+package ch.uzh.ifi.hase.soprafs24.service;
+
+import ch.uzh.ifi.hase.soprafs24.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs24.repository.UserRepository;
+import ch.uzh.ifi.hase.soprafs24.repository.UserToken;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SessionRegistryTest {
+
+  private final UserRepository userRepository = Mockito.mock(UserRepository.class);
+
+  private final SessionExpiry sessionExpiry = Mockito.mock(SessionExpiry.class);
+
+  @Test
+  public void authenticate_registeredToken_returnsSession() {
+    SessionRegistry registry = new SessionRegistry(userRepository, sessionExpiry, 100);
+    registry.register("token", 1L, UserStatus.ONLINE);
+
+    SessionRegistry.Session session = registry.authenticate("token");
+
+    assertNotNull(session);
+    assertEquals(1L, session.getUserId());
+    assertEquals(UserStatus.ONLINE, session.getStatus());
+    assertNull(registry.authenticate("other"));
+    assertNull(registry.authenticate(null));
+  }
+
+  @Test
+  public void remove_token_isNoLongerAuthenticated() {
+    SessionRegistry registry = new SessionRegistry(userRepository, sessionExpiry, 100);
+    registry.register("token", 1L, UserStatus.ONLINE);
+
+    registry.remove("token");
+
+    assertNull(registry.authenticate("token"));
+    assertEquals(0, registry.size());
+  }
+
+  @Test
+  public void register_beyondCapacity_staysBounded() {
+    SessionRegistry registry = new SessionRegistry(userRepository, sessionExpiry, 160);
+    for (long i = 0; i < 10000; i++) {
+      registry.register("token" + i, i, UserStatus.ONLINE);
+    }
+
+    assertTrue(registry.size() <= 160);
+    assertNotNull(registry.authenticate("token9999"));
+    // evicted users are logged out rather than left with a token that no longer works
+    Mockito.verify(sessionExpiry, Mockito.times(10000 - registry.size()))
+        .expireNow(Mockito.anyLong(), Mockito.anyString());
+    Mockito.verify(sessionExpiry, Mockito.never()).expireNow(9999L, "token9999");
+  }
+
+  @Test
+  public void register_upToCapacity_evictsNothing() {
+    // sixteen sessions share the sixteen stripes unevenly, the cap still counts them together
+    SessionRegistry registry = new SessionRegistry(userRepository, sessionExpiry, 16);
+    for (long i = 0; i < 16; i++) {
+      registry.register("token" + i, i, UserStatus.ONLINE);
+    }
+
+    assertEquals(16, registry.size());
+    Mockito.verify(sessionExpiry, Mockito.never()).expireNow(Mockito.anyLong(), Mockito.anyString());
+
+    registry.register("token16", 16L, UserStatus.ONLINE);
+
+    assertEquals(16, registry.size());
+    assertNotNull(registry.authenticate("token16"));
+    Mockito.verify(sessionExpiry, Mockito.times(1)).expireNow(Mockito.anyLong(), Mockito.anyString());
+  }
+
+  @Test
+  public void rebuild_readsTokensOnce_andTracksThemForExpiry() {
+    SessionRegistry registry = new SessionRegistry(userRepository, sessionExpiry, 100);
+    Mockito.when(userRepository.streamAllTokens()).thenReturn(Stream.of(
+        new UserToken(1L, "first", "token1", UserStatus.ONLINE),
+        new UserToken(2L, "second", "token2", UserStatus.OFFLINE)));
+
+    registry.rebuild();
+
+    assertEquals(2, registry.size());
+    assertEquals(2L, registry.authenticate("token2").getUserId());
+    Mockito.verify(userRepository, Mockito.times(1)).streamAllTokens();
+    Mockito.verify(sessionExpiry).track(1L, "first", "token1");
+    Mockito.verify(sessionExpiry).track(2L, "second", "token2");
+  }
+
+  @Test
+  public void authenticate_longIdleSession_isLeftToSessionExpiry() {
+    SessionRegistry registry = new SessionRegistry(userRepository, sessionExpiry, 100);
+    registry.register("idle", 1L, UserStatus.ONLINE);
+
+    // the registry has no timeout of its own, idle users are logged out through UserService
+    assertNotNull(registry.authenticate("idle"));
+    assertEquals(1, registry.size());
+  }
+}
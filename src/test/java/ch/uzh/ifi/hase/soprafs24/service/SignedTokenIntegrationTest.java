@@ -0,0 +1,118 @@
+package ch.uzh.ifi.hase.soprafs24.service;
+
+import ch.uzh.ifi.hase.soprafs24.entity.User;
+import ch.uzh.ifi.hase.soprafs24.repository.UserRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.context.web.WebAppConfiguration;
+import org.springframework.web.server.ResponseStatusException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The user flows with tokens.signed=true: tokens are signed, edits and
+ * logouts are authenticated without the session registry, and replaced or
+ * logged out tokens are denied.
+ */
+@WebAppConfiguration
+@SpringBootTest(properties = {
+    "tokens.signed=true",
+    "tokens.signing-key=c2lnbmluZy1rZXktZm9yLXRoZS1pbnRlZ3JhdGlvbi10ZXN0",
+    "presence.flush-interval-ms=3600000",
+    "passwords.bcrypt-strength=4"
+})
+public class SignedTokenIntegrationTest {
+
+  @Qualifier("userRepository")
+  @Autowired
+  private UserRepository userRepository;
+
+  @Autowired
+  private UserService userService;
+
+  @Autowired
+  private TokenSigner tokenSigner;
+
+  @Autowired
+  private SessionRegistry sessionRegistry;
+
+  @Autowired
+  private PresenceTracker presenceTracker;
+
+  @BeforeEach
+  public void setup() {
+    userRepository.deleteAll();
+    sessionRegistry.clear();
+  }
+
+  private User credentials(String username) {
+    User user = new User();
+    user.setUsername(username);
+    user.setPassword("password");
+    return user;
+  }
+
+  private User withToken(Long id, String token) {
+    User user = new User();
+    user.setId(id);
+    user.setToken(token);
+    return user;
+  }
+
+  @Test
+  public void createUser_issuesSignedTokenWrittenBehind() {
+    User created = userService.createUser(credentials("signed"));
+
+    assertEquals(created.getId(), tokenSigner.verify(created.getToken()).getUserId());
+    assertEquals(0, sessionRegistry.size());
+    // accepted before the token has been written
+    User edit = withToken(created.getId(), created.getToken());
+    edit.setUsername("signedRenamed");
+    userService.editUser(edit);
+
+    presenceTracker.flush();
+    assertEquals(created.getToken(), userRepository.findById(created.getId()).get().getToken());
+  }
+
+  @Test
+  public void editUser_signedToken_accepted() {
+    User created = userService.createUser(credentials("before"));
+    User edit = withToken(created.getId(), created.getToken());
+    edit.setUsername("after");
+
+    userService.editUser(edit);
+
+    assertEquals("after", userService.findByID(created.getId()).getUsername());
+  }
+
+  @Test
+  public void logIn_revokesReplacedToken() {
+    User created = userService.createUser(credentials("relogin"));
+
+    String newToken = userService.logIn(credentials("relogin")).getToken();
+
+    User edit = withToken(created.getId(), created.getToken());
+    edit.setUsername("stolen");
+    ResponseStatusException exception = assertThrows(ResponseStatusException.class, () -> userService.editUser(edit));
+    assertEquals(HttpStatus.UNAUTHORIZED, exception.getStatus());
+    User ownEdit = withToken(created.getId(), newToken);
+    ownEdit.setUsername("relogged");
+    userService.editUser(ownEdit);
+    assertEquals("relogged", userService.findByID(created.getId()).getUsername());
+  }
+
+  @Test
+  public void logOutUser_revokesToken() {
+    User created = userService.createUser(credentials("logout"));
+
+    userService.logOutUser(withToken(created.getId(), created.getToken()));
+
+    ResponseStatusException exception = assertThrows(ResponseStatusException.class,
+        () -> userService.logOutUser(withToken(created.getId(), created.getToken())));
+    assertEquals(HttpStatus.UNAUTHORIZED, exception.getStatus());
+  }
+}
@@ -0,0 +1,110 @@
+package ch.uzh.ifi.hase.soprafs24.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TimingWheelTest {
+
+  private static final class Timer extends TimingWheel.Node {
+    final long deadline;
+    long firedAt = -1;
+
+    Timer(long deadline) {
+      this.deadline = deadline;
+    }
+  }
+
+  // one-millisecond ticks, so deadlines are ticks
+  private final TimingWheel<Timer> wheel = new TimingWheel<>(1, 0);
+
+  private Timer schedule(long deadline) {
+    Timer timer = new Timer(deadline);
+    wheel.schedule(timer, deadline);
+    return timer;
+  }
+
+  private void advanceTickByTick(long until) {
+    for (long now = 1; now <= until; now++) {
+      for (Timer timer : wheel.advance(now)) {
+        timer.firedAt = now;
+      }
+    }
+  }
+
+  @Test
+  public void advance_firesEachNodeAtItsDeadline() {
+    List<Timer> timers = new ArrayList<>();
+    // on every wheel and at their boundaries
+    for (long deadline : new long[] { 1, 63, 64, 65, 4095, 4096, 4097, 262143, 262144, 300000 }) {
+      timers.add(schedule(deadline));
+    }
+    Random random = new Random(42);
+    for (int i = 0; i < 10000; i++) {
+      timers.add(schedule(1 + random.nextInt(300000)));
+    }
+
+    advanceTickByTick(300000);
+
+    for (Timer timer : timers) {
+      assertEquals(timer.deadline, timer.firedAt);
+      assertFalse(timer.isScheduled());
+    }
+    assertEquals(0, wheel.size());
+  }
+
+  @Test
+  public void advance_afterAGap_firesEverythingDue() {
+    Timer early = schedule(10);
+    Timer due = schedule(5000);
+    Timer later = schedule(5001);
+
+    List<Timer> fired = wheel.advance(5000);
+
+    assertEquals(List.of(early, due), fired);
+    assertTrue(later.isScheduled());
+    assertEquals(List.of(later), wheel.advance(5001));
+  }
+
+  @Test
+  public void cancel_nodeNeverFires() {
+    Timer cancelled = schedule(100);
+    Timer kept = schedule(100);
+
+    wheel.cancel(cancelled);
+    // cancelling twice does nothing
+    wheel.cancel(cancelled);
+
+    assertEquals(List.of(kept), wheel.advance(100));
+    assertEquals(0, wheel.size());
+  }
+
+  @Test
+  public void schedule_pastDeadline_firesOnNextTick() {
+    wheel.advance(1000);
+    Timer timer = schedule(10);
+
+    assertTrue(wheel.advance(1000).isEmpty());
+    assertEquals(List.of(timer), wheel.advance(1001));
+  }
+
+  @Test
+  public void schedule_beyondTopWheel_firesAtDeadline() {
+    long deadline = (1L << 24) + 12345;
+    Timer timer = schedule(deadline);
+
+    assertTrue(wheel.advance(deadline - 1).isEmpty());
+    assertEquals(List.of(timer), wheel.advance(deadline));
+  }
+
+  @Test
+  public void schedule_scheduledNode_rejected() {
+    Timer timer = schedule(10);
+
+    assertThrows(IllegalStateException.class, () -> wheel.schedule(timer, 20));
+  }
+}
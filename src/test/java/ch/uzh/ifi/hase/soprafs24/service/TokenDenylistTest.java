@@ -0,0 +1,45 @@
+package ch.uzh.ifi.hase.soprafs24.service;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TokenDenylistTest {
+
+  private final TokenDenylist denylist = new TokenDenylist();
+
+  private static TokenSigner.Claims claims(long fingerprint, long expiresAt) {
+    return new TokenSigner.Claims(1L, 0L, expiresAt, fingerprint);
+  }
+
+  @Test
+  public void revoke_onlyDeniesThatToken() {
+    long expiresAt = System.currentTimeMillis() + 3600000;
+    denylist.revoke(claims(1L, expiresAt));
+
+    assertTrue(denylist.isRevoked(claims(1L, expiresAt)));
+    assertFalse(denylist.isRevoked(claims(2L, expiresAt)));
+    assertEquals(1, denylist.size());
+  }
+
+  @Test
+  public void revoke_expiredToken_notStored() {
+    denylist.revoke(claims(1L, System.currentTimeMillis() - 1));
+
+    assertEquals(0, denylist.size());
+  }
+
+  @Test
+  public void purgeExpired_dropsExpiredTokensOnly() {
+    long now = System.currentTimeMillis();
+    denylist.revoke(claims(1L, now + 60000));
+    denylist.revoke(claims(2L, now + 120000));
+    denylist.revoke(claims(3L, now + 7200000));
+
+    // ten minutes later
+    denylist.purgeExpired(now + 600000);
+
+    assertEquals(1, denylist.size());
+    assertTrue(denylist.isRevoked(claims(3L, now + 7200000)));
+  }
+}
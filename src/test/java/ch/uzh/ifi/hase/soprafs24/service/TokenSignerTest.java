@@ -0,0 +1,80 @@
+package ch.uzh.ifi.hase.soprafs24.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Base64;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TokenSignerTest {
+
+  private static final String KEY = Base64.getEncoder().encodeToString(new byte[32]);
+
+  private final TokenSigner signer = new TokenSigner(true, KEY, 60000);
+
+  @Test
+  public void verify_issuedToken_returnsClaims() {
+    long now = System.currentTimeMillis();
+    String token = signer.issue(42L, now);
+
+    TokenSigner.Claims claims = signer.verify(token);
+
+    assertTrue(signer.isSigned(token));
+    assertEquals(42L, claims.getUserId());
+    assertEquals(now, claims.getIssuedAt());
+    assertEquals(now + 60000, claims.getExpiresAt());
+  }
+
+  @Test
+  public void issue_sameUserAndTime_givesDistinctTokens() {
+    long now = System.currentTimeMillis();
+    String first = signer.issue(42L, now);
+    String second = signer.issue(42L, now);
+
+    assertNotEquals(first, second);
+    assertNotEquals(signer.verify(first).getFingerprint(), signer.verify(second).getFingerprint());
+  }
+
+  @Test
+  public void verify_tamperedToken_returnsNull() {
+    String token = signer.issue(42L);
+    // another user's ID under the same signature
+    String forged = signer.issue(43L).substring(0, token.indexOf('.')) + token.substring(token.indexOf('.'));
+    char last = token.charAt(token.length() - 1);
+    String badSignature = token.substring(0, token.length() - 1) + (last == 'A' ? 'B' : 'A');
+
+    assertNull(signer.verify(forged));
+    assertNull(signer.verify(badSignature));
+    assertNull(signer.verify(token.replace('.', '-')));
+    assertNull(signer.verify(token.substring(1)));
+  }
+
+  @Test
+  public void verify_otherKey_returnsNull() {
+    TokenSigner other = new TokenSigner(true, "", 60000);
+
+    assertNull(other.verify(signer.issue(42L)));
+  }
+
+  @Test
+  public void verify_expiredToken_returnsNull() {
+    assertNull(signer.verify(signer.issue(42L, System.currentTimeMillis() - 60001)));
+  }
+
+  @Test
+  public void verify_randomTokens_returnNull() {
+    String uuid = UUID.randomUUID().toString();
+
+    assertFalse(signer.isSigned(uuid));
+    assertNull(signer.verify(uuid));
+    assertNull(signer.verify(null));
+  }
+
+  @Test
+  public void constructor_shortKey_rejected() {
+    String shortKey = Base64.getEncoder().encodeToString(new byte[16]);
+
+    assertThrows(IllegalArgumentException.class, () -> new TokenSigner(true, shortKey, 60000));
+  }
+}
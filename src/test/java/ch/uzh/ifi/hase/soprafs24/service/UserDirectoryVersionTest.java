@@ -0,0 +1,57 @@
+package ch.uzh.ifi.hase.soprafs24.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class UserDirectoryVersionTest {
+
+  private static final String PAGE = "null&100&null&null";
+
+  @Test
+  public void change_invalidatesPreviousTag() {
+    UserDirectoryVersion directoryVersion = new UserDirectoryVersion();
+    long before = directoryVersion.current();
+    String tag = directoryVersion.eTagOf(before, PAGE);
+    assertNotNull(tag);
+
+    directoryVersion.markChanged();
+
+    assertNull(directoryVersion.eTagOf(before, PAGE));
+    assertNotEquals(tag, directoryVersion.eTagOf(directoryVersion.current(), PAGE));
+  }
+
+  @Test
+  public void changeInFlight_noTagUntilCompleted() {
+    UserDirectoryVersion directoryVersion = new UserDirectoryVersion();
+    TransactionSynchronizationManager.initSynchronization();
+    try {
+      directoryVersion.markChanged();
+      assertEquals(-1, directoryVersion.current());
+      assertNull(directoryVersion.eTagOf(directoryVersion.current(), PAGE));
+
+      for (TransactionSynchronization synchronization : TransactionSynchronizationManager.getSynchronizations()) {
+        synchronization.afterCompletion(TransactionSynchronization.STATUS_COMMITTED);
+      }
+    } finally {
+      TransactionSynchronizationManager.clearSynchronization();
+    }
+    assertNotNull(directoryVersion.eTagOf(directoryVersion.current(), PAGE));
+  }
+
+  @Test
+  public void pagesOfOneVersion_getDifferentTags() {
+    UserDirectoryVersion directoryVersion = new UserDirectoryVersion();
+    long version = directoryVersion.current();
+
+    assertEquals(directoryVersion.eTagOf(version, PAGE), directoryVersion.eTagOf(version, PAGE));
+    assertNotEquals(directoryVersion.eTagOf(version, PAGE), directoryVersion.eTagOf(version, "100&100&null&null"));
+    assertNotEquals(directoryVersion.eTagOf(version, PAGE), directoryVersion.eTagOf(version, "null&100&ONLINE&null"));
+    // same String.hashCode(), different pages
+    assertEquals("null&100&null&Aa".hashCode(), "null&100&null&BB".hashCode());
+    assertNotEquals(directoryVersion.eTagOf(version, "null&100&null&Aa"),
+        directoryVersion.eTagOf(version, "null&100&null&BB"));
+  }
+}
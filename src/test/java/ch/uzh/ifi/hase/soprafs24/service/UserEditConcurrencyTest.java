@@ -0,0 +1,242 @@
+package ch.uzh.ifi.hase.soprafs24.service;
+
+import ch.uzh.ifi.hase.soprafs24.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs24.entity.User;
+import ch.uzh.ifi.hase.soprafs24.repository.UserRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.context.web.WebAppConfiguration;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Concurrent edits, presence writes and renames of the same rows. Only the
+ * version column keeps edits apart, no row is locked for the duration of an
+ * edit, and presence writes do not touch it at all. Each test checks that no write is lost and that every edit either
+ * went through or was rejected with a client error, and logs the throughput.
+ */
+@WebAppConfiguration
+@SpringBootTest(properties = {
+    "presence.flush-interval-ms=3600000",
+    "passwords.bcrypt-strength=4"
+})
+public class UserEditConcurrencyTest {
+
+  private final Logger log = LoggerFactory.getLogger(UserEditConcurrencyTest.class);
+
+  private static final int THREADS = 4;
+
+  private static final int EDITS_PER_THREAD = 100;
+
+  @Qualifier("userRepository")
+  @Autowired
+  private UserRepository userRepository;
+
+  @Autowired
+  private UserService userService;
+
+  @Autowired
+  private SessionRegistry sessionRegistry;
+
+  @Autowired
+  private PresenceTracker presenceTracker;
+
+  @BeforeEach
+  public void setup() {
+    presenceTracker.flush();
+    userRepository.deleteAll();
+    sessionRegistry.clear();
+  }
+
+  private User createUser(String username) {
+    User user = new User();
+    user.setUsername(username);
+    user.setPassword("password");
+    return userService.createUser(user);
+  }
+
+  private static User edit(User user, String username, Date birthday, Long version) {
+    User edit = new User();
+    edit.setId(user.getId());
+    edit.setToken(user.getToken());
+    edit.setUsername(username);
+    edit.setBirthday(birthday);
+    edit.setVersion(version);
+    return edit;
+  }
+
+  // runs the tasks at the same time and returns how long they took in milliseconds
+  private static long runConcurrently(List<Callable<Void>> tasks) throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(tasks.size());
+    CyclicBarrier start = new CyclicBarrier(tasks.size());
+    try {
+      List<Future<Void>> futures = new ArrayList<>();
+      long started = System.nanoTime();
+      for (Callable<Void> task : tasks) {
+        futures.add(executor.submit(() -> {
+          start.await();
+          return task.call();
+        }));
+      }
+      for (Future<Void> future : futures) {
+        future.get(2, TimeUnit.MINUTES);
+      }
+      return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void editsAndPresenceWrites_toTheSameRow_areAllKept() throws Exception {
+    User user = createUser("contended");
+    AtomicReference<User> lastEdit = new AtomicReference<>();
+    Map<HttpStatus, AtomicInteger> rejected = new ConcurrentHashMap<>();
+
+    // one thread edits the profile, the others write presence to the same row, as logins and logouts do
+    List<Callable<Void>> tasks = new ArrayList<>();
+    tasks.add(() -> {
+      for (int i = 0; i < EDITS_PER_THREAD; i++) {
+        User edit = edit(user, "contended-" + i, new Date(86400000L * (i + 1)), null);
+        try {
+          userService.editUser(edit);
+          lastEdit.set(edit);
+        } catch (ResponseStatusException e) {
+          rejected.computeIfAbsent(e.getStatus(), status -> new AtomicInteger()).incrementAndGet();
+        }
+      }
+      return null;
+    });
+    for (int thread = 1; thread < THREADS; thread++) {
+      tasks.add(() -> {
+        for (int i = 0; i < EDITS_PER_THREAD; i++) {
+          // the token stays the same, so the edits remain authenticated
+          presenceTracker.record(user.getId(), i % 2 == 0 ? UserStatus.OFFLINE : UserStatus.ONLINE,
+              user.getToken());
+          presenceTracker.flush();
+        }
+        return null;
+      });
+    }
+    long millis = runConcurrently(tasks);
+
+    User stored = userRepository.findById(user.getId()).get();
+    log.info("{} edits and {} presence writes in {} ms, rejected {}", EDITS_PER_THREAD,
+        (THREADS - 1) * EDITS_PER_THREAD, millis, rejected);
+    assertEquals(0, presenceTracker.pendingCount());
+    // neither kind of write undid the other
+    assertEquals(lastEdit.get().getUsername(), stored.getUsername());
+    assertEquals(lastEdit.get().getBirthday().getTime(), stored.getBirthday().getTime());
+    assertEquals(UserStatus.ONLINE, stored.getStatus());
+    assertEquals(user.getToken(), stored.getToken());
+    // presence writes leave the version alone, so the edits never had to give way
+    assertTrue(rejected.isEmpty(), rejected::toString);
+    assertEquals(user.getVersion() + EDITS_PER_THREAD, stored.getVersion());
+  }
+
+  @Test
+  public void presenceFlush_keepsVersion_soEarlierETagsStillMatch() {
+    User user = createUser("loggedIn");
+    presenceTracker.flush();
+    Long version = userRepository.findById(user.getId()).get().getVersion();
+
+    presenceTracker.record(user.getId(), UserStatus.OFFLINE, null);
+    presenceTracker.record(user.getId(), UserStatus.ONLINE, user.getToken());
+    presenceTracker.flush();
+
+    User stored = userRepository.findById(user.getId()).get();
+    assertEquals(version, stored.getVersion());
+    assertEquals(UserStatus.ONLINE, stored.getStatus());
+    // an edit conditional on the version read before the login goes through
+    userService.editUser(edit(user, "loggedIn", new Date(86400000L), version));
+    assertEquals(version + 1, userRepository.findById(user.getId()).get().getVersion());
+  }
+
+  @Test
+  public void concurrentRenamesToTheSameName_onlyOneWins() throws Exception {
+    List<User> users = new ArrayList<>();
+    for (int thread = 0; thread < THREADS; thread++) {
+      users.add(createUser("renamer-" + thread));
+    }
+    AtomicInteger renamed = new AtomicInteger();
+    AtomicInteger forbidden = new AtomicInteger();
+
+    List<Callable<Void>> tasks = new ArrayList<>();
+    for (User user : users) {
+      tasks.add(() -> {
+        for (int i = 0; i < EDITS_PER_THREAD; i++) {
+          try {
+            userService.editUser(edit(user, "taken-" + i, null, null));
+            renamed.incrementAndGet();
+          } catch (ResponseStatusException e) {
+            assertEquals(HttpStatus.FORBIDDEN, e.getStatus());
+            forbidden.incrementAndGet();
+          }
+        }
+        return null;
+      });
+    }
+    long millis = runConcurrently(tasks);
+
+    log.info("{} concurrent renames in {} ms, {} went through", THREADS * EDITS_PER_THREAD, millis, renamed);
+    // every name went to whoever tried it first, the others were turned away and nobody shares a name
+    assertEquals(THREADS * EDITS_PER_THREAD, renamed.get() + forbidden.get());
+    assertTrue(renamed.get() >= EDITS_PER_THREAD);
+    assertEquals(THREADS, userRepository.findAll().stream().map(User::getUsername).distinct().count());
+  }
+
+  @Test
+  public void conditionalEdits_exactlyOnePerVersionWins() throws Exception {
+    User user = createUser("conditional");
+    AtomicInteger succeeded = new AtomicInteger();
+    AtomicInteger preconditionFailed = new AtomicInteger();
+
+    // every thread reads the version and edits the birthday only if it is still current
+    List<Callable<Void>> tasks = new ArrayList<>();
+    for (int thread = 0; thread < THREADS; thread++) {
+      int offset = thread;
+      tasks.add(() -> {
+        for (int i = 0; i < EDITS_PER_THREAD; i++) {
+          Long version = userRepository.findById(user.getId()).get().getVersion();
+          try {
+            userService.editUser(edit(user, null, new Date(86400000L * (THREADS * i + offset + 1)), version));
+            succeeded.incrementAndGet();
+          } catch (ResponseStatusException e) {
+            assertEquals(HttpStatus.PRECONDITION_FAILED, e.getStatus());
+            preconditionFailed.incrementAndGet();
+          }
+        }
+        return null;
+      });
+    }
+    long initialVersion = userRepository.findById(user.getId()).get().getVersion();
+    long millis = runConcurrently(tasks);
+
+    long finalVersion = userRepository.findById(user.getId()).get().getVersion();
+    log.info("{} conditional edits in {} ms, {} went through", THREADS * EDITS_PER_THREAD, millis, succeeded);
+    // no two edits based on the same version both went through
+    assertEquals(finalVersion - initialVersion, succeeded.get());
+    assertEquals(THREADS * EDITS_PER_THREAD, succeeded.get() + preconditionFailed.get());
+  }
+}
@@ -0,0 +1,69 @@
+package ch.uzh.ifi.hase.soprafs24.service;
+
+import ch.uzh.ifi.hase.soprafs24.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs24.entity.User;
+import ch.uzh.ifi.hase.soprafs24.repository.UserRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.web.WebAppConfiguration;
+
+import javax.persistence.EntityManager;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@WebAppConfiguration
+@SpringBootTest
+public class UserExportServiceIntegrationTest {
+
+  @Qualifier("userRepository")
+  @Autowired
+  private UserRepository userRepository;
+
+  @Autowired
+  private UserExportService userExportService;
+
+  @Autowired
+  private EntityManager entityManager;
+
+  @BeforeEach
+  public void setup() {
+    userRepository.deleteAll();
+  }
+
+  @Test
+  public void exportUsers_streamsAllInIdOrder_andDetachesThem() throws Exception {
+    // given
+    for (int i = 0; i < 5; i++) {
+      User user = new User();
+      user.setUsername("export" + i);
+      user.setPassword("password");
+      user.setToken("export-token" + i);
+      user.setStatus(UserStatus.OFFLINE);
+      user.setCreationDate(new Date());
+      userRepository.save(user);
+    }
+    List<User> written = new ArrayList<>();
+
+    // when -> checked while the export transaction is still open, outside of it nothing is managed
+    long count = userExportService.exportUsers(user -> {
+      assertTrue(entityManager.contains(user));
+      for (User earlier : written) {
+        assertFalse(entityManager.contains(earlier));
+      }
+      written.add(user);
+    });
+
+    // then
+    assertEquals(5, count);
+    assertEquals(5, written.size());
+    for (int i = 1; i < written.size(); i++) {
+      assertTrue(written.get(i - 1).getId() < written.get(i).getId());
+    }
+  }
+}
@@ -0,0 +1,178 @@
+package ch.uzh.ifi.hase.soprafs24.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class UserListCacheTest {
+
+  private final AtomicInteger loads = new AtomicInteger();
+
+  // a tagged page of the given number of usernames
+  private Supplier<ResponseEntity<?>> page(int users) {
+    return () -> {
+      loads.incrementAndGet();
+      List<String> usernames = new ArrayList<>();
+      for (int i = 0; i < users; i++) {
+        usernames.add("user" + i);
+      }
+      return ResponseEntity.ok().eTag("W/\"tag\"").body(usernames);
+    };
+  }
+
+  @Test
+  public void get_sameVersion_servedFromCache() {
+    UserListCache cache = new UserListCache(new ObjectMapper(), 1 << 20);
+
+    cache.get("/users", 1L, page(3));
+    UserListCache.Page cached = cache.get("/users", 1L, page(3));
+
+    assertEquals("[\"user0\",\"user1\",\"user2\"]", new String(cached.getJson()));
+    assertEquals(1, loads.get());
+    assertEquals(1, cache.getHitCount());
+    assertEquals(1, cache.getRebuildCount());
+    assertEquals("W/\"tag\"", cached.toResponse(false).getHeaders().getETag());
+  }
+
+  @Test
+  public void get_newVersionOrUntagged_rebuilt() {
+    UserListCache cache = new UserListCache(new ObjectMapper(), 1 << 20);
+
+    cache.get("/users", 1L, page(3));
+    cache.get("/users", 2L, page(3));
+    // loaded while the table changed -> returned, but not kept
+    cache.get("/users?limit=1", 2L, () -> ResponseEntity.ok().body(List.of("user0")));
+    cache.get("/users?limit=1", 2L, page(1));
+
+    assertEquals(3, loads.get());
+    assertEquals(4, cache.getRebuildCount());
+    assertEquals(2, cache.size());
+  }
+
+  @Test
+  public void get_largePage_storedCompressed() {
+    UserListCache cache = new UserListCache(new ObjectMapper(), 1 << 20);
+
+    UserListCache.Page small = cache.get("/users?limit=1", 1L, page(1));
+    UserListCache.Page large = cache.get("/users", 1L, page(200));
+
+    assertNull(small.getGzip());
+    assertTrue(large.getGzip().length < large.getJson().length);
+    ResponseEntity<byte[]> response = large.toResponse(true);
+    assertEquals("gzip", response.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING));
+    assertSame(large.getGzip(), response.getBody());
+    assertSame(small.getJson(), small.toResponse(true).getBody());
+  }
+
+  @Test
+  public void get_overMemoryCap_evictsLeastRecentlyUsed() {
+    UserListCache cache = new UserListCache(new ObjectMapper(), 80);
+
+    cache.get("/users?after=1", 1L, page(4));
+    cache.get("/users?after=2", 1L, page(4));
+    cache.get("/users?after=1", 1L, page(4));
+    cache.get("/users?after=3", 1L, page(4));
+
+    assertEquals(2, cache.size());
+    assertEquals(1, cache.getEvictionCount());
+    assertTrue(cache.getBytes() <= 80);
+    cache.get("/users?after=1", 1L, page(4));
+    assertEquals(3, loads.get());
+  }
+
+  @Test
+  public void get_concurrentMisses_shareOneLoad() throws Exception {
+    UserListCache cache = new UserListCache(new ObjectMapper(), 1 << 20);
+    CountDownLatch release = new CountDownLatch(1);
+    Supplier<ResponseEntity<?>> slowPage = () -> {
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      return page(3).get();
+    };
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<UserListCache.Page>> results = new ArrayList<>();
+      for (int i = 0; i < 8; i++) {
+        results.add(executor.submit(() -> cache.get("/users", 1L, slowPage)));
+      }
+      // all but the first wait for its load
+      long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+      while (cache.getCoalescedCount() < 7 && System.nanoTime() < deadline) {
+        Thread.sleep(1);
+      }
+      assertEquals(7, cache.getCoalescedCount());
+      release.countDown();
+
+      UserListCache.Page first = results.get(0).get(5, TimeUnit.SECONDS);
+      for (Future<UserListCache.Page> result : results) {
+        assertSame(first, result.get(5, TimeUnit.SECONDS));
+      }
+      assertEquals(1, loads.get());
+      assertEquals(1, cache.getMissCount());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void get_failedLoad_failsWaitingCallersAndIsRetried() throws Exception {
+    UserListCache cache = new UserListCache(new ObjectMapper(), 1 << 20);
+    CountDownLatch release = new CountDownLatch(1);
+    Supplier<ResponseEntity<?>> failing = () -> {
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      throw new IllegalStateException("database down");
+    };
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      Future<UserListCache.Page> leader = executor.submit(() -> cache.get("/users", 1L, failing));
+      Future<UserListCache.Page> follower = executor.submit(() -> cache.get("/users", 1L, failing));
+      long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+      while (cache.getCoalescedCount() < 1 && System.nanoTime() < deadline) {
+        Thread.sleep(1);
+      }
+      release.countDown();
+
+      for (Future<UserListCache.Page> result : List.of(leader, follower)) {
+        ExecutionException exception = assertThrows(ExecutionException.class, () -> result.get(5, TimeUnit.SECONDS));
+        assertTrue(exception.getCause() instanceof IllegalStateException);
+      }
+      // nothing is left behind, the next call loads again
+      assertNotNull(cache.get("/users", 1L, page(3)));
+      assertEquals(1, loads.get());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void onUserChanged_emptiesTheCache() {
+    UserListCache cache = new UserListCache(new ObjectMapper(), 1 << 20);
+    cache.get("/users", 1L, page(3));
+
+    cache.onUserChanged(new UserChangedEvent(1L, UserChangedEvent.Type.LOGGED_IN, "user0", "user0", null));
+
+    assertEquals(0, cache.size());
+    assertEquals(0, cache.getBytes());
+  }
+}
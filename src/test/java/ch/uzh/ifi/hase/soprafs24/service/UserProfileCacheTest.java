@@ -0,0 +1,122 @@
+package ch.uzh.ifi.hase.soprafs24.service;
+
+import ch.uzh.ifi.hase.soprafs24.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs24.rest.dto.UserDTO;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class UserProfileCacheTest {
+
+  private final AtomicInteger loads = new AtomicInteger();
+
+  private UserProfileCache.Profile load(Long id) {
+    loads.incrementAndGet();
+    UserDTO profile = new UserDTO();
+    profile.setId(id);
+    profile.setUsername("user" + id);
+    return new UserProfileCache.Profile(profile, 0L);
+  }
+
+  @Test
+  public void get_secondCall_servedFromCache() {
+    UserProfileCache cache = new UserProfileCache(10, 60000);
+
+    cache.get(1L, this::load);
+    UserProfileCache.Profile cached = cache.get(1L, this::load);
+
+    assertEquals("user1", cached.getUser().getUsername());
+    assertTrue(cached.getETag().startsWith("W/\"1-0-"));
+    assertEquals(1, loads.get());
+    assertEquals(1, cache.getHitCount());
+    assertEquals(1, cache.getMissCount());
+  }
+
+  @Test
+  public void get_unknownUser_notCached() {
+    UserProfileCache cache = new UserProfileCache(10, 60000);
+
+    assertNull(cache.get(1L, id -> null));
+    assertEquals(0, cache.size());
+  }
+
+  @Test
+  public void userChanged_evictsEntry() {
+    UserProfileCache cache = new UserProfileCache(10, 60000);
+    cache.get(1L, this::load);
+
+    cache.onUserChanged(new UserChangedEvent(1L, UserChangedEvent.Type.LOGGED_OUT, "user1", "user1", UserStatus.OFFLINE));
+    cache.get(1L, this::load);
+
+    assertEquals(2, loads.get());
+  }
+
+  @Test
+  public void invalidationDuringLoad_resultNotStored() {
+    UserProfileCache cache = new UserProfileCache(10, 60000);
+
+    cache.get(1L, id -> {
+      cache.invalidate(id);
+      return load(id);
+    });
+
+    assertEquals(0, cache.size());
+  }
+
+  @Test
+  public void invalidationOfOtherUserDuringLoad_resultStored() {
+    UserProfileCache cache = new UserProfileCache(10, 60000);
+
+    cache.get(1L, id -> {
+      cache.invalidate(2L);
+      cache.onUserChanged(new UserChangedEvent(3L, UserChangedEvent.Type.LOGGED_IN, "user3", "user3", UserStatus.ONLINE));
+      return load(id);
+    });
+    cache.get(1L, this::load);
+
+    assertEquals(1, cache.size());
+    assertEquals(1, loads.get());
+  }
+
+  @Test
+  public void clearDuringLoad_resultNotStored() {
+    UserProfileCache cache = new UserProfileCache(10, 60000);
+
+    cache.get(1L, id -> {
+      cache.clear();
+      return load(id);
+    });
+
+    assertEquals(0, cache.size());
+  }
+
+  @Test
+  public void capacityAndTtl_evictEntries() throws InterruptedException {
+    UserProfileCache bounded = new UserProfileCache(2, 60000);
+    for (long id = 0; id < 5; id++) {
+      bounded.get(id, this::load);
+    }
+    assertEquals(2, bounded.size());
+    assertEquals(3, bounded.getEvictionCount());
+
+    UserProfileCache expiring = new UserProfileCache(10, 5);
+    expiring.get(1L, this::load);
+    Thread.sleep(20);
+    expiring.get(1L, this::load);
+    assertEquals(1, expiring.getEvictionCount());
+    assertEquals(2, expiring.getMissCount());
+  }
+
+  @Test
+  public void versionOf_readsVersionFromETag() {
+    String eTag = new UserProfileCache.Profile(load(1L).getUser(), 7L).getETag();
+
+    assertEquals(7L, UserProfileCache.Profile.versionOf(eTag, 1L));
+    assertEquals(7L, UserProfileCache.Profile.versionOf(eTag.substring(2), 1L));
+    // a tag of another user or of the list
+    assertNull(UserProfileCache.Profile.versionOf(eTag, 2L));
+    assertNull(UserProfileCache.Profile.versionOf("W/\"abc-7\"", 1L));
+  }
+}
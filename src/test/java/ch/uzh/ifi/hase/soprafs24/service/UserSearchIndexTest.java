@@ -0,0 +1,141 @@
+package ch.uzh.ifi.hase.soprafs24.service;
+
+import ch.uzh.ifi.hase.soprafs24.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs24.entity.User;
+import ch.uzh.ifi.hase.soprafs24.repository.UserRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class UserSearchIndexTest {
+
+  private UserSearchIndex index;
+
+  private final Map<Long, String> created = new HashMap<>();
+
+  private long nextId = 1;
+
+  @BeforeEach
+  public void setup() {
+    index = new UserSearchIndex(Mockito.mock(UserRepository.class));
+    for (String username : List.of("bob", "Bobby", "bob1", "alice", "alicia", "malice", "bo", "robert", "roberta",
+        "maximilian")) {
+      create(username);
+    }
+  }
+
+  @Test
+  public void search_prefix_exactMatchFirstThenAlphabetical() {
+    assertEquals(List.of("bob", "bob1", "Bobby"), usernames(index.search("bob", 10)));
+    assertEquals(List.of("bo", "bob", "bob1", "Bobby"), usernames(index.search(" BO", 10)));
+  }
+
+  @Test
+  public void search_shortQuery_noTypos() {
+    // "bib" would be one substitution away from "bob", but three characters are too few to guess
+    assertTrue(index.search("bib", 10).isEmpty());
+  }
+
+  @Test
+  public void search_typos_rankedAfterPrefixMatches() {
+    // alice and alicia start with "alic", malice is one deletion away
+    assertEquals(List.of("alice", "alicia", "malice"), usernames(index.search("alic", 10)));
+    // one substitution, ranked by distance then name
+    assertEquals(List.of("alice"), usernames(index.search("alixe", 10)));
+    // two typos are accepted from ten characters on, shorter queries get one
+    assertEquals(List.of("maximilian"), usernames(index.search("maximilain", 10)));
+    assertEquals(List.of("maximilian"), usernames(index.search("maximilan", 10)));
+    assertTrue(index.search("rpbertax", 10).isEmpty());
+  }
+
+  @Test
+  public void search_maxResults_keepsTheBestMatches() {
+    assertEquals(List.of("bob", "bob1"), usernames(index.search("bob", 2)));
+    assertEquals(List.of("alice"), usernames(index.search("alic", 1)));
+  }
+
+  @Test
+  public void onUserChanged_renamesAndPresence_followed() {
+    Long id = create("charlie");
+
+    index.onUserChanged(new UserChangedEvent(id, UserChangedEvent.Type.LOGGED_IN, "charlie", "charlie",
+        UserStatus.ONLINE));
+    index.onUserChanged(new UserChangedEvent(id, UserChangedEvent.Type.UPDATED, "chuck", "charlie",
+        UserStatus.OFFLINE));
+
+    assertTrue(index.search("charlie", 10).isEmpty());
+    User chuck = index.search("chuck", 10).get(0);
+    assertEquals(id, chuck.getId());
+    assertEquals(UserStatus.ONLINE, chuck.getStatus());
+    assertEquals(11, index.size());
+  }
+
+  @Test
+  public void search_manyUsers_matchesBruteForce() {
+    for (int i = 0; i < 5000; i++) {
+      create("player" + Integer.toString(i * 7919 % 100003, 36));
+    }
+
+    for (String query : List.of("player1", "plaier1a", "playre2", "pla", "xplayer", "player1zz", "robrta",
+        "plauer1a2bc", "xlayer12345")) {
+      List<String> found = index.search(query, Integer.MAX_VALUE).stream()
+          .map(User::getUsername).sorted().collect(Collectors.toList());
+      assertEquals(bruteForce(query), found, query);
+    }
+  }
+
+  // every name whose closest prefix is within the allowed distance of the query
+  private List<String> bruteForce(String query) {
+    String normalized = UserSearchIndex.normalize(query);
+    int maxDistance = UserSearchIndex.maxDistance(normalized.length());
+    return created.values().stream()
+        .filter(name -> prefixDistance(normalized, UserSearchIndex.normalize(name)) <= maxDistance)
+        .sorted().collect(Collectors.toList());
+  }
+
+  private static int prefixDistance(String query, String name) {
+    int best = Integer.MAX_VALUE;
+    for (int length = 0; length <= name.length(); length++) {
+      best = Math.min(best, levenshtein(query, name.substring(0, length)));
+    }
+    return best;
+  }
+
+  private static int levenshtein(String a, String b) {
+    int[] previous = new int[b.length() + 1];
+    int[] current = new int[b.length() + 1];
+    for (int j = 0; j <= b.length(); j++) {
+      previous[j] = j;
+    }
+    for (int i = 1; i <= a.length(); i++) {
+      current[0] = i;
+      for (int j = 1; j <= b.length(); j++) {
+        int substitution = previous[j - 1] + (a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1);
+        current[j] = Math.min(substitution, Math.min(previous[j] + 1, current[j - 1] + 1));
+      }
+      int[] swap = previous;
+      previous = current;
+      current = swap;
+    }
+    return previous[b.length()];
+  }
+
+  private Long create(String username) {
+    Long id = nextId++;
+    created.put(id, username);
+    index.onUserChanged(new UserChangedEvent(id, UserChangedEvent.Type.CREATED, username, username,
+        UserStatus.OFFLINE));
+    return id;
+  }
+
+  private static List<String> usernames(List<User> users) {
+    return users.stream().map(User::getUsername).collect(Collectors.toList());
+  }
+}
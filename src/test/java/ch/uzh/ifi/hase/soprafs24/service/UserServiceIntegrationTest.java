@@ -3,14 +3,35 @@ package ch.uzh.ifi.hase.soprafs24.service;
 import ch.uzh.ifi.hase.soprafs24.constant.UserStatus;
 import ch.uzh.ifi.hase.soprafs24.entity.User;
 import ch.uzh.ifi.hase.soprafs24.repository.UserRepository;
+import ch.uzh.ifi.hase.soprafs24.repository.UserSummary;
+import ch.uzh.ifi.hase.soprafs24.statistics.QueryCountExtension;
+import ch.uzh.ifi.hase.soprafs24.statistics.QueryCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mockito;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.data.domain.Slice;
+import org.springframework.http.HttpStatus;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.test.context.web.WebAppConfiguration;
 import org.springframework.web.server.ResponseStatusException;
 
+import javax.persistence.EntityManagerFactory;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 /**
@@ -19,7 +40,12 @@ import static org.junit.jupiter.api.Assertions.*;
  * @see UserService
  */
 @WebAppConfiguration
-@SpringBootTest
+@SpringBootTest(properties = {
+    "spring.jpa.properties.hibernate.generate_statistics=true",
+    "presence.flush-interval-ms=3600000",
+    "passwords.bcrypt-strength=4"
+})
+@ExtendWith(QueryCountExtension.class)
 public class UserServiceIntegrationTest {
 
   @Qualifier("userRepository")
@@ -29,6 +55,21 @@ public class UserServiceIntegrationTest {
   @Autowired
   private UserService userService;
 
+  @Autowired
+  private EntityManagerFactory entityManagerFactory;
+
+  @Autowired
+  private PresenceTracker presenceTracker;
+
+  @SpyBean
+  private JdbcTemplate jdbcTemplate;
+
+  @Autowired
+  private MeterRegistry meterRegistry;
+
+  @Autowired
+  private UsernameBloomFilter usernameFilter;
+
   @BeforeEach
   public void setup() {
     userRepository.deleteAll();
@@ -73,4 +114,359 @@ public class UserServiceIntegrationTest {
     // check that an error is thrown
     assertThrows(ResponseStatusException.class, () -> userService.createUser(testUser2));
   }
+
+  @Test
+  public void logOutUser_presenceWrittenBehind() {
+    // given
+    User createdUser = userService.createUser(newUser("presence"));
+    User logout = new User();
+    logout.setId(createdUser.getId());
+    logout.setToken(createdUser.getToken());
+
+    // when
+    userService.logOutUser(logout);
+
+    // then -> reads see the new state right away, the row only once the flush has written it
+    assertEquals(UserStatus.OFFLINE, userService.findByID(createdUser.getId()).getStatus());
+    User before = userRepository.findById(createdUser.getId()).get();
+    assertEquals(UserStatus.ONLINE, before.getStatus());
+
+    presenceTracker.flush();
+
+    // the flush writes status and token only, the version stays as it was
+    User stored = userRepository.findById(createdUser.getId()).get();
+    assertEquals(UserStatus.OFFLINE, stored.getStatus());
+    assertNull(stored.getToken());
+    assertEquals(before.getVersion(), stored.getVersion());
+    assertEquals(0, presenceTracker.pendingCount());
+  }
+
+  @Test
+  public void getUsers_statusFilter_seesPendingPresence() {
+    // given -> three online users, the middle one logged out but not flushed yet
+    User first = userService.createUser(newUser("filterA"));
+    User second = userService.createUser(newUser("filterB"));
+    User third = userService.createUser(newUser("filterC"));
+    User logout = new User();
+    logout.setId(second.getId());
+    logout.setToken(second.getToken());
+    userService.logOutUser(logout);
+    assertEquals(UserStatus.ONLINE, userRepository.findById(second.getId()).get().getStatus());
+
+    // when
+    Slice<UserSummary> online = userService.getUsers(null, 2, UserStatus.ONLINE, "filter");
+    Slice<UserSummary> offline = userService.getUsers(null, 2, UserStatus.OFFLINE, "filter");
+
+    // then -> the page is filled past the user that went offline
+    assertEquals(List.of(first.getId(), third.getId()),
+        online.getContent().stream().map(UserSummary::getId).collect(Collectors.toList()));
+    assertFalse(online.hasNext());
+    assertEquals(List.of(second.getId()),
+        offline.getContent().stream().map(UserSummary::getId).collect(Collectors.toList()));
+    assertEquals(UserStatus.OFFLINE, offline.getContent().get(0).getStatus());
+  }
+
+  @Test
+  public void logIn_newTokenResolvesBeforeFlush() {
+    // given
+    User createdUser = userService.createUser(newUser("pendingToken"));
+    String oldToken = createdUser.getToken();
+
+    // when
+    String newToken = userService.logIn(newUser("pendingToken")).getToken();
+
+    // then -> the replaced token no longer works, the new one does right away
+    ResponseStatusException rejected = assertThrows(ResponseStatusException.class,
+        () -> userService.logOutUser(withToken(createdUser.getId(), oldToken)));
+    assertEquals(HttpStatus.UNAUTHORIZED, rejected.getStatus());
+    userService.logOutUser(withToken(createdUser.getId(), newToken));
+    assertEquals(UserStatus.OFFLINE, userService.findByID(createdUser.getId()).getStatus());
+  }
+
+  @Test
+  public void logIn_plaintextPassword_rehashedTransparently() {
+    // given -> a user stored before passwords were hashed
+    User legacy = newUser("legacy");
+    legacy.setToken(UUID.randomUUID().toString());
+    legacy.setStatus(UserStatus.OFFLINE);
+    legacy.setCreationDate(new Date());
+    userRepository.saveAndFlush(legacy);
+
+    // when
+    userService.logIn(newUser("legacy"));
+
+    // then -> the stored password is a hash now and still accepted
+    String stored = userRepository.findByUsername("legacy").getPassword();
+    assertNotEquals("password", stored);
+    assertTrue(stored.startsWith("$2"));
+    assertNotNull(userService.logIn(newUser("legacy")).getToken());
+    User wrong = newUser("legacy");
+    wrong.setPassword("wrong");
+    assertThrows(ResponseStatusException.class, () -> userService.logIn(wrong));
+  }
+
+  @Test
+  public void logIn_rehash_notUndoneByEditOfStaleUser() {
+    // given -> a legacy user, read before its password is rehashed
+    User legacy = newUser("staleEdit");
+    legacy.setToken(UUID.randomUUID().toString());
+    legacy.setStatus(UserStatus.OFFLINE);
+    legacy.setCreationDate(new Date());
+    userRepository.saveAndFlush(legacy);
+    User stale = userRepository.findByUsername("staleEdit");
+
+    // when -> the rehash leaves the version alone, so the stale edit goes through
+    userService.logIn(newUser("staleEdit"));
+    stale.setBirthday(new Date(0));
+    userRepository.saveAndFlush(stale);
+
+    // then -> the edit did not write the plaintext password back
+    User stored = userRepository.findByUsername("staleEdit");
+    assertEquals(0L, stored.getBirthday().getTime());
+    assertTrue(stored.getPassword().startsWith("$2"));
+  }
+
+  @Test
+  public void createUsers_batch_reportsConflicts_andBatchesStatements() {
+    Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+    userService.createUser(newUser("taken"));
+
+    List<User> inputs = new ArrayList<>();
+    for (int i = 0; i < 200; i++) {
+      inputs.add(newUser("batch" + i));
+    }
+    inputs.add(newUser("taken"));
+    inputs.add(newUser("batch0"));
+
+    // when
+    statistics.clear();
+    List<User> results = userService.createUsers(inputs);
+    long batchStatements = statistics.getPrepareStatementCount();
+
+    // then -> one result per input, conflicts with the table and within the batch
+    assertEquals(202, results.size());
+    assertNotNull(results.get(0).getId());
+    assertNotNull(results.get(199).getToken());
+    assertNull(results.get(200));
+    assertNull(results.get(201));
+    assertEquals(201, userRepository.count());
+
+    // the single-create path needs a query and an insert per user
+    statistics.clear();
+    for (int i = 0; i < 20; i++) {
+      userService.createUser(newUser("single" + i));
+    }
+    long singleStatements = statistics.getPrepareStatementCount();
+    assertTrue(batchStatements < singleStatements,
+        String.format("batch of 200 used %d statements, 20 single creates used %d", batchStatements, singleStatements));
+  }
+
+  @Test
+  public void userFlows_stayWithinQueryBudgets(QueryCounter queries) throws Exception {
+    // a populated table, so that scans would show up as entity loads
+    List<User> seed = new ArrayList<>();
+    for (int i = 0; i < 300; i++) {
+      seed.add(newUser("seed" + i));
+    }
+    userService.createUsers(seed);
+
+    List<User> batch = new ArrayList<>();
+    for (int i = 0; i < 100; i++) {
+      batch.add(newUser("budgetBatch" + i));
+    }
+    queries.measure("createUsers", () -> userService.createUsers(batch))
+        .assertStatementsAtMost(6)
+        .assertEntityLoadsAtMost(0)
+        .assertQueryRowsAtMost(0)
+        .assertNoNPlusOne();
+
+    User[] user = new User[1];
+    queries.measure("createUser", () -> user[0] = userService.createUser(newUser("budget")))
+        .assertStatementsAtMost(3)
+        .assertEntityLoadsAtMost(0)
+        .assertNoNPlusOne();
+    Long id = user[0].getId();
+
+    queries.measure("logIn", () -> user[0] = userService.logIn(newUser("budget")))
+        .assertStatementsAtMost(1)
+        .assertEntityLoadsAtMost(1)
+        .assertNoNPlusOne();
+    String token = user[0].getToken();
+
+    queries.measure("findByID", () -> userService.findByID(id))
+        .assertStatementsAtMost(1)
+        .assertEntityLoadsAtMost(1);
+    queries.measure("findByName", () -> userService.findByName("budget"))
+        .assertStatementsAtMost(1)
+        .assertEntityLoadsAtMost(1);
+
+    // a slice reads one row beyond the page to know whether there is more
+    queries.measure("getUsers", () -> userService.getUsers(null, 50, null, null))
+        .assertStatementsAtMost(1)
+        .assertEntityLoadsAtMost(0)
+        .assertNoNPlusOne();
+    queries.measure("getProfile", () -> userService.getProfile(id))
+        .assertStatementsAtMost(1)
+        .assertEntityLoadsAtMost(0);
+
+    User edit = new User();
+    edit.setId(id);
+    edit.setToken(token);
+    edit.setUsername("budgetRenamed");
+    queries.measure("editUser", () -> userService.editUser(edit))
+        .assertStatementsAtMost(3)
+        .assertEntityLoadsAtMost(1)
+        .assertNoNPlusOne();
+
+    User logout = new User();
+    logout.setId(id);
+    logout.setToken(token);
+    queries.measure("logOutUser", () -> userService.logOutUser(logout))
+        .assertStatementsAtMost(1)
+        .assertEntityLoadsAtMost(1)
+        .assertNoNPlusOne();
+
+    // the pending users are written as one plain JDBC batch per chunk of 500,
+    // Hibernate prepares nothing and loads no user
+    Mockito.clearInvocations(jdbcTemplate);
+    queries.measure("presence flush", presenceTracker::flush)
+        .assertStatementsAtMost(0)
+        .assertEntityLoadsAtMost(0);
+    Mockito.verify(jdbcTemplate).batchUpdate(Mockito.eq(PresenceTracker.UPDATE_PRESENCE),
+        ArgumentMatchers.<Object[]>anyList());
+  }
+
+  @Test
+  public void uniquenessChecks_unseenUsernames_skipTheDatabase(QueryCounter queries) throws Exception {
+    assertTrue(usernameFilter.isReady());
+    String prefix = "unseen" + UUID.randomUUID();
+
+    User[] user = new User[1];
+    queries.measure("createUser", () -> user[0] = userService.createUser(newUser(prefix)))
+        .assertQueriesAtMost(0);
+    List<User> batch = new ArrayList<>();
+    for (int i = 0; i < 50; i++) {
+      batch.add(newUser(prefix + "-" + i));
+    }
+    queries.measure("createUsers", () -> userService.createUsers(batch))
+        .assertQueriesAtMost(0);
+
+    User edit = new User();
+    edit.setId(user[0].getId());
+    edit.setToken(user[0].getToken());
+    edit.setUsername(prefix + "-renamed");
+    queries.measure("editUser", () -> userService.editUser(edit))
+        .assertQueriesAtMost(0);
+
+    // names taken by creates and renames are still rejected
+    assertThrows(ResponseStatusException.class, () -> userService.createUser(newUser(prefix + "-renamed")));
+    assertThrows(ResponseStatusException.class, () -> userService.createUser(newUser(prefix + "-0")));
+    assertNull(userService.createUsers(List.of(newUser(prefix + "-1"))).get(0));
+  }
+
+  @Test
+  public void logIn_countsOutcomes_andTimesOperations() {
+    userService.createUser(newUser("metered"));
+    double succeeded = loginCount("success");
+    double wrongPassword = loginCount("wrong_password");
+    double unknownUser = loginCount("unknown_user");
+
+    // when
+    User login = newUser("metered");
+    userService.logIn(login);
+    login.setPassword("wrong");
+    assertThrows(ResponseStatusException.class, () -> userService.logIn(login));
+    assertThrows(ResponseStatusException.class, () -> userService.logIn(newUser("nobody")));
+
+    // then
+    assertEquals(succeeded + 1, loginCount("success"));
+    assertEquals(wrongPassword + 1, loginCount("wrong_password"));
+    assertEquals(unknownUser + 1, loginCount("unknown_user"));
+    assertTrue(meterRegistry.get(UserService.TIMER).tag("method", "logIn").timers().stream()
+        .mapToLong(timer -> timer.count()).sum() >= 3);
+  }
+
+  private double loginCount(String outcome) {
+    return meterRegistry.get("users.logins").tag("outcome", outcome).counter().count();
+  }
+
+  @Test
+  public void createUsers_nameTakenDuringBatch_onlyThatEntryConflicts() {
+    // given -> a row the username filter does not know about, so the batch does not check for it,
+    // as if it had been inserted between the check and the inserts
+    User sneaky = newUser("sneaky");
+    sneaky.setToken(UUID.randomUUID().toString());
+    sneaky.setStatus(UserStatus.OFFLINE);
+    sneaky.setCreationDate(new Date());
+    userRepository.saveAndFlush(sneaky);
+
+    List<User> inputs = new ArrayList<>();
+    for (int i = 0; i < 120; i++) {
+      inputs.add(newUser(i == 70 ? "sneaky" : "raced" + i));
+    }
+
+    // when
+    List<User> results = userService.createUsers(inputs);
+
+    // then -> the others were inserted again without it
+    assertNull(results.get(70));
+    assertEquals(119, results.stream().filter(Objects::nonNull).count());
+    assertEquals(120, userRepository.count());
+    // the sessions of the inserted users work
+    userService.logOutUser(withToken(results.get(0).getId(), results.get(0).getToken()));
+    assertEquals(results.get(119).getId(), userRepository.findByUsername("raced119").getId());
+  }
+
+  private static User withToken(Long id, String token) {
+    User user = new User();
+    user.setId(id);
+    user.setToken(token);
+    return user;
+  }
+
+  private User newUser(String username) {
+    User user = new User();
+    user.setUsername(username);
+    user.setPassword("password");
+    return user;
+  }
+
+  @Test
+  public void lookups_loadConstantRows_independentOfTableSize() {
+    Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+
+    long[] smallTable = measureLookups(statistics, 10);
+    long[] largeTable = measureLookups(statistics, 1000);
+
+    // one entity per lookup, no matter how many rows the table holds
+    assertEquals(2, smallTable[0]);
+    assertEquals(smallTable[0], largeTable[0]);
+    assertEquals(smallTable[1], largeTable[1]);
+  }
+
+  /**
+   * Seeds the table with the given number of users and returns the entity load
+   * and statement counts of one findByID and one findByName call.
+   */
+  private long[] measureLookups(Statistics statistics, int tableSize) {
+    userRepository.deleteAll();
+    List<User> users = new ArrayList<>();
+    for (int i = 0; i < tableSize; i++) {
+      User user = new User();
+      user.setUsername("user" + i);
+      user.setPassword("password" + i);
+      user.setToken(UUID.randomUUID().toString());
+      user.setStatus(UserStatus.OFFLINE);
+      user.setCreationDate(new Date());
+      users.add(user);
+    }
+    users = userRepository.saveAll(users);
+    User target = users.get(tableSize / 2);
+
+    statistics.clear();
+    assertEquals(target.getId(), userService.findByID(target.getId()).getId());
+    assertEquals(target.getId(), userService.findByName(target.getUsername()).getId());
+
+    return new long[] { statistics.getEntityLoadCount(), statistics.getPrepareStatementCount() };
+  }
 }
@@ -9,9 +9,16 @@ import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.http.HttpStatus;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.web.server.ResponseStatusException;
 
+import java.util.Date;
+import java.util.Optional;
+import java.util.function.Consumer;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 public class UserServiceTest {
@@ -19,6 +26,36 @@ public class UserServiceTest {
   @Mock
   private UserRepository userRepository;
 
+  @Mock
+  private SessionRegistry sessionRegistry;
+
+  @Mock
+  private ApplicationEventPublisher eventPublisher;
+
+  @Mock
+  private PresenceTracker presenceTracker;
+
+  @Mock
+  private UserMetrics metrics;
+
+  @Mock
+  private PasswordHasher passwordHasher;
+
+  @Mock
+  private UsernameBloomFilter usernameFilter;
+
+  @Mock
+  private PlatformTransactionManager transactionManager;
+
+  @Mock
+  private TokenSigner tokenSigner;
+
+  @Mock
+  private TokenDenylist tokenDenylist;
+
+  @Mock
+  private SessionExpiry sessionExpiry;
+
   @InjectMocks
   private UserService userService;
 
@@ -37,6 +74,8 @@ public class UserServiceTest {
     // when -> any object is being save in the userRepository -> return the dummy
     // testUser
     Mockito.when(userRepository.save(Mockito.any())).thenReturn(testUser);
+    // every name might be taken unless a test says otherwise
+    Mockito.when(usernameFilter.mightContain(Mockito.any())).thenReturn(true);
   }
 
   @Test
@@ -83,6 +122,16 @@ public class UserServiceTest {
     assertThrows(ResponseStatusException.class, () -> userService.createUser(testUser));
   }
 
+  @Test
+  public void createUser_usernameNotInFilter_skipsUniquenessQuery() {
+    Mockito.when(usernameFilter.mightContain("testName")).thenReturn(false);
+
+    userService.createUser(testUser);
+
+    Mockito.verify(userRepository, Mockito.never()).findByUsername(Mockito.any());
+    Mockito.verify(userRepository, Mockito.times(1)).save(Mockito.any());
+  }
+
   public void userToEditNotFound() throws Exception{
       User user = new User();
       user.setId(6L);
@@ -91,4 +140,130 @@ public class UserServiceTest {
 // check that an error is thrown
       assertEquals(HttpStatus.NOT_FOUND, exception.getStatus());
   }
+
+  @Test
+  public void editUser_unknownToken_rejectedWithoutDatabaseAccess() {
+      User user = new User();
+      user.setId(1L);
+      user.setToken("unknown");
+      user.setUsername("newName");
+
+      ResponseStatusException exception = assertThrows(ResponseStatusException.class, () -> userService.editUser(user));
+
+      assertEquals(HttpStatus.UNAUTHORIZED, exception.getStatus());
+      Mockito.verifyNoInteractions(userRepository);
+  }
+
+  @Test
+  public void editUser_revokedSignedToken_rejectedWithoutDatabaseAccess() {
+      TokenSigner.Claims claims = new TokenSigner.Claims(1L, 0L, Long.MAX_VALUE, 42L);
+      Mockito.when(tokenSigner.verify("signed")).thenReturn(claims);
+      Mockito.when(tokenDenylist.isRevoked(claims)).thenReturn(true);
+      User user = new User();
+      user.setId(1L);
+      user.setToken("signed");
+      user.setUsername("newName");
+
+      ResponseStatusException exception = assertThrows(ResponseStatusException.class, () -> userService.editUser(user));
+
+      assertEquals(HttpStatus.UNAUTHORIZED, exception.getStatus());
+      Mockito.verifyNoInteractions(userRepository, sessionRegistry);
+  }
+
+  @Test
+  public void editUser_signedTokenOfOtherUser_rejected() {
+      Mockito.when(tokenSigner.verify("signed")).thenReturn(new TokenSigner.Claims(2L, 0L, Long.MAX_VALUE, 42L));
+      User user = new User();
+      user.setId(1L);
+      user.setToken("signed");
+
+      ResponseStatusException exception = assertThrows(ResponseStatusException.class, () -> userService.editUser(user));
+
+      assertEquals(HttpStatus.UNAUTHORIZED, exception.getStatus());
+      Mockito.verifyNoInteractions(userRepository, sessionRegistry);
+  }
+
+  @Test
+  public void expireIdleSessions_logsOutAndRevokes() {
+      SessionExpiry.Session session = new SessionExpiry.Session(1L, "testName", "token", 0L);
+      Mockito.when(sessionExpiry.expire(Mockito.anyLong(), Mockito.any())).thenAnswer(invocation -> {
+          invocation.<Consumer<SessionExpiry.Session>>getArgument(1).accept(session);
+          return 1;
+      });
+
+      userService.expireIdleSessions();
+
+      Mockito.verify(presenceTracker).record(1L, UserStatus.OFFLINE, null);
+      Mockito.verify(sessionRegistry).remove("token");
+      Mockito.verify(eventPublisher).publishEvent(Mockito.argThat((Object event) ->
+          event instanceof UserChangedEvent
+              && ((UserChangedEvent) event).getType() == UserChangedEvent.Type.LOGGED_OUT
+              && ((UserChangedEvent) event).getStatus() == UserStatus.OFFLINE));
+  }
+
+  // an authenticated edit of testUser, which is stored with the given state
+  private User editOfStoredUser(Date storedBirthday, Long storedVersion) {
+      testUser.setToken("token");
+      testUser.setBirthday(storedBirthday);
+      testUser.setVersion(storedVersion);
+      Mockito.when(sessionRegistry.authenticate("token"))
+          .thenReturn(new SessionRegistry.Session(1L, UserStatus.ONLINE));
+      Mockito.when(userRepository.findById(1L)).thenReturn(Optional.of(testUser));
+      User edit = new User();
+      edit.setId(1L);
+      edit.setToken("token");
+      return edit;
+  }
+
+  @Test
+  public void editUser_staleIfMatchVersion_preconditionFailed() {
+      User edit = editOfStoredUser(null, 5L);
+      edit.setUsername("newName");
+      edit.setVersion(4L);
+
+      ResponseStatusException exception = assertThrows(ResponseStatusException.class, () -> userService.editUser(edit));
+
+      assertEquals(HttpStatus.PRECONDITION_FAILED, exception.getStatus());
+      assertEquals("testName", testUser.getUsername());
+  }
+
+  @Test
+  public void editUser_lostRaceOnOtherField_retriedAndMerged() {
+      Date birthday = new Date(0);
+      User edit = editOfStoredUser(birthday, 1L);
+      edit.setUsername("newName");
+      edit.setBirthday(birthday);
+      // the first write loses against a birthday change, which the second read sees
+      Date changedBirthday = new Date(86400000L);
+      Mockito.doAnswer(invocation -> {
+          testUser.setUsername("testName");
+          testUser.setBirthday(changedBirthday);
+          testUser.setVersion(2L);
+          throw new ObjectOptimisticLockingFailureException(User.class, 1L);
+      }).doNothing().when(transactionManager).commit(Mockito.any());
+      Mockito.when(usernameFilter.mightContain("newName")).thenReturn(false);
+
+      userService.editUser(edit);
+
+      Mockito.verify(userRepository, Mockito.times(2)).findById(1L);
+      assertEquals("newName", testUser.getUsername());
+      assertEquals(changedBirthday, testUser.getBirthday());
+  }
+
+  @Test
+  public void editUser_lostRaceOnSameField_conflict() {
+      User edit = editOfStoredUser(null, 1L);
+      edit.setUsername("newName");
+      Mockito.doAnswer(invocation -> {
+          testUser.setUsername("otherName");
+          testUser.setVersion(2L);
+          throw new ObjectOptimisticLockingFailureException(User.class, 1L);
+      }).when(transactionManager).commit(Mockito.any());
+      Mockito.when(usernameFilter.mightContain("newName")).thenReturn(false);
+
+      ResponseStatusException exception = assertThrows(ResponseStatusException.class, () -> userService.editUser(edit));
+
+      assertEquals(HttpStatus.CONFLICT, exception.getStatus());
+      assertEquals("otherName", testUser.getUsername());
+  }
 }
@@ -0,0 +1,68 @@
+package ch.uzh.ifi.hase.soprafs24.service;
+
+import ch.uzh.ifi.hase.soprafs24.repository.UserRepository;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class UsernameBloomFilterTest {
+
+  private final UserRepository userRepository = Mockito.mock(UserRepository.class);
+
+  @Test
+  public void mightContain_beforeLoad_alwaysTrue() {
+    UsernameBloomFilter filter = new UsernameBloomFilter(userRepository, 1000, 0.01, 1 << 20);
+
+    assertFalse(filter.isReady());
+    assertTrue(filter.mightContain("anyone"));
+  }
+
+  @Test
+  public void mightContain_loadedAndAddedNames_neverMissed() {
+    Mockito.when(userRepository.streamAllUsernames()).thenReturn(Stream.of("alice", "bob"));
+    UsernameBloomFilter filter = new UsernameBloomFilter(userRepository, 1000, 0.01, 1 << 20);
+
+    filter.load();
+    filter.onUserChanged(new UserChangedEvent(3L, UserChangedEvent.Type.CREATED, "carol", "carol", null));
+    filter.onUserChanged(new UserChangedEvent(1L, UserChangedEvent.Type.UPDATED, "alice2", "alice", null));
+
+    assertTrue(filter.mightContain("alice"));
+    assertTrue(filter.mightContain("bob"));
+    assertTrue(filter.mightContain("carol"));
+    assertTrue(filter.mightContain("alice2"));
+    assertFalse(filter.mightContain("dave"));
+    assertEquals(1, filter.getNegativeCount());
+  }
+
+  @Test
+  public void mightContain_falsePositiveRate_closeToConfigured() {
+    Mockito.when(userRepository.streamAllUsernames()).thenReturn(Stream.empty());
+    UsernameBloomFilter filter = new UsernameBloomFilter(userRepository, 10000, 0.01, 1 << 20);
+    filter.load();
+    for (int i = 0; i < 10000; i++) {
+      filter.add("user" + i);
+    }
+
+    int falsePositives = 0;
+    for (int i = 0; i < 100000; i++) {
+      if (filter.mightContain("other" + i)) {
+        falsePositives++;
+      }
+    }
+
+    // 1% expected, allow for the variance of 100000 samples
+    assertTrue(falsePositives < 1500, String.valueOf(falsePositives));
+    assertEquals(0.01, filter.estimatedFalsePositiveRate(), 0.005);
+  }
+
+  @Test
+  public void constructor_maxBytes_capsTheFilter() {
+    UsernameBloomFilter filter = new UsernameBloomFilter(userRepository, 1000000, 0.001, 4096);
+
+    assertEquals(4096, filter.getSizeInBytes());
+    assertEquals(1, filter.getHashCount());
+  }
+}
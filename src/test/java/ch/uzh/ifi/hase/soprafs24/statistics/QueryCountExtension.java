@@ -0,0 +1,53 @@
+package ch.uzh.ifi.hase.soprafs24.statistics;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.extension.BeforeEachCallback;
+import org.junit.jupiter.api.extension.ExtensionContext;
+import org.junit.jupiter.api.extension.ParameterContext;
+import org.junit.jupiter.api.extension.ParameterResolver;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import javax.persistence.EntityManagerFactory;
+
+/**
+ * Query Count Extension
+ * This JUnit extension hands a QueryCounter to test methods of Spring tests
+ * that run against the real database, so that a test can measure single
+ * operations and assert how many statements and entity loads they cause.
+ * Statistics are enabled before each test. They are global to the
+ * SessionFactory, so tests using this must keep background writers (the
+ * presence flush) from running during a measurement.
+ *
+ * <pre>
+ * &#64;ExtendWith(QueryCountExtension.class)
+ * ...
+ * queries.measure("findByID", () -&gt; userService.findByID(id))
+ *     .assertStatementsAtMost(1)
+ *     .assertEntityLoadsAtMost(1)
+ *     .assertNoNPlusOne();
+ * </pre>
+ */
+public class QueryCountExtension implements BeforeEachCallback, ParameterResolver {
+
+  @Override
+  public void beforeEach(ExtensionContext context) {
+    statistics(context).setStatisticsEnabled(true);
+  }
+
+  @Override
+  public boolean supportsParameter(ParameterContext parameterContext, ExtensionContext extensionContext) {
+    return parameterContext.getParameter().getType() == QueryCounter.class;
+  }
+
+  @Override
+  public Object resolveParameter(ParameterContext parameterContext, ExtensionContext extensionContext) {
+    return new QueryCounter(statistics(extensionContext));
+  }
+
+  private static Statistics statistics(ExtensionContext context) {
+    EntityManagerFactory entityManagerFactory = SpringExtension.getApplicationContext(context)
+        .getBean(EntityManagerFactory.class);
+    return entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+  }
+}
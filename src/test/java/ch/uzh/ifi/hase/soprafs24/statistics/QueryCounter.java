@@ -0,0 +1,140 @@
+package ch.uzh.ifi.hase.soprafs24.statistics;
+
+import org.hibernate.stat.Statistics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Query Counter
+ * Measures the Hibernate statistics of one operation at a time. Obtain it as
+ * a test method parameter through QueryCountExtension.
+ */
+public final class QueryCounter {
+
+  private static final int MAX_QUERY_LENGTH = 120;
+
+  private final Statistics statistics;
+
+  QueryCounter(Statistics statistics) {
+    this.statistics = statistics;
+  }
+
+  /**
+   * Runs the operation with fresh statistics and returns what it caused.
+   */
+  public OperationStatistics measure(String operation, Operation action) throws Exception {
+    statistics.clear();
+    action.run();
+    Map<String, Long> queryExecutions = new LinkedHashMap<>();
+    long queryRows = 0;
+    for (String query : statistics.getQueries()) {
+      long executions = statistics.getQueryStatistics(query).getExecutionCount();
+      if (executions > 0) {
+        queryExecutions.put(query, executions);
+      }
+      queryRows += statistics.getQueryStatistics(query).getExecutionRowCount();
+    }
+    return new OperationStatistics(operation, statistics.getPrepareStatementCount(),
+        statistics.getEntityLoadCount(), statistics.getEntityFetchCount(), statistics.getCollectionFetchCount(),
+        queryRows, queryExecutions);
+  }
+
+  private static String abbreviate(String query) {
+    return query.length() <= MAX_QUERY_LENGTH ? query : query.substring(0, MAX_QUERY_LENGTH) + "...";
+  }
+
+  @FunctionalInterface
+  public interface Operation {
+    void run() throws Exception;
+  }
+
+  /**
+   * The statistics of one measured operation, with assertions that name the
+   * operation and show all counts when they fail.
+   */
+  public static final class OperationStatistics {
+    private final String operation;
+    private final long statements;
+    private final long entityLoads;
+    private final long entityFetches;
+    private final long collectionFetches;
+    private final long queryRows;
+    private final Map<String, Long> queryExecutions;
+
+    OperationStatistics(String operation, long statements, long entityLoads, long entityFetches,
+        long collectionFetches, long queryRows, Map<String, Long> queryExecutions) {
+      this.operation = operation;
+      this.statements = statements;
+      this.entityLoads = entityLoads;
+      this.entityFetches = entityFetches;
+      this.collectionFetches = collectionFetches;
+      this.queryRows = queryRows;
+      this.queryExecutions = queryExecutions;
+    }
+
+    /** JDBC statements prepared, including inserts and updates. */
+    public OperationStatistics assertStatementsAtMost(long max) {
+      assertTrue(statements <= max, () -> operation + " prepared more than " + max + " statements: " + this);
+      return this;
+    }
+
+    /** Rows materialized as entities, by lookups and by queries. */
+    public OperationStatistics assertEntityLoadsAtMost(long max) {
+      assertTrue(entityLoads <= max, () -> operation + " loaded more than " + max + " entities: " + this);
+      return this;
+    }
+
+    /** HQL/JPQL query executions, not counting lookups by ID, inserts and updates. */
+    public OperationStatistics assertQueriesAtMost(long max) {
+      long queries = queryExecutions.values().stream().mapToLong(Long::longValue).sum();
+      assertTrue(queries <= max, () -> operation + " ran more than " + max + " queries: " + this);
+      return this;
+    }
+
+    /** Rows returned by HQL/JPQL queries, including projections. */
+    public OperationStatistics assertQueryRowsAtMost(long max) {
+      assertTrue(queryRows <= max, () -> operation + " read more than " + max + " query rows: " + this);
+      return this;
+    }
+
+    /**
+     * Fails on lazy loads of single entities or collections and on any query
+     * that ran more than once, the usual shapes of an N+1 pattern.
+     */
+    public OperationStatistics assertNoNPlusOne() {
+      return assertNoNPlusOne(1);
+    }
+
+    /**
+     * Like assertNoNPlusOne(), but allows each query to run up to
+     * maxExecutionsPerQuery times, for operations that work in chunks.
+     */
+    public OperationStatistics assertNoNPlusOne(long maxExecutionsPerQuery) {
+      assertTrue(entityFetches == 0 && collectionFetches == 0,
+          () -> operation + " fetched associations one by one: " + this);
+      queryExecutions.forEach((query, executions) -> assertTrue(executions <= maxExecutionsPerQuery,
+          () -> operation + " ran the same query " + executions + " times: " + abbreviate(query)));
+      return this;
+    }
+
+    public long getStatements() {
+      return statements;
+    }
+
+    public long getEntityLoads() {
+      return entityLoads;
+    }
+
+    @Override
+    public String toString() {
+      Map<String, Long> queries = new LinkedHashMap<>();
+      queryExecutions.forEach((query, executions) -> queries.put(abbreviate(query), executions));
+      return String.format("%s{statements=%d, entityLoads=%d, entityFetches=%d, collectionFetches=%d, "
+          + "queryRows=%d, queries=%s}", operation, statements, entityLoads, entityFetches, collectionFetches,
+          queryRows, queries);
+    }
+  }
+}
@@ -0,0 +1,116 @@
+package ch.uzh.ifi.hase.soprafs24.tracing;
+
+import ch.uzh.ifi.hase.soprafs24.repository.UserRepository;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest(properties = {
+    "tracing.server-timing.enabled=true",
+    "tracing.server-timing.sample-rate=1.0",
+    "presence.flush-interval-ms=3600000"
+})
+@AutoConfigureMockMvc
+public class ServerTimingIntegrationTest {
+
+  private static final Pattern SERVER_TIMING = Pattern.compile(
+      "db;dur=[0-9.]+;desc=\"(\\d+) statements\", mapping;dur=[0-9.]+, serialization;dur=[0-9.]+, app;dur=[0-9.]+");
+
+  @Autowired
+  private MockMvc mockMvc;
+
+  @Qualifier("userRepository")
+  @Autowired
+  private UserRepository userRepository;
+
+  private final ObjectMapper objectMapper = new ObjectMapper();
+
+  @BeforeEach
+  public void setup() {
+    userRepository.deleteAll();
+  }
+
+  @Test
+  public void userEndpoints_reportServerTiming() throws Exception {
+    // a body is written -> the header is set before serialization finishes
+    MvcResult created = mockMvc.perform(post("/users").contentType(MediaType.APPLICATION_JSON)
+        .content("{\"username\":\"timed\",\"password\":\"password\"}"))
+        .andExpect(status().isCreated()).andReturn();
+    assertTrue(statements(created) >= 2, "uniqueness check and insert");
+    JsonNode user = objectMapper.readTree(created.getResponse().getContentAsString());
+    assertEquals("timed", user.get("username").asText());
+
+    MvcResult profile = mockMvc.perform(get("/users/" + user.get("id").asLong()))
+        .andExpect(status().isOk()).andReturn();
+    assertEquals(1, statements(profile));
+
+    // no body -> the filter sets the header, nothing reached the database
+    mockMvc.perform(get("/users/" + user.get("id").asLong())
+        .header(HttpHeaders.IF_NONE_MATCH, profile.getResponse().getHeader(HttpHeaders.ETAG)))
+        .andExpect(status().isNotModified())
+        .andDo(result -> assertEquals(0, statements(result)));
+
+    MvcResult login = mockMvc.perform(post("/login").contentType(MediaType.APPLICATION_JSON)
+        .content("{\"username\":\"timed\",\"password\":\"password\"}"))
+        .andExpect(status().isOk()).andReturn();
+    assertEquals(1, statements(login));
+    String token = objectMapper.readTree(login.getResponse().getContentAsString()).get("token").asText();
+
+    MvcResult logout = mockMvc.perform(put("/logout").contentType(MediaType.APPLICATION_JSON)
+        .content(objectMapper.createObjectNode().put("id", user.get("id").asLong())
+            .put("token", token).toString()))
+        .andExpect(status().isNoContent()).andReturn();
+    assertEquals(1, statements(logout));
+  }
+
+  @Test
+  public void unsampledRequest_measuredWithoutHeader() throws Exception {
+    ServerTimingFilter filter = new ServerTimingFilter(0.0, 1000);
+    MockHttpServletResponse response = new MockHttpServletResponse();
+    boolean[] traced = new boolean[1];
+
+    filter.doFilter(new MockHttpServletRequest("GET", "/users"), response,
+        new MockFilterChain(new HttpServlet() {
+          @Override
+          protected void service(HttpServletRequest request, HttpServletResponse response) {
+            traced[0] = RequestTrace.current() != null && !RequestTrace.current().isExposed();
+          }
+        }));
+
+    assertTrue(traced[0]);
+    assertNull(response.getHeader(RequestTrace.SERVER_TIMING_HEADER));
+    assertNull(RequestTrace.current());
+  }
+
+  private static int statements(MvcResult result) {
+    String header = result.getResponse().getHeader(RequestTrace.SERVER_TIMING_HEADER);
+    assertNotNull(header, "Server-Timing header missing");
+    Matcher matcher = SERVER_TIMING.matcher(header);
+    assertTrue(matcher.matches(), header);
+    return Integer.parseInt(matcher.group(1));
+  }
+}